@@ -1,11 +1,16 @@
 package entity;
 
+import org.tank.mysql.Id;
+import org.tank.mysql.Table;
+
 /**
  * Created by Tank
  *         on 2016/12/30.
  */
+@Table("dict")
 public class Word {
 
+	@Id
 	private int id;
 	private String word;
 	private String ipa;
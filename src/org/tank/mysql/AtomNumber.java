@@ -1,33 +1,39 @@
 package org.tank.mysql;
 
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * Created by Tank
  * on 2017/1/10.
+ *
+ * 分段计数器, 多个线程同时累加时各自累加到不同的段上, 读取时再求和,
+ * 避免所有线程争用同一个缓存行
  */
 public class AtomNumber {
-	private int number = 0;
+	private final LongAdder number = new LongAdder();
 
 	public AtomNumber() {
-		this.number = 0;
 	}
 
 	public AtomNumber(int number) {
-		this.number = number;
+		this.number.add(number);
 	}
 
 	public void inc(int n) {
-		synchronized (this) {
-			number += n;
-		}
+		number.add(n);
 	}
 
 	public int getValue() {
-		return number;
+		return number.intValue();
 	}
 
+	/**
+	 * 重置计数器, 与 inc 并发调用时结果不确定, 只应在初始化时使用
+	 *
+	 * @param number 新的值
+	 */
 	public void setValue(int number) {
-		synchronized (this) {
-			this.number = number;
-		}
+		this.number.reset();
+		this.number.add(number);
 	}
 }
@@ -0,0 +1,18 @@
+package org.tank.mysql;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 指定实体变量对应的字段名, 未标记的变量使用变量名作为字段名
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Column {
+	// 字段名, 为空时使用变量名
+	String value() default "";
+}
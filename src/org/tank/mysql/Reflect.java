@@ -14,17 +14,28 @@ package org.tank.mysql;/*
  * limitations under the License.
  */
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A wrapper for an {@link Object} or {@link Class} upon which reflective calls
@@ -250,27 +261,13 @@ public class Reflect {
 	}
 
 	private Field field0(String name) throws ReflectException {
-		Class<?> type = type();
+		Field field = lookupField(type(), name);
 
-		// Try getting a public field
-		try {
-			return accessible(type.getField(name));
+		if (field == null) {
+			throw new ReflectException(new NoSuchFieldException(name));
 		}
 
-		// Try again, getting a non-public field
-		catch (NoSuchFieldException e) {
-			do {
-				try {
-					return accessible(type.getDeclaredField(name));
-				} catch (NoSuchFieldException ignore) {
-				}
-
-				type = type.getSuperclass();
-			}
-			while (type != null);
-
-			throw new ReflectException(e);
-		}
+		return field;
 	}
 
 	/**
@@ -290,22 +287,10 @@ public class Reflect {
 	 */
 	public Map<String, Reflect> fields() {
 		Map<String, Reflect> result = new LinkedHashMap<String, Reflect>();
-		Class<?> type = type();
-
-		do {
-			for (Field field : type.getDeclaredFields()) {
-				if (!isClass ^ Modifier.isStatic(field.getModifiers())) {
-					String name = field.getName();
 
-					if (!result.containsKey(name)) {
-						result.put(name, field(name));
-					}
-				}
-			}
-
-			type = type.getSuperclass();
+		for (String name : METADATA.get(type()).fieldNames(isClass)) {
+			result.put(name, field(name));
 		}
-		while (type != null);
 
 		return result;
 	}
@@ -365,25 +350,10 @@ public class Reflect {
 	 * @throws ReflectException If any reflection exception occurred.
 	 */
 	public Reflect call(String name, Object... args) throws ReflectException {
-		Class<?>[] types = types(args);
+		Invoker invoker = METADATA.get(type()).method(name, types(args));
+		Object result = invoker.invoke(object, args == null ? new Object[0] : args);
 
-		// Try invoking the "canonical" method, i.e. the one with exact
-		// matching argument types
-		try {
-			Method method = exactMethod(name, types);
-			return on(method, object, args);
-		}
-
-		// If there is no exact match, try to find a method that has a "similar"
-		// signature if primitive argument types are converted to their wrappers
-		catch (NoSuchMethodException e) {
-			try {
-				Method method = similarMethod(name, types);
-				return on(method, object, args);
-			} catch (NoSuchMethodException e1) {
-				throw new ReflectException(e1);
-			}
-		}
+		return invoker.isVoid ? on(object) : on(result);
 	}
 
 	/**
@@ -393,8 +363,8 @@ public class Reflect {
 	 * Otherwise a private method with the exact same signature is returned.
 	 * If no exact match could be found, we let the {@code NoSuchMethodException} pass through.
 	 */
-	private Method exactMethod(String name, Class<?>[] types) throws NoSuchMethodException {
-		Class<?> type = type();
+	private static Method exactMethod(Class<?> type, String name, Class<?>[] types)
+			throws NoSuchMethodException {
 
 		// first priority: find a public method with exact signature match in class hierarchy
 		try {
@@ -425,8 +395,9 @@ public class Reflect {
 	 * methods on the declaring class. If a method could be found, it is
 	 * returned, otherwise a {@code NoSuchMethodException} is thrown.
 	 */
-	private Method similarMethod(String name, Class<?>[] types) throws NoSuchMethodException {
-		Class<?> type = type();
+	private static Method similarMethod(Class<?> type, String name, Class<?>[] types)
+			throws NoSuchMethodException {
+		Class<?> start = type;
 
 		// first priority: find a public method with a "similar" signature in class hierarchy
 		// similar interpreted in when primitive argument types are converted to their wrappers
@@ -453,7 +424,7 @@ public class Reflect {
 		                                + " with params "
 		                                + Arrays.toString(types)
 		                                + " could be found on type "
-		                                + type()
+		                                + start
 		                                + ".");
 	}
 
@@ -461,9 +432,9 @@ public class Reflect {
 	 * Determines if a method has a "similar" signature, especially if wrapping
 	 * primitive argument types would result in an exactly matching signature.
 	 */
-	private boolean isSimilarSignature(Method possiblyMatchingMethod,
-	                                   String desiredMethodName,
-	                                   Class<?>[] desiredParamTypes) {
+	private static boolean isSimilarSignature(Method possiblyMatchingMethod,
+	                                          String desiredMethodName,
+	                                          Class<?>[] desiredParamTypes) {
 		return possiblyMatchingMethod.getName().equals(desiredMethodName) && match(
 				possiblyMatchingMethod.getParameterTypes(),
 				desiredParamTypes);
@@ -510,25 +481,35 @@ public class Reflect {
 	 * @throws ReflectException If any reflection exception occurred.
 	 */
 	public Reflect create(Object... args) throws ReflectException {
-		Class<?>[] types = types(args);
+		Invoker invoker = METADATA.get(type()).constructor(types(args));
+
+		return on(invoker.invoke(null, args == null ? new Object[0] : args));
+	}
+
+	/**
+	 * Searches a constructor with the exact same signature as desired, then
+	 * one with a "similar" signature if primitive argument types are converted
+	 * to their wrappers.
+	 */
+	private static Constructor<?> constructor(Class<?> type, Class<?>[] types)
+			throws NoSuchMethodException {
 
-		// Try invoking the "canonical" constructor, i.e. the one with exact
-		// matching argument types
+		// Try the "canonical" constructor, i.e. the one with exact matching
+		// argument types
 		try {
-			Constructor<?> constructor = type().getDeclaredConstructor(types);
-			return on(constructor, args);
+			return type.getDeclaredConstructor(types);
 		}
 
 		// If there is no exact match, try to find one that has a "similar"
 		// signature if primitive argument types are converted to their wrappers
 		catch (NoSuchMethodException e) {
-			for (Constructor<?> constructor : type().getDeclaredConstructors()) {
+			for (Constructor<?> constructor : type.getDeclaredConstructors()) {
 				if (match(constructor.getParameterTypes(), types)) {
-					return on(constructor, args);
+					return constructor;
 				}
 			}
 
-			throw new ReflectException(e);
+			throw e;
 		}
 	}
 
@@ -541,42 +522,169 @@ public class Reflect {
 	 */
 	@SuppressWarnings("unchecked")
 	public <P> P as(Class<P> proxyType) {
-		final boolean isMap = (object instanceof Map);
+		ProxyMetadata metadata = PROXIES.get(proxyType);
+		final Object target = object;
+		final Map<Method, Dispatch> plan = metadata.plans.get(target.getClass());
 		final InvocationHandler handler = new InvocationHandler() {
-			@SuppressWarnings("null")
 			@Override
 			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-				String name = method.getName();
+				Dispatch dispatch = plan.get(method);
 
-				// Actual method name matches always come first
-				try {
-					return on(object).call(name, args).get();
+				if (dispatch == null) {
+					dispatch = Dispatch.of(method, target.getClass());
 				}
 
-				// [#14] Emulate POJO behaviour on wrapped map objects
-				catch (ReflectException e) {
-					if (isMap) {
-						Map<String, Object> map = (Map<String, Object>) object;
-						int length = (args == null ? 0 : args.length);
-
-						if (length == 0 && name.startsWith("get")) {
-							return map.get(property(name.substring(3)));
-						} else if (length == 0 && name.startsWith("is")) {
-							return map.get(property(name.substring(2)));
-						} else if (length == 1 && name.startsWith("set")) {
-							map.put(property(name.substring(3)), args[0]);
-							return null;
+				return dispatch.invoke(target, args);
+			}
+		};
+
+		try {
+			return (P) metadata.constructor.newInstance(handler);
+		} catch (Exception e) {
+			throw new ReflectException(e);
+		}
+	}
+
+	/**
+	 * Per-interface proxy metadata: the proxy class constructor, and the
+	 * dispatch plans of the interface methods for each target class
+	 */
+	private static final ClassValue<ProxyMetadata> PROXIES = new ClassValue<ProxyMetadata>() {
+		@Override
+		protected ProxyMetadata computeValue(Class<?> type) {
+			return new ProxyMetadata(type);
+		}
+	};
+
+	private static final class ProxyMetadata {
+		private final Constructor<?> constructor;
+		private final ClassValue<Map<Method, Dispatch>> plans;
+
+		@SuppressWarnings("deprecation")
+		ProxyMetadata(final Class<?> proxyType) {
+			try {
+				this.constructor = Proxy.getProxyClass(proxyType.getClassLoader(), proxyType)
+				                        .getConstructor(InvocationHandler.class);
+			} catch (NoSuchMethodException e) {
+				throw new ReflectException(e);
+			}
+
+			this.plans = new ClassValue<Map<Method, Dispatch>>() {
+				@Override
+				protected Map<Method, Dispatch> computeValue(Class<?> targetType) {
+					Map<Method, Dispatch> result = new HashMap<Method, Dispatch>();
+
+					for (Method method : proxyType.getMethods()) {
+						result.put(method, Dispatch.of(method, targetType));
+					}
+
+					// The proxy also routes these through the handler
+					for (Method method : Object.class.getMethods()) {
+						if (!Modifier.isFinal(method.getModifiers())) {
+							result.put(method, Dispatch.of(method, targetType));
 						}
 					}
 
-					throw e;
+					return result;
+				}
+			};
+		}
+	}
+
+	/**
+	 * How a single interface method is carried out on a given target class.
+	 * <p>
+	 * A method is called on the target by name, the actual method name
+	 * matches always coming first. [#14] Getters and setters on wrapped map
+	 * objects that have no such method emulate POJO behaviour with direct map
+	 * operations. The property name is derived once, when the plan is made.
+	 */
+	private static final class Dispatch {
+		private static final int CALL = 0;
+		private static final int GET = 1;
+		private static final int PUT = 2;
+
+		private final String name;
+		private final Metadata target;
+		private final int kind;
+		private final int fallback;
+		private final String property;
+
+		private Dispatch(String name, Metadata target, int kind, int fallback, String property) {
+			this.name = name;
+			this.target = target;
+			this.kind = kind;
+			this.fallback = fallback;
+			this.property = property;
+		}
+
+		static Dispatch of(Method method, Class<?> targetType) {
+			String name = method.getName();
+			int length = method.getParameterTypes().length;
+			int mapKind = CALL;
+			String property = null;
+
+			if (Map.class.isAssignableFrom(targetType)) {
+				if (length == 0 && name.startsWith("get")) {
+					mapKind = GET;
+					property = property(name.substring(3));
+				} else if (length == 0 && name.startsWith("is")) {
+					mapKind = GET;
+					property = property(name.substring(2));
+				} else if (length == 1 && name.startsWith("set")) {
+					mapKind = PUT;
+					property = property(name.substring(3));
+				}
+			}
+
+			Metadata target = METADATA.get(targetType);
+
+			// Without any method of that name, the call could never match
+			if (mapKind != CALL && !hasMethod(targetType, name)) {
+				return new Dispatch(name, target, mapKind, CALL, property);
+			}
+
+			return new Dispatch(name, target, CALL, mapKind, property);
+		}
+
+		@SuppressWarnings("unchecked")
+		Object invoke(Object object, Object[] args) throws ReflectException {
+			if (kind == CALL) {
+				Invoker invoker = target.method(name, types(args));
+
+				if (invoker.handle != null || fallback == CALL) {
+					Object result = invoker.invoke(object, args == null ? new Object[0] : args);
+					return invoker.isVoid ? object : result;
+				}
+			}
+
+			Map<String, Object> map = (Map<String, Object>) object;
+
+			if ((kind == CALL ? fallback : kind) == GET) {
+				return map.get(property);
+			}
+
+			map.put(property, args[0]);
+			return null;
+		}
+
+		private static boolean hasMethod(Class<?> type, String name) {
+			for (Method method : type.getMethods()) {
+				if (method.getName().equals(name)) {
+					return true;
 				}
 			}
-		};
 
-		return (P) Proxy.newProxyInstance(proxyType.getClassLoader(),
-		                                  new Class[]{proxyType},
-		                                  handler);
+			for (Class<?> t = type; t != null; t = t.getSuperclass()) {
+				for (Method method : t.getDeclaredMethods()) {
+					if (method.getName().equals(name)) {
+						return true;
+					}
+				}
+			}
+
+			return false;
+		}
 	}
 
 	/**
@@ -602,7 +710,7 @@ public class Reflect {
 	 * Check whether two arrays of types match, converting primitive types to
 	 * their corresponding wrappers.
 	 */
-	private boolean match(Class<?>[] declaredTypes, Class<?>[] actualTypes) {
+	private static boolean match(Class<?>[] declaredTypes, Class<?>[] actualTypes) {
 		if (declaredTypes.length == actualTypes.length) {
 			for (int i = 0; i < actualTypes.length; i++) {
 				if (actualTypes[i] == NULL.class) {
@@ -651,39 +759,324 @@ public class Reflect {
 	}
 
 	// ---------------------------------------------------------------------
-	// Utility methods
+	// Metadata cache
 	// ---------------------------------------------------------------------
 
 	/**
-	 * Wrap an object created from a constructor
+	 * Per-class metadata, resolved lazily and released together with the
+	 * class when its class loader is unloaded
 	 */
-	private static Reflect on(Constructor<?> constructor, Object... args) throws ReflectException {
-		try {
-			return on(accessible(constructor).newInstance(args));
-		} catch (Exception e) {
-			throw new ReflectException(e);
+	private static final ClassValue<Metadata> METADATA = new ClassValue<Metadata>() {
+		@Override
+		protected Metadata computeValue(Class<?> type) {
+			return new Metadata(type);
+		}
+	};
+
+	/**
+	 * Marker cached for names known not to exist on a type
+	 */
+	private static final Object MISSING = new Object();
+
+	/**
+	 * Resolved members of a single class. Every lookup, including a failed
+	 * one, walks the class hierarchy only once.
+	 */
+	private static final class Metadata {
+		private final Class<?> type;
+		private final ConcurrentHashMap<String, Object> fields = new ConcurrentHashMap<String, Object>();
+		private final ConcurrentHashMap<Signature, Invoker> methods = new ConcurrentHashMap<Signature, Invoker>();
+		private final ConcurrentHashMap<Signature, Invoker> constructors = new ConcurrentHashMap<Signature, Invoker>();
+		private volatile List<String> instanceFieldNames;
+		private volatile List<String> staticFieldNames;
+
+		Metadata(Class<?> type) {
+			this.type = type;
+		}
+
+		/**
+		 * The accessible field with the given name, or <code>null</code>
+		 */
+		Field field(String name) {
+			Object result = fields.get(name);
+
+			if (result == null) {
+				Field field = resolveField(name);
+				result = field == null ? MISSING : field;
+				fields.putIfAbsent(name, result);
+			}
+
+			return result == MISSING ? null : (Field) result;
+		}
+
+		/**
+		 * Look for a public field first, then for a non-public field up the
+		 * class hierarchy, without throwing for the misses
+		 */
+		private Field resolveField(String name) {
+			for (Field field : type.getFields()) {
+				if (field.getName().equals(name)) {
+					return accessible(field);
+				}
+			}
+
+			for (Class<?> t = type; t != null; t = t.getSuperclass()) {
+				for (Field field : t.getDeclaredFields()) {
+					if (field.getName().equals(name)) {
+						return accessible(field);
+					}
+				}
+			}
+
+			return null;
+		}
+
+		/**
+		 * The invoker of the method best matching a name and argument types,
+		 * see {@link Reflect#call(String, Object...)}
+		 */
+		Invoker method(String name, Class<?>[] types) {
+			Signature signature = new Signature(name, types);
+			Invoker result = methods.get(signature);
+
+			if (result == null) {
+				try {
+					Method method;
+
+					// Try the "canonical" method, i.e. the one with exact
+					// matching argument types
+					try {
+						method = exactMethod(type, name, types);
+					}
+
+					// If there is no exact match, try to find a method that has a "similar"
+					// signature if primitive argument types are converted to their wrappers
+					catch (NoSuchMethodException e) {
+						method = similarMethod(type, name, types);
+					}
+
+					result = Invoker.of(method);
+				} catch (NoSuchMethodException e) {
+					result = Invoker.missing(e.getMessage());
+				}
+
+				Invoker previous = methods.putIfAbsent(signature, result);
+				result = previous == null ? result : previous;
+			}
+
+			return result;
+		}
+
+		/**
+		 * The invoker of the constructor best matching the argument types,
+		 * see {@link Reflect#create(Object...)}
+		 */
+		Invoker constructor(Class<?>[] types) {
+			Signature signature = new Signature("<init>", types);
+			Invoker result = constructors.get(signature);
+
+			if (result == null) {
+				try {
+					result = Invoker.of(Reflect.constructor(type, types));
+				} catch (NoSuchMethodException e) {
+					result = Invoker.missing(e.getMessage());
+				}
+
+				Invoker previous = constructors.putIfAbsent(signature, result);
+				result = previous == null ? result : previous;
+			}
+
+			return result;
+		}
+
+		/**
+		 * The names of the static or the instance fields, subclass first,
+		 * hidden fields excluded
+		 */
+		List<String> fieldNames(boolean statics) {
+			List<String> result = statics ? staticFieldNames : instanceFieldNames;
+
+			if (result == null) {
+				List<String> names = new ArrayList<String>();
+				Set<String> seen = new HashSet<String>();
+
+				for (Class<?> t = type; t != null; t = t.getSuperclass()) {
+					for (Field field : t.getDeclaredFields()) {
+						if (statics == Modifier.isStatic(field.getModifiers()) && seen.add(field.getName())) {
+							names.add(field.getName());
+						}
+					}
+				}
+
+				result = Collections.unmodifiableList(names);
+
+				if (statics) {
+					staticFieldNames = result;
+				} else {
+					instanceFieldNames = result;
+				}
+			}
+
+			return result;
 		}
 	}
 
 	/**
-	 * Wrap an object returned from a method
+	 * A member name together with the runtime types of the arguments it was
+	 * called with, the key of the method and constructor caches
 	 */
-	private static Reflect on(Method method, Object object, Object... args)
-			throws ReflectException {
-		try {
+	private static final class Signature {
+		private final String name;
+		private final Class<?>[] types;
+		private final int hash;
+
+		Signature(String name, Class<?>[] types) {
+			this.name = name;
+			this.types = types;
+			this.hash = 31 * name.hashCode() + Arrays.hashCode(types);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Signature)) {
+				return false;
+			}
+
+			Signature other = (Signature) obj;
+			return name.equals(other.name) && Arrays.equals(types, other.types);
+		}
+	}
+
+	/**
+	 * A resolved method or constructor, adapted to a single
+	 * <code>(Object receiver, Object[] args)Object</code> shape, or the
+	 * negative result of a failed resolution
+	 */
+	private static final class Invoker {
+		private static final MethodType SPREAD_TYPE =
+				MethodType.methodType(Object.class, Object.class, Object[].class);
+
+		/**
+		 * {@link Method#invoke(Object, Object...)} and
+		 * {@link Constructor#newInstance(Object...)}, used when a handle
+		 * cannot be obtained for an accessible member
+		 */
+		private static final MethodHandle METHOD_INVOKE;
+		private static final MethodHandle CONSTRUCTOR_NEW_INSTANCE;
+
+		static {
+			try {
+				MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+				METHOD_INVOKE = lookup.findVirtual(Method.class, "invoke", SPREAD_TYPE);
+				CONSTRUCTOR_NEW_INSTANCE = lookup.findVirtual(Constructor.class,
+				                                              "newInstance",
+				                                              MethodType.methodType(Object.class, Object[].class));
+			} catch (Exception e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+
+		private final MethodHandle handle;
+		private final boolean isVoid;
+		private final String missing;
+
+		private Invoker(MethodHandle handle, boolean isVoid, String missing) {
+			this.handle = handle;
+			this.isVoid = isVoid;
+			this.missing = missing;
+		}
+
+		static Invoker of(Method method) {
 			accessible(method);
+			int count = method.getParameterTypes().length;
+			MethodHandle handle;
+
+			try {
+				handle = MethodHandles.lookup().unreflect(method).asFixedArity();
+
+				// Static methods ignore the receiver, just like Method.invoke()
+				if (Modifier.isStatic(method.getModifiers())) {
+					handle = MethodHandles.dropArguments(handle, 0, Object.class);
+				}
 
-			if (method.getReturnType() == void.class) {
-				method.invoke(object, args);
-				return on(object);
-			} else {
-				return on(method.invoke(object, args));
+				handle = handle.asType(MethodType.genericMethodType(count + 1))
+				               .asSpreader(Object[].class, count);
+			} catch (IllegalAccessException e) {
+				handle = METHOD_INVOKE.bindTo(method);
 			}
-		} catch (Exception e) {
-			throw new ReflectException(e);
+
+			return new Invoker(handle, method.getReturnType() == void.class, null);
 		}
+
+		static Invoker of(Constructor<?> constructor) {
+			accessible(constructor);
+			int count = constructor.getParameterTypes().length;
+			MethodHandle handle;
+
+			try {
+				handle = MethodHandles.lookup().unreflectConstructor(constructor).asFixedArity();
+				handle = MethodHandles.dropArguments(handle, 0, Object.class)
+				                      .asType(MethodType.genericMethodType(count + 1))
+				                      .asSpreader(Object[].class, count);
+			} catch (IllegalAccessException e) {
+				handle = MethodHandles.dropArguments(CONSTRUCTOR_NEW_INSTANCE.bindTo(constructor),
+				                                     0,
+				                                     Object.class);
+			}
+
+			return new Invoker(handle, false, null);
+		}
+
+		static Invoker missing(String message) {
+			return new Invoker(null, false, message == null ? "" : message);
+		}
+
+		Object invoke(Object receiver, Object[] args) throws ReflectException {
+			if (handle == null) {
+				throw new ReflectException(new NoSuchMethodException(missing));
+			}
+
+			try {
+				return (Object) handle.invokeExact(receiver, args);
+			} catch (InvocationTargetException e) {
+				// Thrown by the Method.invoke() / Constructor.newInstance() fallback
+				throw new ReflectException(e);
+			} catch (Throwable e) {
+				// A handle rethrows the target's own exception, wrap it the same
+				// way Method.invoke() does so that callers see the same cause
+				throw new ReflectException(new InvocationTargetException(e));
+			}
+		}
+	}
+
+	/**
+	 * Get an accessible field by name from the metadata cache, looking for a
+	 * public field first, then for a non-public field up the hierarchy.
+	 *
+	 * @return The field, or <code>null</code> if there is no such field
+	 */
+	static Field lookupField(Class<?> type, String name) {
+		return METADATA.get(type).field(name);
+	}
+
+	/**
+	 * Get the names of all instance fields of a type from the metadata cache,
+	 * in the same order as {@link #fields()}.
+	 */
+	static List<String> fieldNames(Class<?> type) {
+		return METADATA.get(type).fieldNames(false);
 	}
 
+	// ---------------------------------------------------------------------
+	// Utility methods
+	// ---------------------------------------------------------------------
+
 	/**
 	 * Unwrap an object
 	 */
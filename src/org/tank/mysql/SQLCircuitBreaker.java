@@ -0,0 +1,194 @@
+package org.tank.mysql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接池的断路器, 连续 SQLPoolConfig.circuitFailureThreshold 次无法建立连接时打开,
+ * 打开期间不再新建连接, 借用者仍然可以拿到空闲的连接, 没有空闲连接时直接失败而不是排队等待
+ * 打开一段时间后由一个后台探测尝试建立连接, 成功则关闭断路器, 失败则以加倍的时间重新打开
+ */
+public class SQLCircuitBreaker {
+
+	public enum State {
+		// 正常
+		CLOSED,
+		// 数据库不可用, 不再新建连接, 没有空闲连接的借用者直接失败
+		OPEN,
+		// 正在探测数据库是否恢复, 同打开状态
+		HALF_OPEN
+	}
+
+	private final SQLPool mPool;
+	private final ScheduledExecutorService mExecutor;
+	private final AtomicReference<State> mState = new AtomicReference<State>(State.CLOSED);
+	// 连续失败的次数
+	private final AtomicInteger mFailures = new AtomicInteger(0);
+	// 关闭之前连续打开的次数, 决定下一次打开的时长
+	private volatile int mTrips = 0;
+	private volatile long mOpenUntil = 0;
+
+	private final LongAdder mOpenCount = new LongAdder();
+	private final LongAdder mRejectCount = new LongAdder();
+
+	SQLCircuitBreaker(SQLPool pool, ScheduledExecutorService executor) {
+		this.mPool = pool;
+		this.mExecutor = executor;
+	}
+
+	public State getState() {
+		return mState.get();
+	}
+
+	/**
+	 * 判断没有空闲连接时是否允许排队等待新建的连接, 不允许时计入拒绝次数
+	 * 空闲的连接不受断路器限制, 借用前不需要判断
+	 *
+	 * @return 断路器关闭时返回 true, 反之返回 false
+	 */
+	boolean allowRequest() {
+		if(mState.get() == State.CLOSED) {
+			return true;
+		}
+
+		mRejectCount.increment();
+		return false;
+	}
+
+	/**
+	 * 判断是否允许在后台新建连接, 不计入拒绝次数
+	 *
+	 * @return 断路器关闭时返回 true, 反之返回 false
+	 */
+	boolean allowConnect() {
+		return mState.get() == State.CLOSED;
+	}
+
+	/**
+	 * 记录一次成功建立的连接
+	 */
+	void recordSuccess() {
+		if(mFailures.get() != 0) {
+			mFailures.set(0);
+		}
+	}
+
+	/**
+	 * 记录一次建立连接失败, 连续失败达到阈值时打开断路器
+	 */
+	void recordFailure() {
+		if(mState.get() != State.CLOSED) {
+			return;
+		}
+
+		if(mFailures.incrementAndGet() >= Math.max(1, mPool.getConfig().circuitFailureThreshold)
+		   && mState.compareAndSet(State.CLOSED, State.OPEN)) {
+			trip();
+		}
+	}
+
+	/**
+	 * 已切换为打开状态, 唤醒等待的借用者并安排探测
+	 */
+	private void trip() {
+		long delay = backoff(++ mTrips, mPool.getConfig().circuitOpenTime, mPool.getConfig().circuitMaxOpenTime);
+
+		mOpenCount.increment();
+		mOpenUntil = System.currentTimeMillis() + delay;
+		log("circuit open for " + delay + "ms");
+		mPool.onCircuitOpen();
+
+		try {
+			mExecutor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					probe();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// 连接池已关闭
+		}
+	}
+
+	/**
+	 * 尝试建立一个连接, 决定断路器是关闭还是重新打开
+	 */
+	private void probe() {
+		if(mPool.isClosed() || ! mState.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+			return;
+		}
+
+		try {
+			Connection connection = mPool.connect();
+
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				// 只用于探测, 关闭失败不影响结果
+			}
+		} catch (SQLException e) {
+			if(mState.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+				trip();
+			}
+
+			return;
+		}
+
+		mFailures.set(0);
+		mTrips = 0;
+		mState.set(State.CLOSED);
+		log("circuit closed");
+		mPool.onCircuitClosed();
+	}
+
+	private void log(String message) {
+		if(SQLConfiguration.showLog) {
+			System.out.println("* SQLPool[" + mPool.getName() + "] " + message);
+		}
+	}
+
+	/**
+	 * 计算第 attempt 次重试前的等待时间, 从 base 开始每次加倍, 不超过 max,
+	 * 并加减 20% 的随机抖动, 避免多个客户端同时重试
+	 *
+	 * @param attempt 第几次重试, 从 1 开始
+	 * @param base    第一次的等待时间
+	 * @param max     最长的等待时间
+	 * @return 等待的毫秒数
+	 */
+	static long backoff(int attempt, long base, long max) {
+		long delay = Math.min(max, base << Math.min(30, Math.max(0, attempt - 1)));
+
+		if(delay <= 0) {
+			return Math.max(1, Math.min(max, base));
+		}
+
+		long range = delay / 5;
+
+		return Math.max(1, delay - range + ThreadLocalRandom.current().nextLong(2 * range + 1));
+	}
+
+	/**
+	 * 获得断路器预计重新探测的时间
+	 *
+	 * @return 毫秒时间戳, 断路器关闭时没有意义
+	 */
+	public long getOpenUntil() {
+		return mOpenUntil;
+	}
+
+	public long getOpenCount() {
+		return mOpenCount.sum();
+	}
+
+	public long getRejectCount() {
+		return mRejectCount.sum();
+	}
+}
@@ -1,6 +1,8 @@
 package org.tank.mysql;
 
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Created by tankg
@@ -43,6 +45,21 @@ public class SQLCommand<T> {
 
 	private boolean mUseTransaction;
 
+	// 借用连接的优先级
+	private SQLPriority mPriority;
+
+	// 在哪个数据源上执行, 默认为 SQLUtil 的默认数据源
+	private SQLDataSource mDataSource;
+
+	// 读写分离的路由, 设置后由它选择数据源
+	private SQLRouter mRouter;
+
+	// 分片, 设置后按分片键选择数据源
+	private SQLSharding mSharding;
+
+	// 流式查询每次从服务器取的行数, 为 0 时使用连接池配置的 fetchSize
+	private int mFetchSize;
+
 	public SQLCommand() {
 		mCondition = new LinkedList<SQLCondition>();
 		mTables = new ArrayList<String>();
@@ -50,6 +67,11 @@ public class SQLCommand<T> {
 		mData = new ArrayList<Object>();
 		mEnetities = new ArrayList<T>();
 		mUseTransaction = false;
+		mPriority = SQLPriority.NORMAL;
+		mDataSource = SQLUtil.getDefaultDataSource();
+		mRouter = null;
+		mSharding = null;
+		mFetchSize = 0;
 		mReturnType = null;
 		mSetOption = null;
 		mHasWhere = false;
@@ -61,7 +83,7 @@ public class SQLCommand<T> {
 	 *
 	 * @return this
 	 */
-	public SQLCommand update() {
+	public SQLCommand<T> update() {
 		mAction = UPDATE;
 		return this;
 	}
@@ -72,7 +94,7 @@ public class SQLCommand<T> {
 	 * @param entity 实体
 	 * @return this
 	 */
-	public SQLCommand insert(T entity) {
+	public SQLCommand<T> insert(T entity) {
 		mAction = INSERT;
 		mEnetities.add(entity);
 		return this;
@@ -84,7 +106,7 @@ public class SQLCommand<T> {
 	 * @param entities 实体
 	 * @return this
 	 */
-	public SQLCommand insert(T... entities) {
+	public SQLCommand<T> insert(T... entities) {
 		mAction = INSERT;
 		Collections.addAll(mEnetities, entities);
 		return this;
@@ -96,7 +118,7 @@ public class SQLCommand<T> {
 	 * @param entities 实体
 	 * @return this
 	 */
-	public SQLCommand insert(List<T> entities) {
+	public SQLCommand<T> insert(List<T> entities) {
 		mAction = INSERT;
 
 		for(T entity : entities) {
@@ -112,8 +134,8 @@ public class SQLCommand<T> {
 	 * @param clazz 相应类型
 	 * @return this
 	 */
-	public SQLCommand into(Class<T> clazz) {
-		mTables.add(clazz.getSimpleName());
+	public SQLCommand<T> into(Class<?> clazz) {
+		mTables.add(SQLMappings.tableName(clazz));
 		return this;
 	}
 
@@ -123,7 +145,7 @@ public class SQLCommand<T> {
 	 * @param table 相应表名
 	 * @return this
 	 */
-	public SQLCommand into(String table) {
+	public SQLCommand<T> into(String table) {
 		mTables.add(table);
 		return this;
 	}
@@ -133,13 +155,9 @@ public class SQLCommand<T> {
 	 *
 	 * @return this
 	 */
-	public SQLCommand field(Class<T> clazz) {
-		Reflect reflect = Reflect.on(clazz).create();
+	public SQLCommand<T> field(Class<?> clazz) {
 		mFields.clear();
-
-		for(String field : reflect.fields().keySet()) {
-			mFields.add(field);
-		}
+		mFields.addAll(SQLMappings.columns(clazz));
 
 		return this;
 	}
@@ -150,7 +168,7 @@ public class SQLCommand<T> {
 	 * @param fields 字段列表
 	 * @return
 	 */
-	public SQLCommand field(String... fields) {
+	public SQLCommand<T> field(String... fields) {
 		List<String> fs = new ArrayList<String>();
 		Collections.addAll(fs, fields);
 		return field(fs);
@@ -162,7 +180,7 @@ public class SQLCommand<T> {
 	 * @param fields 字段列表
 	 * @return
 	 */
-	public SQLCommand field(List<String> fields) {
+	public SQLCommand<T> field(List<String> fields) {
 		mFields.clear();
 
 		for(String field : fields) {
@@ -177,7 +195,7 @@ public class SQLCommand<T> {
 	 *
 	 * @return this
 	 */
-	public SQLCommand where() {
+	public SQLCommand<T> where() {
 		mHasWhere = true;
 		return this;
 	}
@@ -187,7 +205,7 @@ public class SQLCommand<T> {
 	 *
 	 * @return this
 	 */
-	public SQLCommand delete() {
+	public SQLCommand<T> delete() {
 		mAction = DELETE;
 		return this;
 	}
@@ -197,7 +215,7 @@ public class SQLCommand<T> {
 	 *
 	 * @return this
 	 */
-	public SQLCommand query() {
+	public SQLCommand<T> query() {
 		mAction = QUERY;
 		return this;
 	}
@@ -208,7 +226,7 @@ public class SQLCommand<T> {
 	 * @param table 相应表名
 	 * @return this
 	 */
-	public SQLCommand table(String table) {
+	public SQLCommand<T> table(String table) {
 		mTables.clear();
 		mTables.add(table);
 		return this;
@@ -217,19 +235,23 @@ public class SQLCommand<T> {
 	/**
 	 * 设置操作的表的表名和查询返回的类型为相应的类名
 	 * 如果表名已指定, 则保持原样; 如果查询返回的类型已指定, 同样保持原样
+	 * 返回的命令以 clazz 为实体类型, SQLUtil.query().table(Entity.class) 不需要再指定类型参数
 	 *
 	 * @param clazz 相应类
+	 * @param <E>   相应类的类型
 	 * @return this
 	 */
-	public SQLCommand table(Class<T> clazz) {
-		if(mTables.isEmpty()) {
-			mTables.add(clazz.getSimpleName());
+	public <E> SQLCommand<E> table(Class<E> clazz) {
+		SQLCommand<E> command = retype();
+
+		if(command.mTables.isEmpty()) {
+			command.mTables.add(SQLMappings.tableName(clazz));
 		}
 
-		if(mReturnType == null) {
-			mReturnType = clazz;
+		if(command.mReturnType == null) {
+			command.mReturnType = clazz;
 		}
-		return this;
+		return command;
 	}
 
 	/**
@@ -238,7 +260,7 @@ public class SQLCommand<T> {
 	 * @param tables 表名列表
 	 * @return this
 	 */
-	public SQLCommand tables(String... tables) {
+	public SQLCommand<T> tables(String... tables) {
 		mTables.clear();
 
 		for(String table : tables) {
@@ -254,7 +276,7 @@ public class SQLCommand<T> {
 	 * @param field 字段名
 	 * @return this
 	 */
-	public SQLCommand getField(String field) {
+	public SQLCommand<T> getField(String field) {
 		mFields.add(field);
 		return this;
 	}
@@ -266,7 +288,7 @@ public class SQLCommand<T> {
 	 * @param value 字段值
 	 * @return this
 	 */
-	public SQLCommand equalTo(String field, Object value) {
+	public SQLCommand<T> equalTo(String field, Object value) {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.EQUAL)
 		                                 .addField(field)
 		                                 .addData(value));
@@ -281,7 +303,7 @@ public class SQLCommand<T> {
 	 * @param value 字段值
 	 * @return this
 	 */
-	public SQLCommand notEqual(String field, Object value) {
+	public SQLCommand<T> notEqual(String field, Object value) {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.NOT_EQUAL)
 		                                 .addField(field)
 		                                 .addData(value));
@@ -296,7 +318,7 @@ public class SQLCommand<T> {
 	 * @param value 字段值
 	 * @return this
 	 */
-	public SQLCommand greaterThan(String field, Object value) {
+	public SQLCommand<T> greaterThan(String field, Object value) {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.GREATER_THAN)
 		                                 .addField(field)
 		                                 .addData(value));
@@ -311,7 +333,7 @@ public class SQLCommand<T> {
 	 * @param value 字段值
 	 * @return this
 	 */
-	public SQLCommand greaterThanOrEqualTo(String field, Object value) {
+	public SQLCommand<T> greaterThanOrEqualTo(String field, Object value) {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.GREATER_THAN_OR_EQUAL)
 		                                 .addField(field)
 		                                 .addData(value));
@@ -326,7 +348,7 @@ public class SQLCommand<T> {
 	 * @param value 字段值
 	 * @return this
 	 */
-	public SQLCommand smallerThan(String field, Object value) {
+	public SQLCommand<T> smallerThan(String field, Object value) {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.SMALL_THAN)
 		                                 .addField(field)
 		                                 .addData(value));
@@ -341,7 +363,7 @@ public class SQLCommand<T> {
 	 * @param value 字段值
 	 * @return this
 	 */
-	public SQLCommand smallerThanOrEqualTo(String field, Object value) {
+	public SQLCommand<T> smallerThanOrEqualTo(String field, Object value) {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.SMALL_THAN_OR_EQUAL)
 		                                 .addField(field)
 		                                 .addData(value));
@@ -354,7 +376,7 @@ public class SQLCommand<T> {
 	 *
 	 * @return this
 	 */
-	public SQLCommand or() {
+	public SQLCommand<T> or() {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.OR));
 		return this;
 	}
@@ -364,7 +386,7 @@ public class SQLCommand<T> {
 	 *
 	 * @return this
 	 */
-	public SQLCommand and() {
+	public SQLCommand<T> and() {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.AND));
 		return this;
 	}
@@ -376,7 +398,7 @@ public class SQLCommand<T> {
 	 * @param values 字段值
 	 * @return this
 	 */
-	public SQLCommand in(String field, Object... values) {
+	public SQLCommand<T> in(String field, Object... values) {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.IN)
 		                                 .addField(field)
 		                                 .addData(values));
@@ -391,7 +413,7 @@ public class SQLCommand<T> {
 	 * @param values 字段值
 	 * @return this
 	 */
-	public SQLCommand notIn(String field, Object... values) {
+	public SQLCommand<T> notIn(String field, Object... values) {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.NOT_IN)
 		                                 .addField(field)
 		                                 .addData(values));
@@ -407,7 +429,7 @@ public class SQLCommand<T> {
 	 * @param rhs   右边的值
 	 * @return this
 	 */
-	public SQLCommand betweenAnd(String field, Object lhs, Object rhs) {
+	public SQLCommand<T> betweenAnd(String field, Object lhs, Object rhs) {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.BETWEEN_AND)
 		                                 .addField(field)
 		                                 .addData(lhs)
@@ -423,7 +445,7 @@ public class SQLCommand<T> {
 	 * @param endIndex   结束下标
 	 * @return this
 	 */
-	public SQLCommand limit(int startIndex, int endIndex) {
+	public SQLCommand<T> limit(int startIndex, int endIndex) {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.LIMIT)
 		                                 .addData(startIndex)
 		                                 .addData(endIndex));
@@ -436,7 +458,7 @@ public class SQLCommand<T> {
 	 * @param count 最大受影响行数
 	 * @return this
 	 */
-	public SQLCommand limit(int count) {
+	public SQLCommand<T> limit(int count) {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.LIMIT)
 		                                 .addData(count));
 		return this;
@@ -449,7 +471,7 @@ public class SQLCommand<T> {
 	 * @param isASC 为 True 时从小到大排序, False 反之
 	 * @return this
 	 */
-	public SQLCommand orderBy(String field, boolean isASC) {
+	public SQLCommand<T> orderBy(String field, boolean isASC) {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.ORDER_BY)
 		                                 .addField(field)
 		                                 .addData(isASC ? SQLCondition.ASC : SQLCondition.DESC));
@@ -463,7 +485,7 @@ public class SQLCommand<T> {
 	 * @param regex 相应的匹配的条件
 	 * @return this
 	 */
-	public SQLCommand like(String field, String regex) {
+	public SQLCommand<T> like(String field, String regex) {
 		mCondition.add(new SQLCondition().setOperation(SQLCondition.LIKE)
 		                                 .addField(field)
 		                                 .addData(regex));
@@ -478,7 +500,7 @@ public class SQLCommand<T> {
 	 * @param value 字段值
 	 * @return this
 	 */
-	public SQLCommand set(String field, Object value) {
+	public SQLCommand<T> set(String field, Object value) {
 		if(null == mSetOption) {
 			mSetOption = new SQLCondition().setOperation(SQLCondition.SET)
 			                               .addField(field)
@@ -496,11 +518,24 @@ public class SQLCommand<T> {
 	 * 修改查询返回的实体的类型
 	 *
 	 * @param clazz 返回的实体的相应类型
+	 * @param <E>   返回的实体的类型
 	 * @return this
 	 */
-	public SQLCommand returnType(Class<T> clazz) {
-		mReturnType = clazz;
-		return this;
+	public <E> SQLCommand<E> returnType(Class<E> clazz) {
+		SQLCommand<E> command = retype();
+		command.mReturnType = clazz;
+		return command;
+	}
+
+	/**
+	 * 把命令当作另一种实体类型的命令使用, 实体类型只在编译时检查, 命令本身不变
+	 *
+	 * @param <E> 新的实体类型
+	 * @return this
+	 */
+	@SuppressWarnings("unchecked")
+	private <E> SQLCommand<E> retype() {
+		return (SQLCommand<E>) this;
 	}
 
 	public String getSQLCommand() {
@@ -567,7 +602,14 @@ public class SQLCommand<T> {
 				sql = "SELECT";
 
 				if(mFields.isEmpty()) {
-					mFields.add("*");
+					// 有生成的映射时只查询实体的字段, 否则查询所有字段
+					SQLEntityMapping<T> mapping = null == mReturnType ? null : SQLMappings.find(mReturnType);
+
+					if(null == mapping) {
+						mFields.add("*");
+					} else {
+						mFields.addAll(mapping.getColumns());
+					}
 				}
 
 				for(String field : mFields) {
@@ -625,13 +667,80 @@ public class SQLCommand<T> {
 		return this;
 	}
 
+	/**
+	 * 设置借用连接的优先级, 默认为 SQLPriority.NORMAL
+	 *
+	 * @param priority 优先级
+	 * @return this
+	 */
+	public SQLCommand<T> priority(SQLPriority priority) {
+		mPriority = priority;
+		return this;
+	}
+
+	/**
+	 * 设置在哪个数据源上执行, 默认为 SQLUtil.getDefaultDataSource()
+	 *
+	 * @param dataSource 数据源
+	 * @return this
+	 */
+	public SQLCommand<T> on(SQLDataSource dataSource) {
+		mDataSource = dataSource;
+		mRouter = null;
+		mSharding = null;
+		return this;
+	}
+
+	/**
+	 * 经过读写分离的路由执行, 查询发往从库, 其他操作和使用事务的查询发往主库
+	 *
+	 * @param router 路由
+	 * @return this
+	 */
+	public SQLCommand<T> on(SQLRouter router) {
+		mRouter = router;
+		mSharding = null;
+		return this;
+	}
+
+	/**
+	 * 在分片上执行, 分片键上有 = 或 IN 条件时只发往拥有这些值的分片, 否则并行发往所有分片
+	 * 发往多个分片的更新和删除在每个分片上各自执行, 使用事务时每个分片是独立的事务
+	 *
+	 * @param sharding 分片
+	 * @return this
+	 */
+	public SQLCommand<T> on(SQLSharding sharding) {
+		mSharding = sharding;
+		mRouter = null;
+		return this;
+	}
+
+	/**
+	 * 获得执行操作的连接池
+	 *
+	 * @param write 是否为写操作
+	 * @return 连接池
+	 */
+	private SQLPool pool(boolean write) {
+		if(null != mRouter) {
+			return mRouter.route(write).getPool();
+		}
+
+		return mDataSource.getPool();
+	}
+
 	/**
 	 * 执行更新操作
 	 *
 	 * @return 返回受影响行数
 	 */
 	public int executeUpdate() {
-		return SQLUtil.noQuery(mUseTransaction, getSQLCommand(), mData);
+		if(null != mSharding) {
+			return executeShardedNoQuery();
+		}
+
+		return SQLUtil.noQuery(pool(true), mPriority, mUseTransaction, getSQLCommand(), mData);
 	}
 
 	/**
@@ -640,7 +749,16 @@ public class SQLCommand<T> {
 	 * @return 返回受影响行数
 	 */
 	public int executeInsert() {
-		return SQLUtil.insert(mUseTransaction, getSQLCommand(), mFields, mEnetities);
+		if(null != mSharding) {
+			return executeShardedInsert();
+		}
+
+		return SQLUtil.insert(pool(true),
+		                      mPriority,
+		                      mUseTransaction,
+		                      getSQLCommand(),
+		                      mFields,
+		                      mEnetities);
 	}
 
 	/**
@@ -649,7 +767,8 @@ public class SQLCommand<T> {
 	 * @return 返回受影响行数
 	 */
 	public int executeDelete() {
-		return executeNoQuery();
+		// 与更新相同, 都是执行一条非查询语句
+		return executeUpdate();
 	}
 
 	/**
@@ -658,7 +777,124 @@ public class SQLCommand<T> {
 	 * @return 返回相应实体
 	 */
 	public List<T> executeQuery() {
-		return SQLUtil.query(mReturnType, getSQLCommand(), mData);
+		if(null != mSharding) {
+			return executeShardedQuery();
+		}
+
+		return SQLUtil.query(pool(mUseTransaction), mPriority, mReturnType, getSQLCommand(), mData);
+	}
+
+	/**
+	 * 在条件选出的分片上执行更新或删除
+	 *
+	 * @return 各分片受影响行数之和
+	 */
+	private int executeShardedNoQuery() {
+		List<SQLDataSource> shards = mSharding.route(mCondition);
+		final String sql = getSQLCommand();
+		int result = 0;
+
+		for(Integer count : mSharding.scatter(shards, new SQLSharding.ShardTask<Integer>() {
+			@Override
+			public Integer execute(SQLDataSource shard) {
+				return SQLUtil.noQuery(shard.getPool(), mPriority, mUseTransaction, sql, mData);
+			}
+		})) {
+			if(null != count) {
+				result += count;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * 按分片键把实体分组, 分别插入各自的分片
+	 *
+	 * @return 各分片受影响行数之和
+	 */
+	private int executeShardedInsert() {
+		final Map<SQLDataSource, List<T>> groups = mSharding.group(mEnetities);
+		final String sql = getSQLCommand();
+		int result = 0;
+
+		for(Integer count : mSharding.scatter(new ArrayList<SQLDataSource>(groups.keySet()),
+		                                      new SQLSharding.ShardTask<Integer>() {
+			@Override
+			public Integer execute(SQLDataSource shard) {
+				return SQLUtil.insert(shard.getPool(), mPriority, mUseTransaction, sql, mFields, groups.get(shard));
+			}
+		})) {
+			if(null != count) {
+				result += count;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * 在条件选出的分片上查询并合并结果
+	 * 发往多个分片时, 每个分片的 LIMIT m, n 改为 LIMIT m + n, 合并后再跳过前 m 个取 n 个
+	 *
+	 * @return 相应实体, 任一分片查询失败时为 null
+	 */
+	private List<T> executeShardedQuery() {
+		List<SQLDataSource> shards = mSharding.route(mCondition);
+		List<String> orderFields = new ArrayList<String>();
+		List<Boolean> orderASC = new ArrayList<Boolean>();
+		long[] limit = readShardLimit(shards, orderFields, orderASC);
+
+		final String sql = getSQLCommand();
+		List<List<T>> parts = mSharding.scatter(shards, new SQLSharding.ShardTask<List<T>>() {
+			@Override
+			public List<T> execute(SQLDataSource shard) {
+				return SQLUtil.query(shard.getPool(), mPriority, mReturnType, sql, mData);
+			}
+		});
+
+		for(List<T> part : parts) {
+			if(null == part) {
+				return null;
+			}
+		}
+
+		return SQLSharding.merge(parts, orderFields, orderASC, limit[0], limit[1]);
+	}
+
+	/**
+	 * 记下 ORDER BY 的字段, 发往多个分片时把 LIMIT m, n 改为 LIMIT m + n
+	 * ORDER BY 条件生成语句后会被清空, 需在生成语句之前调用
+	 *
+	 * @param shards      条件选出的分片
+	 * @param orderFields 用于返回排序的字段名
+	 * @param orderASC    用于返回每个排序字段是否从小到大
+	 * @return 合并后要跳过的个数和最多保留的个数, 后者小于 0 时不限制
+	 */
+	private long[] readShardLimit(List<SQLDataSource> shards, List<String> orderFields, List<Boolean> orderASC) {
+		long offset = 0;
+		long count = - 1;
+
+		for(SQLCondition condition : mCondition) {
+			if(SQLCondition.ORDER_BY.equals(condition.getOperation())) {
+				orderFields.add(condition.getFields().get(0));
+				orderASC.add(SQLCondition.ASC.equals(condition.getData().get(0)));
+			} else if(SQLCondition.LIMIT.equals(condition.getOperation()) && shards.size() > 1) {
+				List<Object> data = condition.getData();
+
+				if(2 == data.size()) {
+					offset = ((Number) data.get(0)).longValue();
+					count = ((Number) data.get(1)).longValue();
+				} else {
+					count = ((Number) data.get(0)).longValue();
+				}
+
+				data.clear();
+				condition.addData(offset + count);
+			}
+		}
+
+		return new long[]{offset, count};
 	}
 
 	/**
@@ -690,6 +926,115 @@ public class SQLCommand<T> {
 		return executeQuery();
 	}
 
+	/**
+	 * 设置流式查询每次从服务器取的行数, 默认使用连接池配置的 SQLPoolConfig.fetchSize
+	 *
+	 * @param fetchSize 每次取的行数, 大于 0 时需要在 url 中加上 useCursorFetch=true
+	 * @return this
+	 */
+	public SQLCommand<T> fetchSize(int fetchSize) {
+		mFetchSize = fetchSize;
+		return this;
+	}
+
+	/**
+	 * 执行流式查询, 返回逐行读取的游标, 内存占用与结果的行数无关
+	 * 游标读完或关闭后才归还连接
+	 * 使用分片时各分片上的游标按 ORDER BY 的字段逐行归并, 再在全局上应用 LIMIT, 同时持有每个分片的一个连接
+	 *
+	 * @return 游标, 出错时为 null
+	 */
+	public SQLCursor<T> cursor() {
+		if(null != mSharding) {
+			List<SQLDataSource> shards = mSharding.route(mCondition);
+
+			if(1 != shards.size()) {
+				return executeShardedCursor(shards);
+			}
+
+			return cursor(shards.get(0).getPool(), getSQLCommand());
+		}
+
+		return cursor(pool(mUseTransaction), getSQLCommand());
+	}
+
+	private SQLCursor<T> cursor(SQLPool pool, String sql) {
+		return SQLUtil.cursor(pool,
+		                      mPriority,
+		                      mReturnType,
+		                      sql,
+		                      mData,
+		                      0 == mFetchSize ? pool.getConfig().fetchSize : mFetchSize);
+	}
+
+	/**
+	 * 在多个分片上并行打开游标, 返回逐行归并它们的游标
+	 * LIMIT 的改写与 executeShardedQuery() 相同
+	 *
+	 * @param shards 条件选出的分片
+	 * @return 游标, 任一分片出错时为 null, 已打开的游标会被关闭
+	 */
+	private SQLCursor<T> executeShardedCursor(List<SQLDataSource> shards) {
+		List<String> orderFields = new ArrayList<String>();
+		List<Boolean> orderASC = new ArrayList<Boolean>();
+		long[] limit = readShardLimit(shards, orderFields, orderASC);
+
+		final String sql = getSQLCommand();
+		List<SQLCursor<T>> parts = mSharding.scatter(shards, new SQLSharding.ShardTask<SQLCursor<T>>() {
+			@Override
+			public SQLCursor<T> execute(SQLDataSource shard) {
+				return cursor(shard.getPool(), sql);
+			}
+		});
+
+		for(SQLCursor<T> part : parts) {
+			if(null == part) {
+				for(SQLCursor<T> opened : parts) {
+					if(null != opened) {
+						opened.close();
+					}
+				}
+
+				return null;
+			}
+		}
+
+		return new SQLCursor<T>(parts, SQLSharding.mergeIterators(parts, orderFields, orderASC, limit[0], limit[1]));
+	}
+
+	/**
+	 * 执行流式查询, 返回逐行读取的 Stream, 需要关闭 Stream 才会归还连接, 建议使用 try-with-resources
+	 *
+	 * @return 相应的 Stream, 出错时为 null
+	 */
+	public Stream<T> stream() {
+		SQLCursor<T> cursor = cursor();
+		return null == cursor ? null : cursor.stream();
+	}
+
+	/**
+	 * 执行流式查询, 对每一行依次执行 action, 结束后归还连接
+	 *
+	 * @param action 对每个实体执行的操作
+	 * @return 处理的行数, 出错时为 -1
+	 */
+	public long forEach(Consumer<? super T> action) {
+		long count = 0;
+
+		try(SQLCursor<T> cursor = cursor()) {
+			if(null == cursor) {
+				return - 1;
+			}
+
+			while(cursor.hasNext()) {
+				action.accept(cursor.next());
+				++ count;
+			}
+		}
+
+		return count;
+	}
+
 	/**
 	 * 获取查询到的第一行数据
 	 *
@@ -50,6 +50,10 @@ class SQLCondition {
 		return mData;
 	}
 
+	List<String> getFields() {
+		return mFields;
+	}
+
 	SQLCondition setOperation(String operation) {
 		mOperation = operation;
 		return this;
@@ -21,20 +21,47 @@ public class SQLConfiguration {
 	static boolean autoReconnect = true;
 	static boolean failOverReadOnly = false;
 	static int maxCountPerBatch = 1024;
+
+	// 以下连接池相关的配置是默认数据源和 new SQLPoolConfig() 的默认值, 其他数据源使用各自的 SQLPoolConfig
 	static int maxSize = 128;
 	static int minSize = 2;
 	static int initSize = 32;
 	static int increment = 4;
+	static int createConcurrency = 4;
 	static long timeout = 120000;
 	static long idleTestPeriod = 120000;
+	static double maintenanceJitter = 0.1;
+	static int maintenanceConcurrency = 2;
+	static int maintenanceSliceSize = 4;
+	static long shutdownTimeout = 10000;
+	static long maxLifetime = 1800000;
 	static String keepAliveSQL = "SELECT 1;";
+	static int statementCacheSize = 64;
+	static int fetchSize = Integer.MIN_VALUE;
+	static SQLValidator.Mode validationMode = SQLValidator.Mode.IDLE_THRESHOLD;
+	static long validationIdleTime = 500;
+	static int validationTimeout = 5;
 	static boolean closeIdleConnection = true;
 	static long maxIdleTime = 300000;
-	static int retryTimesWhileGetNullConnection = - 1;
-	static long retryDurationDuringGetNullConnection = 1000;
+	static long borrowTimeout = 30000;
+	static int highReservedSize = 0;
+	static int lowMaxSize = - 1;
+	static boolean threadAffinity = true;
+	static int stripeCount = 1;
+	static boolean registerMBean = true;
+	static boolean adaptiveSizing = false;
+	static long sizingPeriod = 5000;
+	static long sizingWaitThreshold = 1;
+	static double sizingHeadroom = 1.2;
+	static double sizingMinGain = 0.05;
 	static int retryTimesWhileCanNotConnectServer = - 1;
 	static long retryDurationDuringConnectingServer = 1000;
+	static int circuitFailureThreshold = 5;
+	static long circuitOpenTime = 1000;
+	static long circuitMaxOpenTime = 60000;
 	static long maxUsingTime = - 1;
+	// 分片的工作线程数和排队的任务数都不超过分片数乘以它
+	static int shardingParallelism = 2;
 	static String driver = "com.mysql.jdbc.Driver";
 
 	public static String url = "jdbc:" + database + "://"
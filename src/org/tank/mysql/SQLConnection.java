@@ -1,9 +1,12 @@
 package org.tank.mysql;
 
 import java.sql.*;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by Tank
@@ -11,11 +14,85 @@ import java.util.concurrent.Executor;
  */
 public class SQLConnection implements Connection {
 
+	// 槽位状态, 存在 mState 的低两位
+	static final int EMPTY = 0;    // 槽位上没有物理连接
+	static final int RESERVED = 1; // 正在建立物理连接, 或被某个线程独占着准备借出、检测或关闭
+	static final int FREE = 2;     // 空闲, 在连接池中
+	static final int USING = 3;    // 已借出
+
 	private Connection mConnection = null;
-	private long mLastUsingTime = 0;
-	private SQLPool mPool = null;
+	private volatile long mLastUsingTime = 0;
+	private long mBorrowTime = 0;
+	// 借用时的优先级, 归还时退还该优先级的名额
+	private SQLPriority mPriority = SQLPriority.NORMAL;
+	// 物理连接到期的时间, 超过后由维护任务关闭并重建, 各连接的到期时间错开, 避免同时重建
+	private volatile long mExpireTime = Long.MAX_VALUE;
+	private final SQLPool mPool;
+
+	// 高位为代数, 低两位为状态, 每次借出和强制回收时代数加一,
+	// 持有旧代数的使用者无法再归还或关闭已不属于它的连接
+	private final AtomicLong mState = new AtomicLong(EMPTY);
+
+	// 本地记录的连接属性, 对应的位在 mKnownBits 中为 1 时才有效, 读取和设置相同的值时不再访问数据库
+	// 借用者修改过的属性在 mDirtyBits 中标记, 并记下修改前的值, 归还时只恢复这些属性
+	private static final int AUTO_COMMIT = 1;
+	private static final int READ_ONLY = 2;
+	private static final int ISOLATION = 4;
+	private static final int CATALOG = 8;
+	private static final int SCHEMA = 16;
+
+	private int mKnownBits = 0;
+	private int mDirtyBits = 0;
+	private boolean mAutoCommit;
+	private boolean mReadOnly;
+	private int mIsolation;
+	private String mCatalog;
+	private String mSchema;
+	private boolean mDefaultAutoCommit;
+	private boolean mDefaultReadOnly;
+	private int mDefaultIsolation;
+	private String mDefaultCatalog;
+	private String mDefaultSchema;
+
+	// 本次通过 SQLPool.getConnection() 借出时交给借用者的 SQLLease, 内部借用时为 null
+	// 只有借到该连接的线程会访问
+	private SQLLease mLease = null;
+
+	// 是否在连接池的空闲队列中, 防止通过线程缓存借出再归还时重复入队
+	private final AtomicBoolean mQueued = new AtomicBoolean(false);
+
+	// 是否已被强制收回, 收回后该对象已从槽位中移除, 只有原来的借用者还持有它
+	private volatile boolean mRevoked = false;
+
+	// 已归还的预编译语句, 以 sql 和结果集参数为键, 按最近使用排序, 超过 statementCacheSize 时关闭最久未用的
+	// 只有借到该连接的线程会访问, 不需要加锁
+	private final LinkedHashMap<String, SQLPreparedStatement> mStatementCache
+			= new LinkedHashMap<String, SQLPreparedStatement>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, SQLPreparedStatement> eldest) {
+			if(size() <= mPool.getConfig().statementCacheSize) {
+				return false;
+			}
+
+			closeStatementQuietly(eldest.getValue());
+			mPool.getMetrics().recordStatementEvict();
+			return true;
+		}
+	};
+
+	SQLConnection(SQLPool pool) {
+		this.mPool = pool;
+	}
 
 	public void setConnection(Connection connection) {
+		// 缓存的语句属于原来的物理连接, 换了物理连接后不能再用
+		if(connection != this.mConnection) {
+			clearStatementCache();
+			this.mExpireTime = SQLPoolMaintainer.nextExpireTime(mPool.getConfig());
+			this.mKnownBits = 0;
+			this.mDirtyBits = 0;
+		}
+
 		this.mConnection = connection;
 	}
 
@@ -31,49 +108,356 @@ public class SQLConnection implements Connection {
 		this.mLastUsingTime = mLastUsingTime;
 	}
 
-	public void setSQLPool(SQLPool pool) {
-		this.mPool = pool;
+	SQLPriority getPriority() {
+		return this.mPriority;
+	}
+
+	void setPriority(SQLPriority priority) {
+		this.mPriority = priority;
+	}
+
+	long getExpireTime() {
+		return this.mExpireTime;
+	}
+
+	long getBorrowTime() {
+		return this.mBorrowTime;
+	}
+
+	void setBorrowTime(long borrowTime) {
+		this.mBorrowTime = borrowTime;
+	}
+
+	/**
+	 * 获得连接当前的代数, 借出后立即获取即为本次借出的代数
+	 *
+	 * @return 连接当前的代数
+	 */
+	public long getGeneration() {
+		return mState.get() >>> 2;
+	}
+
+	int getState() {
+		return (int) (mState.get() & 3);
+	}
+
+	/**
+	 * 当连接的代数和状态都符合预期时修改其状态
+	 *
+	 * @param generation     预期的代数
+	 * @param expect         预期的状态
+	 * @param update         新的状态
+	 * @param nextGeneration 是否同时将代数加一
+	 * @return 修改成功返回 true, 反之返回 false
+	 */
+	boolean compareAndSetState(long generation, int expect, int update, boolean nextGeneration) {
+		long current = (generation << 2) | expect;
+		long next = ((nextGeneration ? generation + 1 : generation) << 2) | update;
+
+		return mState.compareAndSet(current, next);
+	}
+
+	/**
+	 * 判断连接是否仍处于以 generation 这一代借出的状态
+	 *
+	 * @param generation 借出时的代数
+	 * @return 仍是这一次借出返回 true, 已归还或已被强制回收返回 false
+	 */
+	boolean isLeasedBy(long generation) {
+		return mState.get() == ((generation << 2) | USING);
+	}
+
+	/**
+	 * 为刚借出的连接创建交给借用者的 SQLLease, 由借出连接的线程在借出后立即调用
+	 *
+	 * @return 记住了本次借出代数的 SQLLease
+	 */
+	SQLLease lease() {
+		this.mLease = new SQLLease(this, getGeneration());
+		return this.mLease;
+	}
+
+	/**
+	 * 内部借用时清除上一次借出留下的 SQLLease
+	 */
+	void clearLease() {
+		this.mLease = null;
+	}
+
+	boolean markQueued() {
+		return mQueued.compareAndSet(false, true);
+	}
+
+	void clearQueued() {
+		mQueued.set(false);
 	}
 
 	public void closeRealConnection() throws SQLException {
+		clearStatementCache();
+
 		if(this.mConnection != null) {
 			this.mConnection.close();
 		}
 
 		this.mConnection = null;
+		this.mKnownBits = 0;
+		this.mDirtyBits = 0;
+	}
+
+	private boolean isKnown(int bit) {
+		return (mKnownBits & bit) != 0;
+	}
+
+	private boolean isDirty(int bit) {
+		return (mDirtyBits & bit) != 0;
+	}
+
+	/**
+	 * 将借用者修改过的属性恢复为修改前的值, 值没有变化的属性不会访问数据库
+	 *
+	 * @throws SQLException 数据库异常
+	 */
+	private void resetState() throws SQLException {
+		Connection connection = this.mConnection;
+
+		if(null == connection || 0 == mDirtyBits) {
+			mDirtyBits = 0;
+			return;
+		}
+
+		if(isDirty(AUTO_COMMIT) && mAutoCommit != mDefaultAutoCommit) {
+			connection.setAutoCommit(mDefaultAutoCommit);
+			mAutoCommit = mDefaultAutoCommit;
+		}
+
+		if(isDirty(READ_ONLY) && mReadOnly != mDefaultReadOnly) {
+			connection.setReadOnly(mDefaultReadOnly);
+			mReadOnly = mDefaultReadOnly;
+		}
+
+		if(isDirty(ISOLATION) && mIsolation != mDefaultIsolation) {
+			connection.setTransactionIsolation(mDefaultIsolation);
+			mIsolation = mDefaultIsolation;
+		}
+
+		if(isDirty(CATALOG) && ! equals(mCatalog, mDefaultCatalog)) {
+			connection.setCatalog(mDefaultCatalog);
+			mCatalog = mDefaultCatalog;
+		}
+
+		if(isDirty(SCHEMA) && ! equals(mSchema, mDefaultSchema)) {
+			connection.setSchema(mDefaultSchema);
+			mSchema = mDefaultSchema;
+		}
+
+		mDirtyBits = 0;
+	}
+
+	private static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * 从缓存中取出预编译语句, 缓存中没有时新建一个
+	 *
+	 * @param resultSetHoldability 为 -1 时使用驱动默认值
+	 */
+	private PreparedStatement prepareCachedStatement(String sql,
+	                                                 int resultSetType,
+	                                                 int resultSetConcurrency,
+	                                                 int resultSetHoldability)
+			throws SQLException {
+		Connection connection = this.mConnection;
+		boolean defaultOptions = ResultSet.TYPE_FORWARD_ONLY == resultSetType
+		                         && ResultSet.CONCUR_READ_ONLY == resultSetConcurrency
+		                         && - 1 == resultSetHoldability;
+		PreparedStatement statement;
+
+		if(null == connection) {
+			return null;
+		}
+
+		String key = defaultOptions ? sql : sql + '\u0000' + resultSetType
+		                                    + ',' + resultSetConcurrency
+		                                    + ',' + resultSetHoldability;
+
+		if(mPool.getConfig().statementCacheSize > 0) {
+			SQLPreparedStatement cached = mStatementCache.remove(key);
+
+			if(null != cached && cached.getPhysicalConnection() == connection) {
+				mPool.getMetrics().recordStatementHit();
+				cached.reopen(mLease, getGeneration());
+				return cached;
+			}
+
+			closeStatementQuietly(cached);
+			mPool.getMetrics().recordStatementMiss();
+		}
+
+		if(defaultOptions) {
+			statement = connection.prepareStatement(sql);
+		} else if(- 1 == resultSetHoldability) {
+			statement = connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+		} else {
+			statement = connection.prepareStatement(sql,
+			                                        resultSetType,
+			                                        resultSetConcurrency,
+			                                        resultSetHoldability);
+		}
+
+		if(mPool.getConfig().statementCacheSize <= 0) {
+			return statement;
+		}
+
+		SQLPreparedStatement cachedStatement = new SQLPreparedStatement(this, connection, statement, key);
+		cachedStatement.reopen(mLease, getGeneration());
+		return cachedStatement;
+	}
+
+	/**
+	 * 将用完的预编译语句放回缓存, 所属的物理连接已被替换或连接已归还时直接关闭
+	 * 语句应在归还连接之前关闭, 否则连接可能已被其他线程借走,
+	 * 此时代数与取出语句时不同, 语句不会放进下一个借用者的缓存
+	 *
+	 * @param statement 用完的语句
+	 * @throws SQLException 数据库异常
+	 */
+	void returnStatement(SQLPreparedStatement statement) throws SQLException {
+		if(statement.getPhysicalConnection() != this.mConnection
+		   || getState() != USING
+		   || statement.getGeneration() != getGeneration()
+		   || mPool.getConfig().statementCacheSize <= 0) {
+			statement.closeRealStatement();
+			return;
+		}
+
+		try {
+			statement.reset();
+		} catch (SQLException e) {
+			closeStatementQuietly(statement);
+			throw e;
+		}
+
+		// 同一条语句同时被取出了两份时, 只保留一份
+		SQLPreparedStatement previous = mStatementCache.put(statement.getKey(), statement);
+
+		if(null != previous && previous != statement) {
+			closeStatementQuietly(previous);
+		}
+	}
+
+	/**
+	 * 关闭缓存中的所有预编译语句
+	 */
+	private void clearStatementCache() {
+		for(SQLPreparedStatement statement : mStatementCache.values()) {
+			closeStatementQuietly(statement);
+		}
+
+		mStatementCache.clear();
+	}
+
+	private static void closeStatementQuietly(SQLPreparedStatement statement) {
+		if(null == statement) {
+			return;
+		}
+
+		try {
+			statement.closeRealStatement();
+		} catch (SQLException e) {
+			if(SQLConfiguration.printStackTrace) {
+				e.printStackTrace();
+			}
+		}
 	}
 
 	/**
 	 * 关闭 jdbc 的真实连接, 且将其放回连接池中, 保持连接数
+	 * 只能由借用者在自己的线程中调用, 代数会加一, 之后再以原来的代数调用 close(generation) 不会有任何效果
 	 *
+	 * @param generation 借出时的代数
 	 * @throws SQLException 数据库异常
 	 */
-	public void closeRealConnectionAndRelease() throws SQLException {
-		synchronized(this) {
-			// 防止 this.mConnection 被多个线程使用的情况
-			Connection connection = this.mConnection;
-			this.mConnection = null;
-
-			if(connection != null) {
-				connection.close();
-				this.mPool.newConnection(connection);
+	public void closeRealConnectionAndRelease(long generation) throws SQLException {
+		// 防止 this.mConnection 被多个线程使用的情况
+		if(! compareAndSetState(generation, USING, USING, true)) {
+			return;
+		}
+
+		closeRealConnection();
+		this.mPool.renewConnection(this);
+	}
+
+	/**
+	 * 中止物理连接, 供维护任务强制回收借出过久的连接时在其他线程中调用
+	 * 只调用线程安全的 Connection.abort, 不修改 mConnection 和语句缓存,
+	 * 借用者此时可能仍在使用它们, 它们在借用者以原来的代数调用 close(generation) 时清理
+	 */
+	void abortRealConnection() {
+		Connection connection = this.mConnection;
+
+		if(null == connection) {
+			return;
+		}
+
+		try {
+			connection.abort(new Executor() {
+				@Override
+				public void execute(Runnable command) {
+					command.run();
+				}
+			});
+		} catch (SQLException | SecurityException e) {
+			if(SQLConfiguration.printStackTrace) {
+				e.printStackTrace();
 			}
 		}
 	}
 
+	/**
+	 * 标记连接已被强制收回, 由 SQLPool.revokeConnection 在把它从槽位中移除前调用
+	 */
+	void markRevoked() {
+		mRevoked = true;
+	}
+
+	/**
+	 * 槽位上的连接会被反复借出, 这里无法知道调用者是哪一次借出的, 因此不能用来归还
+	 * 借用者应关闭 SQLPool.getConnection() 返回的 SQLLease, 内部代码使用 close(generation)
+	 *
+	 * @throws SQLException 总是抛出
+	 */
 	@Override public void close() throws SQLException {
-		synchronized(this) {
-			Connection connection = mConnection;
-			mConnection = null;
+		throw new SQLException("A pooled SQLConnection is returned through the SQLLease it was lent with");
+	}
 
-			if(connection != null) {
-				if(! connection.getAutoCommit()) {
-					connection.rollback();
-				}
+	/**
+	 * 以借出时的代数归还连接, 已经归还过时什么都不做
+	 * 连接已被强制回收时, 它只属于原来的借用者, 这里关闭它的语句缓存和已中止的物理连接
+	 *
+	 * @param generation 借出时的代数
+	 * @throws SQLException 数据库异常
+	 */
+	public void close(long generation) throws SQLException {
+		if(mRevoked && getGeneration() == generation + 1) {
+			closeRealConnection();
+			return;
+		}
 
-				mPool.releaseConnection(connection);
-			}
+		if(getState() != USING || getGeneration() != generation) {
+			return;
+		}
+
+		try {
+			rollbackIfNeed();
+			resetState();
+		} catch (SQLException e) {
+			// 无法恢复状态的物理连接不能再借给别人, 关闭后重建
+			closeRealConnectionAndRelease(generation);
+			throw e;
 		}
+
+		mPool.releaseConnection(this, generation);
 	}
 
 	@Override public Statement createStatement() throws SQLException {
@@ -85,11 +469,7 @@ public class SQLConnection implements Connection {
 	}
 
 	@Override public PreparedStatement prepareStatement(String sql) throws SQLException {
-		if(this.mConnection != null) {
-			return this.mConnection.prepareCall(sql);
-		}
-
-		return null;
+		return prepareCachedStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY, - 1);
 	}
 
 	@Override public CallableStatement prepareCall(String sql) throws SQLException {
@@ -110,12 +490,48 @@ public class SQLConnection implements Connection {
 
 	@Override public void setAutoCommit(boolean autoCommit) throws SQLException {
 		if(this.mConnection != null && this.getAutoCommit() != autoCommit) {
+			if(! isDirty(AUTO_COMMIT)) {
+				mDefaultAutoCommit = mAutoCommit;
+				mDirtyBits |= AUTO_COMMIT;
+			}
+
+			this.mConnection.setAutoCommit(autoCommit);
+			mAutoCommit = autoCommit;
+		}
+	}
+
+	/**
+	 * 设置连接池借出连接时使用的 autoCommit, 它同时成为归还时恢复的值, 不算作借用者的修改
+	 * 本地记录的值相同时不访问数据库
+	 *
+	 * @param autoCommit 借出时的 autoCommit
+	 * @throws SQLException 数据库异常
+	 */
+	void resetAutoCommit(boolean autoCommit) throws SQLException {
+		if(null == this.mConnection) {
+			return;
+		}
+
+		if(this.getAutoCommit() != autoCommit) {
 			this.mConnection.setAutoCommit(autoCommit);
+			mAutoCommit = autoCommit;
 		}
+
+		mDefaultAutoCommit = autoCommit;
+		mDirtyBits &= ~ AUTO_COMMIT;
 	}
 
 	@Override public boolean getAutoCommit() throws SQLException {
-		return mConnection != null && this.mConnection.getAutoCommit();
+		if(null == this.mConnection) {
+			return false;
+		}
+
+		if(! isKnown(AUTO_COMMIT)) {
+			mAutoCommit = this.mConnection.getAutoCommit();
+			mKnownBits |= AUTO_COMMIT;
+		}
+
+		return mAutoCommit;
 	}
 
 	@Override public void commit() throws SQLException {
@@ -125,7 +541,7 @@ public class SQLConnection implements Connection {
 	}
 
 	public void commitIfNeed() throws SQLException {
-		if(this.mConnection != null && ! this.mConnection.getAutoCommit()) {
+		if(this.mConnection != null && ! this.getAutoCommit()) {
 			this.mConnection.commit();
 		}
 	}
@@ -137,7 +553,7 @@ public class SQLConnection implements Connection {
 	}
 
 	public void rollbackIfNeed() throws SQLException {
-		if(this.mConnection != null && ! this.mConnection.getAutoCommit()) {
+		if(this.mConnection != null && ! this.getAutoCommit()) {
 			this.mConnection.rollback();
 		}
 	}
@@ -156,42 +572,78 @@ public class SQLConnection implements Connection {
 	}
 
 	@Override public void setReadOnly(boolean readOnly) throws SQLException {
-		if(this.mConnection != null) {
+		if(this.mConnection != null && this.isReadOnly() != readOnly) {
+			if(! isDirty(READ_ONLY)) {
+				mDefaultReadOnly = mReadOnly;
+				mDirtyBits |= READ_ONLY;
+			}
+
 			this.mConnection.setReadOnly(readOnly);
+			mReadOnly = readOnly;
 		}
 	}
 
 	@Override public boolean isReadOnly() throws SQLException {
-		return this.mConnection != null && this.mConnection.isReadOnly();
+		if(null == this.mConnection) {
+			return false;
+		}
 
+		if(! isKnown(READ_ONLY)) {
+			mReadOnly = this.mConnection.isReadOnly();
+			mKnownBits |= READ_ONLY;
+		}
+
+		return mReadOnly;
 	}
 
 	@Override public void setCatalog(String catalog) throws SQLException {
-		if(this.mConnection != null) {
+		if(this.mConnection != null && ! equals(this.getCatalog(), catalog)) {
+			if(! isDirty(CATALOG)) {
+				mDefaultCatalog = mCatalog;
+				mDirtyBits |= CATALOG;
+			}
+
 			this.mConnection.setCatalog(catalog);
+			mCatalog = catalog;
 		}
 	}
 
 	@Override public String getCatalog() throws SQLException {
-		if(this.mConnection != null) {
-			return this.mConnection.getCatalog();
+		if(null == this.mConnection) {
+			return null;
 		}
 
-		return null;
+		if(! isKnown(CATALOG)) {
+			mCatalog = this.mConnection.getCatalog();
+			mKnownBits |= CATALOG;
+		}
+
+		return mCatalog;
 	}
 
 	@Override public void setTransactionIsolation(int level) throws SQLException {
-		if(this.mConnection != null) {
+		if(this.mConnection != null && this.getTransactionIsolation() != level) {
+			if(! isDirty(ISOLATION)) {
+				mDefaultIsolation = mIsolation;
+				mDirtyBits |= ISOLATION;
+			}
+
 			this.mConnection.setTransactionIsolation(level);
+			mIsolation = level;
 		}
 	}
 
 	@Override public int getTransactionIsolation() throws SQLException {
-		if(this.mConnection != null) {
-			return this.mConnection.getTransactionIsolation();
+		if(null == this.mConnection) {
+			return 0;
 		}
 
-		return 0;
+		if(! isKnown(ISOLATION)) {
+			mIsolation = this.mConnection.getTransactionIsolation();
+			mKnownBits |= ISOLATION;
+		}
+
+		return mIsolation;
 	}
 
 	@Override public SQLWarning getWarnings() throws SQLException {
@@ -221,11 +673,7 @@ public class SQLConnection implements Connection {
 	public PreparedStatement prepareStatement(String sql,
 	                                          int resultSetType,
 	                                          int resultSetConcurrency) throws SQLException {
-		if(this.mConnection != null) {
-			return this.mConnection.prepareStatement(sql, resultSetType, resultSetConcurrency);
-		}
-
-		return null;
+		return prepareCachedStatement(sql, resultSetType, resultSetConcurrency, - 1);
 	}
 
 	@Override
@@ -312,14 +760,7 @@ public class SQLConnection implements Connection {
 	                                          int resultSetType,
 	                                          int resultSetConcurrency,
 	                                          int resultSetHoldability) throws SQLException {
-		if(this.mConnection != null) {
-			return this.mConnection.prepareCall(sql,
-			                                    resultSetType,
-			                                    resultSetConcurrency,
-			                                    resultSetHoldability);
-		}
-
-		return null;
+		return prepareCachedStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
 	}
 
 	@Override
@@ -447,17 +888,28 @@ public class SQLConnection implements Connection {
 	}
 
 	@Override public void setSchema(String schema) throws SQLException {
-		if(this.mConnection != null) {
+		if(this.mConnection != null && ! equals(this.getSchema(), schema)) {
+			if(! isDirty(SCHEMA)) {
+				mDefaultSchema = mSchema;
+				mDirtyBits |= SCHEMA;
+			}
+
 			this.mConnection.setSchema(schema);
+			mSchema = schema;
 		}
 	}
 
 	@Override public String getSchema() throws SQLException {
-		if(this.mConnection != null) {
-			return this.mConnection.getSchema();
+		if(null == this.mConnection) {
+			return null;
 		}
 
-		return null;
+		if(! isKnown(SCHEMA)) {
+			mSchema = this.mConnection.getSchema();
+			mKnownBits |= SCHEMA;
+		}
+
+		return mSchema;
 	}
 
 	@Override public void abort(Executor executor) throws SQLException {
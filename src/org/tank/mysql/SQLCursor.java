@@ -0,0 +1,190 @@
+package org.tank.mysql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 流式查询的游标, 每次 next() 才从结果集读取一行并通过 SQLRowMapper 转化成实体, 不会把整个结果读进内存
+ * 游标持有借出的连接, 读完所有行或调用 close() 后归还, 未读完时应使用 try-with-resources 关闭
+ * 使用 MySQL 驱动的逐行读取时, 关闭前该连接不能执行其他语句, 提前关闭时驱动会读完剩下的行
+ * 发往多个分片的查询由每个分片上的游标逐行归并, 同时持有每个分片的一个连接
+ */
+public class SQLCursor<T> implements Iterator<T>, AutoCloseable {
+	private final Class<T> mType;
+	private final SQLConnection mConnection;
+	private final long mGeneration;
+	private final PreparedStatement mStatement;
+	private final ResultSet mResultSet;
+	private final List<String> mFields;
+	// 读到第一行时才生成
+	private SQLRowMapper<T> mMapper = null;
+
+	// 发往多个分片时各分片上的游标和归并后的行, 此时上面的连接、语句和结果集都为 null
+	private final List<SQLCursor<T>> mParts;
+	private final Iterator<T> mRows;
+
+	// 已移动到下一行但还没有被 next() 取走
+	private boolean mFetched = false;
+	private boolean mClosed = false;
+
+	SQLCursor(Class<T> type,
+	          SQLConnection connection,
+	          long generation,
+	          PreparedStatement statement,
+	          ResultSet resultSet,
+	          List<String> fields) {
+		this.mType = type;
+		this.mConnection = connection;
+		this.mGeneration = generation;
+		this.mStatement = statement;
+		this.mResultSet = resultSet;
+		this.mFields = fields;
+		this.mParts = null;
+		this.mRows = null;
+	}
+
+	/**
+	 * 归并多个分片上的游标
+	 *
+	 * @param parts 各分片上的游标
+	 * @param rows  归并 parts 得到的行, 见 SQLSharding.mergeIterators
+	 */
+	SQLCursor(List<SQLCursor<T>> parts, Iterator<T> rows) {
+		this.mType = null;
+		this.mConnection = null;
+		this.mGeneration = 0;
+		this.mStatement = null;
+		this.mResultSet = null;
+		this.mFields = null;
+		this.mParts = parts;
+		this.mRows = rows;
+	}
+
+	/**
+	 * 是否还有下一行, 没有时自动关闭游标并归还连接
+	 *
+	 * @return 是否还有下一行
+	 * @throws IllegalStateException 读取结果集失败, 此时游标已关闭
+	 */
+	@Override
+	public boolean hasNext() {
+		if(mClosed) {
+			return false;
+		}
+
+		if(mFetched) {
+			return true;
+		}
+
+		try {
+			mFetched = null == mRows ? mResultSet.next() : mRows.hasNext();
+		} catch (SQLException e) {
+			close();
+			throw new IllegalStateException("Failed to read the result set", e);
+		} catch (RuntimeException e) {
+			// 某个分片读取失败, 其他分片的连接也要归还
+			close();
+			throw e;
+		}
+
+		if(! mFetched) {
+			close();
+		}
+
+		return mFetched;
+	}
+
+	/**
+	 * 读取下一行并转化成实体
+	 *
+	 * @return 相应实体
+	 * @throws IllegalStateException 读取结果集失败, 此时游标已关闭
+	 */
+	@Override
+	public T next() {
+		if(! hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		mFetched = false;
+
+		if(null != mRows) {
+			try {
+				return mRows.next();
+			} catch (RuntimeException e) {
+				close();
+				throw e;
+			}
+		}
+
+		try {
+			if(null == mMapper) {
+				mMapper = SQLRowMapper.compile(mType, mFields, mResultSet.getMetaData());
+			}
+
+			return mMapper.map(mResultSet);
+		} catch (SQLException e) {
+			close();
+			throw new IllegalStateException("Failed to read the result set", e);
+		}
+	}
+
+	public boolean isClosed() {
+		return mClosed;
+	}
+
+	/**
+	 * 关闭结果集和语句, 归还连接, 可以重复调用
+	 */
+	@Override
+	public void close() {
+		if(mClosed) {
+			return;
+		}
+
+		mClosed = true;
+		mFetched = false;
+
+		if(null != mParts) {
+			for(SQLCursor<T> part : mParts) {
+				part.close();
+			}
+
+			return;
+		}
+
+		try {
+			SQLUtil.releaseAll(mConnection, mGeneration, mStatement, mResultSet);
+		} catch (SQLException e) {
+			if(SQLConfiguration.printStackTrace) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * 转化成顺序的 Stream, 关闭 Stream 时关闭游标
+	 *
+	 * @return 相应的 Stream
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+		                                                                Spliterator.ORDERED
+		                                                                | Spliterator.NONNULL),
+		                            false)
+		                    .onClose(new Runnable() {
+			                    @Override
+			                    public void run() {
+				                    close();
+			                    }
+		                    });
+	}
+}
@@ -0,0 +1,214 @@
+package org.tank.mysql;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * 数据源, 持有自己的配置和连接池, 同一个 JVM 中可以创建多个, 分别连接不同的数据库
+ * SQLUtil 的静态方法在默认数据源上执行, 其他数据源通过这里的方法或 SQLCommand.on(dataSource) 使用
+ */
+public class SQLDataSource implements DataSource {
+	private final SQLPool mPool;
+	private PrintWriter mLogWriter = null;
+
+	/**
+	 * 默认数据源, 初始化时从 SQLConfiguration 读取配置
+	 */
+	SQLDataSource() {
+		this.mPool = new SQLPool();
+	}
+
+	/**
+	 * @param name   数据源的名称, 同时作为连接池注册 JMX 时的名称, 各数据源之间不能重复
+	 * @param config 连接池的配置
+	 */
+	public SQLDataSource(String name, SQLPoolConfig config) {
+		this.mPool = new SQLPool(name, config);
+	}
+
+	public String getName() {
+		return mPool.getName();
+	}
+
+	public SQLPoolConfig getConfig() {
+		return mPool.getConfig();
+	}
+
+	public SQLPool getPool() {
+		return mPool;
+	}
+
+	/**
+	 * 预热连接池, 阻塞直到初始连接全部建立
+	 *
+	 * @return 已建立的连接数
+	 */
+	public int prefill() {
+		return mPool.prefill();
+	}
+
+	/**
+	 * 关闭数据源的连接池
+	 */
+	public void close() {
+		mPool.close();
+	}
+
+	/**
+	 * 创建在该数据源上执行的更新命令
+	 *
+	 * @param <T> 查询语句返回类型
+	 * @return 更新命令
+	 */
+	public <T> SQLCommand<T> update() {
+		return new SQLCommand<T>().on(this).update();
+	}
+
+	/**
+	 * 创建在该数据源上执行的插入命令
+	 *
+	 * @param <T> 查询语句返回类型
+	 * @return 插入命令
+	 */
+	public <T> SQLCommand<T> insert() {
+		return new SQLCommand<T>().on(this);
+	}
+
+	/**
+	 * 创建在该数据源上执行的查询命令
+	 *
+	 * @param <T> 查询语句返回类型
+	 * @return 查询命令
+	 */
+	public <T> SQLCommand<T> query() {
+		return new SQLCommand<T>().on(this).query();
+	}
+
+	/**
+	 * 创建在该数据源上执行的删除命令
+	 *
+	 * @param <T> 查询语句返回类型
+	 * @return 删除命令
+	 */
+	public <T> SQLCommand<T> delete() {
+		return new SQLCommand<T>().on(this).delete();
+	}
+
+	/**
+	 * 在该数据源上执行查询
+	 *
+	 * @param clazz 查询到的数据对应实体的类型
+	 * @param sql   sql 命令
+	 * @param data  相应参数
+	 * @return 相应查询到的数据对应的实体
+	 */
+	public <T> List<T> query(Class<T> clazz, String sql, Object... data) {
+		List<Object> d = new ArrayList<Object>();
+
+		Collections.addAll(d, data);
+
+		return SQLUtil.query(mPool, SQLPriority.NORMAL, clazz, sql, d);
+	}
+
+	/**
+	 * 在该数据源上执行非查询操作, update, delete 和 insert
+	 *
+	 * @param sql  sql 命令
+	 * @param data 相应参数
+	 * @return 受影响行数
+	 */
+	public int noQuery(Boolean useTransaction, String sql, Object... data) {
+		List<Object> d = new ArrayList<Object>();
+
+		Collections.addAll(d, data);
+
+		return SQLUtil.noQuery(mPool, SQLPriority.NORMAL, useTransaction, sql, d);
+	}
+
+	/**
+	 * 在该数据源上批量插入数据
+	 *
+	 * @param sql      sql 命令
+	 * @param fields   要插入的数据对应的字段名, 即变量名
+	 * @param entities 相应数据
+	 * @return 受影响行数
+	 */
+	public <T> int insert(Boolean useTransaction, String sql, List<String> fields, List<T> entities) {
+		return SQLUtil.insert(mPool, SQLPriority.NORMAL, useTransaction, sql, fields, entities);
+	}
+
+	/**
+	 * 获得该数据源对应的 MySQL 的最大连接数
+	 *
+	 * @return MySQL 的最大连接数, -1 表示出错
+	 */
+	public int getMySQLMaxConnections() {
+		return SQLUtil.getMySQLMaxConnections(mPool);
+	}
+
+	/**
+	 * 从连接池中借用一个连接, 用完后需要调用 close() 归还
+	 *
+	 * @return SQLLease, 连接池已关闭时返回 null
+	 * @throws SQLException 超时或数据库不可用
+	 */
+	@Override public SQLLease getConnection() throws SQLException {
+		return mPool.getConnection();
+	}
+
+	/**
+	 * 以指定的优先级从连接池中借用一个连接
+	 *
+	 * @param priority 优先级
+	 * @return SQLLease, 连接池已关闭时返回 null
+	 * @throws SQLException 超时或数据库不可用
+	 */
+	public SQLLease getConnection(SQLPriority priority) throws SQLException {
+		return mPool.getConnection(priority);
+	}
+
+	/**
+	 * 连接池中的连接都使用配置中的用户, 不支持以其他用户借用
+	 */
+	@Override public SQLLease getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("SQLDataSource only lends connections of the configured user");
+	}
+
+	@Override public PrintWriter getLogWriter() throws SQLException {
+		return mLogWriter;
+	}
+
+	@Override public void setLogWriter(PrintWriter out) throws SQLException {
+		this.mLogWriter = out;
+	}
+
+	@Override public void setLoginTimeout(int seconds) throws SQLException {
+		mPool.getConfig().setTimeout(seconds * 1000L);
+	}
+
+	@Override public int getLoginTimeout() throws SQLException {
+		return (int) (mPool.getConfig().timeout / 1000);
+	}
+
+	@Override public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	@Override public <T> T unwrap(Class<T> iface) throws SQLException {
+		if(iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+
+		throw new SQLException("SQLDataSource is not a wrapper for " + iface.getName());
+	}
+
+	@Override public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+}
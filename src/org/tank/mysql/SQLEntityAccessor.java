@@ -0,0 +1,248 @@
+package org.tank.mysql;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 实体类的变量访问表, 每个类只在第一次使用时建立一次,
+ * 之后按名称取得变量的 MethodHandle 读写, 不再每次查找变量和检查访问权限
+ * 变量列表和变量本身取自 Reflect 的元数据缓存, 顺序和查找规则与 Reflect.fields() 和 Reflect.field(name) 相同
+ * 这是没有 SQLMappingProcessor 生成的 SQLEntityMapping 时使用的反射路径, 同样支持 @Column
+ */
+class SQLEntityAccessor {
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	private static final ClassValue<SQLEntityAccessor> mAccessors = new ClassValue<SQLEntityAccessor>() {
+		@Override
+		protected SQLEntityAccessor computeValue(Class<?> type) {
+			return new SQLEntityAccessor(type);
+		}
+	};
+
+	/**
+	 * 一个变量的读写
+	 */
+	static final class Property {
+		private final Field mField;
+		private final MethodHandle mGetter;
+		private final MethodHandle mSetter;
+		// 基本类型的变量不装箱的 setter, 类型为 (Object, 变量的类型)void, 供 setInt 等使用
+		private final MethodHandle mPrimitiveSetter;
+
+		private Property(Field field) throws IllegalAccessException {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			boolean writable = ! Modifier.isFinal(field.getModifiers());
+
+			this.mField = field;
+			this.mGetter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+			// final 变量没有 setter, 与 Field.set 一样在赋值时报错
+			this.mSetter = writable ? lookup.unreflectSetter(field).asType(SETTER_TYPE) : null;
+			this.mPrimitiveSetter = writable && field.getType().isPrimitive()
+			                        ? lookup.unreflectSetter(field)
+			                                .asType(MethodType.methodType(void.class, Object.class, field.getType()))
+			                        : null;
+		}
+
+		Field getField() {
+			return mField;
+		}
+
+		String getName() {
+			return mField.getName();
+		}
+
+		Class<?> getType() {
+			return mField.getType();
+		}
+
+		Object get(Object entity) throws ReflectException {
+			try {
+				return (Object) mGetter.invokeExact(entity);
+			} catch (Throwable e) {
+				throw new ReflectException(e);
+			}
+		}
+
+		void set(Object entity, Object value) throws ReflectException {
+			if(null == mSetter) {
+				throw new ReflectException("Field " + mField.getDeclaringClass().getName() + "."
+				                           + mField.getName() + " is final");
+			}
+
+			try {
+				mSetter.invokeExact(entity, value);
+			} catch (Throwable e) {
+				throw new ReflectException(e);
+			}
+		}
+
+		/**
+		 * 以下方法给相应基本类型的变量赋值, 不装箱; 变量类型不符时抛出 ReflectException
+		 */
+		void setBoolean(Object entity, boolean value) throws ReflectException {
+			try {
+				primitiveSetter().invokeExact(entity, value);
+			} catch (Throwable e) {
+				throw new ReflectException(e);
+			}
+		}
+
+		void setByte(Object entity, byte value) throws ReflectException {
+			try {
+				primitiveSetter().invokeExact(entity, value);
+			} catch (Throwable e) {
+				throw new ReflectException(e);
+			}
+		}
+
+		void setShort(Object entity, short value) throws ReflectException {
+			try {
+				primitiveSetter().invokeExact(entity, value);
+			} catch (Throwable e) {
+				throw new ReflectException(e);
+			}
+		}
+
+		void setInt(Object entity, int value) throws ReflectException {
+			try {
+				primitiveSetter().invokeExact(entity, value);
+			} catch (Throwable e) {
+				throw new ReflectException(e);
+			}
+		}
+
+		void setLong(Object entity, long value) throws ReflectException {
+			try {
+				primitiveSetter().invokeExact(entity, value);
+			} catch (Throwable e) {
+				throw new ReflectException(e);
+			}
+		}
+
+		void setFloat(Object entity, float value) throws ReflectException {
+			try {
+				primitiveSetter().invokeExact(entity, value);
+			} catch (Throwable e) {
+				throw new ReflectException(e);
+			}
+		}
+
+		void setDouble(Object entity, double value) throws ReflectException {
+			try {
+				primitiveSetter().invokeExact(entity, value);
+			} catch (Throwable e) {
+				throw new ReflectException(e);
+			}
+		}
+
+		private MethodHandle primitiveSetter() throws ReflectException {
+			if(null == mPrimitiveSetter) {
+				throw new ReflectException("Field " + mField.getDeclaringClass().getName() + "."
+				                           + mField.getName() + " is final or not primitive");
+			}
+
+			return mPrimitiveSetter;
+		}
+	}
+
+	private final Class<?> mType;
+	private final List<String> mNames;
+	private final Map<String, Property> mProperties;
+
+	private SQLEntityAccessor(Class<?> type) {
+		List<String> names = new ArrayList<String>();
+		Map<String, Property> properties = new HashMap<String, Property>();
+
+		try {
+			for(String name : Reflect.fieldNames(type)) {
+				Property property = new Property(Reflect.lookupField(type, name));
+				Column column = property.getField().getAnnotation(Column.class);
+				String columnName = null == column || column.value().isEmpty() ? name : column.value();
+
+				names.add(columnName);
+				properties.put(columnName, property);
+			}
+
+			// 标记了 @Column 的变量也可以用变量名访问
+			for(String name : Reflect.fieldNames(type)) {
+				if(! properties.containsKey(name)) {
+					properties.put(name, new Property(Reflect.lookupField(type, name)));
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new ReflectException(e);
+		}
+
+		this.mType = type;
+		this.mNames = Collections.unmodifiableList(names);
+		this.mProperties = properties;
+	}
+
+	/**
+	 * 获得某个类的访问表
+	 *
+	 * @param type 实体类
+	 * @return 访问表
+	 */
+	static SQLEntityAccessor of(Class<?> type) {
+		return mAccessors.get(type);
+	}
+
+	/**
+	 * 获得所有非静态变量对应的字段名, 先子类后父类, 同名的只保留子类的
+	 * 标记了 @Column 的变量使用其指定的字段名, 其他的使用变量名
+	 *
+	 * @return 字段名列表
+	 */
+	List<String> getNames() {
+		return mNames;
+	}
+
+	/**
+	 * 获得变量的读写
+	 *
+	 * @param name 字段名或变量名
+	 * @return 变量的读写
+	 * @throws ReflectException 没有该变量
+	 */
+	Property property(String name) throws ReflectException {
+		Property property = mProperties.get(name);
+
+		if(null == property) {
+			throw new ReflectException(new NoSuchFieldException(mType.getName() + "." + name));
+		}
+
+		return property;
+	}
+
+	/**
+	 * 读取实体某个变量的值
+	 *
+	 * @param entity 实体
+	 * @param name   变量名
+	 * @return 变量的值
+	 */
+	Object get(Object entity, String name) throws ReflectException {
+		return property(name).get(entity);
+	}
+
+	/**
+	 * 给实体的某个变量赋值
+	 *
+	 * @param entity 实体
+	 * @param name   变量名
+	 * @param value  变量的值
+	 */
+	void set(Object entity, String name, Object value) throws ReflectException {
+		property(name).set(entity, value);
+	}
+}
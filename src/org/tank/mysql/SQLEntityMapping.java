@@ -0,0 +1,88 @@
+package org.tank.mysql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 实体与表之间的映射, 由 SQLMappingProcessor 在编译时为标记了 @Table 的实体生成,
+ * 生成的类与实体在同一个包中, 名称为实体的类名加上 _SQLMapping
+ * 存在时 SQLCommand 和 SQLUtil 自动使用它, 不再通过反射扫描实体; 不存在时仍使用反射
+ * 字段通过 getColumns() 中的下标指定
+ * 非基本类型的字段使用的 SQLTypeConverter 由调用者按结果集的元数据每次查询解析一次后传入, 生成的代码不再查找
+ *
+ * @param <T> 实体的类型
+ */
+public interface SQLEntityMapping<T> {
+
+	/**
+	 * 获得表名
+	 *
+	 * @return 表名
+	 */
+	String getTable();
+
+	/**
+	 * 获得所有字段名, 顺序与 Reflect.fields() 相同, 先子类后父类
+	 *
+	 * @return 字段名列表
+	 */
+	List<String> getColumns();
+
+	/**
+	 * 获得每个字段对应变量的类型, 泛型已擦除, 顺序与 getColumns() 相同
+	 *
+	 * @return 变量的类型列表
+	 */
+	List<Class<?>> getTypes();
+
+	/**
+	 * 获得主键的字段名
+	 *
+	 * @return 主键的字段名, 没有标记 @Id 时为 null
+	 */
+	String getIdColumn();
+
+	/**
+	 * 创建一个空的实体
+	 *
+	 * @return 实体
+	 */
+	T newInstance();
+
+	/**
+	 * 从结果集的当前行读取一列, 赋值给实体相应的变量
+	 *
+	 * @param entity    实体
+	 * @param column    字段在 getColumns() 中的下标
+	 * @param resultSet 结果集
+	 * @param index     列在结果集中的下标, 从 1 开始
+	 * @param converter 按该列的 JDBC 类型和 getTypes() 中的类型选出的转换, 基本类型的变量不使用, 可以为 null
+	 * @throws SQLException 读取结果集失败
+	 */
+	void read(T entity, int column, ResultSet resultSet, int index, SQLTypeConverter<?> converter)
+			throws SQLException;
+
+	/**
+	 * 读取实体某个字段的值
+	 *
+	 * @param entity 实体
+	 * @param column 字段在 getColumns() 中的下标
+	 * @return 字段的值
+	 */
+	Object get(T entity, int column);
+
+	/**
+	 * 把实体某个字段的值填充到语句的参数中
+	 *
+	 * @param statement 语句
+	 * @param index     参数的下标, 从 1 开始
+	 * @param entity    实体
+	 * @param column    字段在 getColumns() 中的下标
+	 * @param converter getTypes() 中的类型不区分 JDBC 类型的转换, 基本类型的变量不使用, 可以为 null
+	 * @throws SQLException 填充失败
+	 */
+	void bind(PreparedStatement statement, int index, T entity, int column, SQLTypeConverter<?> converter)
+			throws SQLException;
+}
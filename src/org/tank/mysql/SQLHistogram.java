@@ -0,0 +1,102 @@
+package org.tank.mysql;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时直方图, 以微秒为单位, 第 i 个桶记录 [2^(i-1), 2^i) 微秒内的次数
+ * 记录时只对相应的桶做一次分段累加, 不加锁也不分配对象
+ */
+public class SQLHistogram {
+	private static final int BUCKET_COUNT = 40;
+
+	private final LongAdder[] mBuckets = new LongAdder[BUCKET_COUNT];
+	private final LongAdder mCount = new LongAdder();
+	private final LongAdder mTotal = new LongAdder();
+	private final LongAccumulator mMax = new LongAccumulator(Math::max, 0);
+
+	public SQLHistogram() {
+		for(int idx = 0; idx < BUCKET_COUNT; ++ idx) {
+			mBuckets[idx] = new LongAdder();
+		}
+	}
+
+	/**
+	 * 记录一次耗时
+	 *
+	 * @param nanos 耗时, 单位为纳秒
+	 */
+	public void record(long nanos) {
+		long micros = Math.max(0, nanos / 1000);
+		int idx = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+
+		mBuckets[idx].increment();
+		mCount.increment();
+		mTotal.add(micros);
+		mMax.accumulate(micros);
+	}
+
+	public long getCount() {
+		return mCount.sum();
+	}
+
+	public long getTotalMicros() {
+		return mTotal.sum();
+	}
+
+	public long getMaxMicros() {
+		return mMax.get();
+	}
+
+	public long getMeanMicros() {
+		long count = mCount.sum();
+		return 0 == count ? 0 : mTotal.sum() / count;
+	}
+
+	/**
+	 * 获得百分位数的近似值, 返回相应桶的上界, 不会超过记录到的最大值
+	 *
+	 * @param percentile 百分位, 如 0.99
+	 * @return 近似的耗时, 单位为微秒
+	 */
+	public long getPercentileMicros(double percentile) {
+		long[] buckets = getBuckets();
+		long count = 0;
+
+		for(long bucket : buckets) {
+			count += bucket;
+		}
+
+		if(0 == count) {
+			return 0;
+		}
+
+		long target = (long) Math.ceil(count * percentile);
+		long seen = 0;
+
+		for(int idx = 0; idx < buckets.length; ++ idx) {
+			seen += buckets[idx];
+
+			if(seen >= target) {
+				return Math.min(1L << idx, getMaxMicros());
+			}
+		}
+
+		return getMaxMicros();
+	}
+
+	/**
+	 * 获得每个桶的计数
+	 *
+	 * @return 每个桶的计数, 第 i 个桶为 [2^(i-1), 2^i) 微秒
+	 */
+	public long[] getBuckets() {
+		long[] result = new long[BUCKET_COUNT];
+
+		for(int idx = 0; idx < BUCKET_COUNT; ++ idx) {
+			result[idx] = mBuckets[idx].sum();
+		}
+
+		return result;
+	}
+}
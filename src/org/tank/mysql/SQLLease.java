@@ -0,0 +1,308 @@
+package org.tank.mysql;
+
+import java.sql.*;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一次借出的连接, 记住借出时连接的代数, 只能归还这一次借出的连接
+ * 槽位上的 SQLConnection 会被反复借出, 这里的代数不会随之变化,
+ * 因此重复调用 close() 或连接被强制回收后再调用 close() 都不会归还别人借走的连接
+ * 归还或被强制回收后, 除 close() 和 isClosed() 以外的方法都会抛出 SQLException
+ */
+public class SQLLease implements Connection {
+	private final SQLConnection mConnection;
+	private final long mGeneration;
+	private final AtomicBoolean mClosed = new AtomicBoolean(false);
+
+	SQLLease(SQLConnection connection, long generation) {
+		this.mConnection = connection;
+		this.mGeneration = generation;
+	}
+
+	/**
+	 * 获得借出时连接的代数
+	 *
+	 * @return 借出时连接的代数
+	 */
+	public long getGeneration() {
+		return mGeneration;
+	}
+
+	/**
+	 * 获得仍属于这次借出的连接
+	 *
+	 * @return 连接
+	 * @throws SQLException 已经归还, 或连接已被连接池强制回收
+	 */
+	private SQLConnection target() throws SQLException {
+		if(mClosed.get() || ! mConnection.isLeasedBy(mGeneration)) {
+			throw new SQLException("Connection is closed or has been reclaimed by the pool");
+		}
+
+		return mConnection;
+	}
+
+	/**
+	 * 归还这次借出的连接, 只有第一次调用有效
+	 *
+	 * @throws SQLException 数据库异常
+	 */
+	@Override public void close() throws SQLException {
+		if(mClosed.compareAndSet(false, true)) {
+			mConnection.close(mGeneration);
+		}
+	}
+
+	@Override public boolean isClosed() throws SQLException {
+		return mClosed.get() || ! mConnection.isLeasedBy(mGeneration) || mConnection.isClosed();
+	}
+
+	@Override public Statement createStatement() throws SQLException {
+		return target().createStatement();
+	}
+
+	@Override public PreparedStatement prepareStatement(String sql) throws SQLException {
+		return target().prepareStatement(sql);
+	}
+
+	@Override public CallableStatement prepareCall(String sql) throws SQLException {
+		return target().prepareCall(sql);
+	}
+
+	@Override public String nativeSQL(String sql) throws SQLException {
+		return target().nativeSQL(sql);
+	}
+
+	@Override public void setAutoCommit(boolean autoCommit) throws SQLException {
+		target().setAutoCommit(autoCommit);
+	}
+
+	@Override public boolean getAutoCommit() throws SQLException {
+		return target().getAutoCommit();
+	}
+
+	@Override public void commit() throws SQLException {
+		target().commit();
+	}
+
+	@Override public void rollback() throws SQLException {
+		target().rollback();
+	}
+
+	@Override public DatabaseMetaData getMetaData() throws SQLException {
+		return target().getMetaData();
+	}
+
+	@Override public void setReadOnly(boolean readOnly) throws SQLException {
+		target().setReadOnly(readOnly);
+	}
+
+	@Override public boolean isReadOnly() throws SQLException {
+		return target().isReadOnly();
+	}
+
+	@Override public void setCatalog(String catalog) throws SQLException {
+		target().setCatalog(catalog);
+	}
+
+	@Override public String getCatalog() throws SQLException {
+		return target().getCatalog();
+	}
+
+	@Override public void setTransactionIsolation(int level) throws SQLException {
+		target().setTransactionIsolation(level);
+	}
+
+	@Override public int getTransactionIsolation() throws SQLException {
+		return target().getTransactionIsolation();
+	}
+
+	@Override public SQLWarning getWarnings() throws SQLException {
+		return target().getWarnings();
+	}
+
+	@Override public void clearWarnings() throws SQLException {
+		target().clearWarnings();
+	}
+
+	@Override public Statement createStatement(int resultSetType, int resultSetConcurrency)
+			throws SQLException {
+		return target().createStatement(resultSetType, resultSetConcurrency);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql,
+	                                          int resultSetType,
+	                                          int resultSetConcurrency) throws SQLException {
+		return target().prepareStatement(sql, resultSetType, resultSetConcurrency);
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency)
+			throws SQLException {
+		return target().prepareCall(sql, resultSetType, resultSetConcurrency);
+	}
+
+	@Override public Map<String, Class<?>> getTypeMap() throws SQLException {
+		return target().getTypeMap();
+	}
+
+	@Override public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+		target().setTypeMap(map);
+	}
+
+	@Override public void setHoldability(int holdability) throws SQLException {
+		target().setHoldability(holdability);
+	}
+
+	@Override public int getHoldability() throws SQLException {
+		return target().getHoldability();
+	}
+
+	@Override public Savepoint setSavepoint() throws SQLException {
+		return target().setSavepoint();
+	}
+
+	@Override public Savepoint setSavepoint(String name) throws SQLException {
+		return target().setSavepoint(name);
+	}
+
+	@Override public void rollback(Savepoint savepoint) throws SQLException {
+		target().rollback(savepoint);
+	}
+
+	@Override public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+		target().releaseSavepoint(savepoint);
+	}
+
+	@Override
+	public Statement createStatement(int resultSetType,
+	                                 int resultSetConcurrency,
+	                                 int resultSetHoldability) throws SQLException {
+		return target().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(String sql,
+	                                          int resultSetType,
+	                                          int resultSetConcurrency,
+	                                          int resultSetHoldability) throws SQLException {
+		return target().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+	}
+
+	@Override
+	public CallableStatement prepareCall(String sql,
+	                                     int resultSetType,
+	                                     int resultSetConcurrency,
+	                                     int resultSetHoldability) throws SQLException {
+		return target().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+	}
+
+	@Override public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys)
+			throws SQLException {
+		return target().prepareStatement(sql, autoGeneratedKeys);
+	}
+
+	@Override public PreparedStatement prepareStatement(String sql, int[] columnIndexes)
+			throws SQLException {
+		return target().prepareStatement(sql, columnIndexes);
+	}
+
+	@Override public PreparedStatement prepareStatement(String sql, String[] columnNames)
+			throws SQLException {
+		return target().prepareStatement(sql, columnNames);
+	}
+
+	@Override public Clob createClob() throws SQLException {
+		return target().createClob();
+	}
+
+	@Override public Blob createBlob() throws SQLException {
+		return target().createBlob();
+	}
+
+	@Override public NClob createNClob() throws SQLException {
+		return target().createNClob();
+	}
+
+	@Override public SQLXML createSQLXML() throws SQLException {
+		return target().createSQLXML();
+	}
+
+	@Override public boolean isValid(int timeout) throws SQLException {
+		return ! mClosed.get() && mConnection.isLeasedBy(mGeneration) && mConnection.isValid(timeout);
+	}
+
+	@Override public void setClientInfo(String name, String value) throws SQLClientInfoException {
+		try {
+			target().setClientInfo(name, value);
+		} catch (SQLClientInfoException e) {
+			throw e;
+		} catch (SQLException e) {
+			throw new SQLClientInfoException(e.getMessage(), null, e);
+		}
+	}
+
+	@Override public void setClientInfo(Properties properties) throws SQLClientInfoException {
+		try {
+			target().setClientInfo(properties);
+		} catch (SQLClientInfoException e) {
+			throw e;
+		} catch (SQLException e) {
+			throw new SQLClientInfoException(e.getMessage(), null, e);
+		}
+	}
+
+	@Override public String getClientInfo(String name) throws SQLException {
+		return target().getClientInfo(name);
+	}
+
+	@Override public Properties getClientInfo() throws SQLException {
+		return target().getClientInfo();
+	}
+
+	@Override public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+		return target().createArrayOf(typeName, elements);
+	}
+
+	@Override public Struct createStruct(String typeName, Object[] attributes)
+			throws SQLException {
+		return target().createStruct(typeName, attributes);
+	}
+
+	@Override public void setSchema(String schema) throws SQLException {
+		target().setSchema(schema);
+	}
+
+	@Override public String getSchema() throws SQLException {
+		return target().getSchema();
+	}
+
+	@Override public void abort(Executor executor) throws SQLException {
+		target().abort(executor);
+	}
+
+	@Override public void setNetworkTimeout(Executor executor, int milliseconds)
+			throws SQLException {
+		target().setNetworkTimeout(executor, milliseconds);
+	}
+
+	@Override public int getNetworkTimeout() throws SQLException {
+		return target().getNetworkTimeout();
+	}
+
+	@Override public <T> T unwrap(Class<T> iface) throws SQLException {
+		if(iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+
+		return target().unwrap(iface);
+	}
+
+	@Override public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || target().isWrapperFor(iface);
+	}
+}
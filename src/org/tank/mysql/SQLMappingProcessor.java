@@ -0,0 +1,492 @@
+package org.tank.mysql;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * 编译时为标记了 @Table 的实体生成 SQLEntityMapping, 生成的类与实体在同一个包中, 名称为实体的类名加上 _SQLMapping
+ * 生成的代码直接读写变量 (变量不可访问时使用 getter 和 setter), 不使用反射
+ * 基本类型的变量使用 getInt、setInt 等读写, 其他类型使用调用者按 JDBC 类型和 getTypes() 选出后传入的转换
+ * 变量的顺序和查找规则与 Reflect.fields() 相同: 先子类后父类, 跳过静态变量, 同名的只保留子类的
+ * 实体或变量无法在生成的代码中访问时给出警告并跳过, 运行时仍使用反射
+ * 通过 resources/processor 中的 META-INF/services 注册, 该目录在编译本库之后才打包进 jar,
+ * 以免编译本库时 javac 在 src 中找到注册却找不到编译好的处理器; 编译实体时把打包好的本库放在 processor path 中即可
+ */
+@SupportedAnnotationTypes({"org.tank.mysql.Table", "org.tank.mysql.Id", "org.tank.mysql.Column"})
+public class SQLMappingProcessor extends AbstractProcessor {
+
+	/**
+	 * 一个变量在生成的代码中的读写方式
+	 */
+	private static final class Property {
+		String column;
+		// 变量的类型, 泛型已擦除
+		TypeMirror type;
+		// 读取变量的表达式, 以 entity 为实体
+		String getter;
+		// 给变量赋值的语句的前后两部分, 中间为值
+		String setterPrefix;
+		String setterSuffix;
+		boolean id;
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for(Element element : roundEnv.getElementsAnnotatedWith(Table.class)) {
+			if(ElementKind.CLASS != element.getKind()) {
+				continue;
+			}
+
+			TypeElement type = (TypeElement) element;
+
+			try {
+				generate(type);
+			} catch (IOException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+				                                         "生成 SQLEntityMapping 失败: " + e.getMessage(),
+				                                         type);
+			}
+		}
+
+		return true;
+	}
+
+	private void warn(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+		                                         message + ", 不生成 SQLEntityMapping, 运行时使用反射",
+		                                         element);
+	}
+
+	private void generate(TypeElement type) throws IOException {
+		if(! isInstantiable(type)) {
+			return;
+		}
+
+		PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+		String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+		String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+		String simpleName = packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1);
+		String className = simpleName + SQLMappings.SUFFIX;
+		String entityName = type.getQualifiedName().toString();
+
+		List<Property> properties = new ArrayList<Property>();
+		Set<String> seen = new HashSet<String>();
+
+		for(TypeElement t = type; null != t; t = superclassOf(t)) {
+			for(VariableElement field : ElementFilter.fieldsIn(t.getEnclosedElements())) {
+				if(field.getModifiers().contains(Modifier.STATIC) || ! seen.add(field.getSimpleName().toString())) {
+					continue;
+				}
+
+				Property property = resolve(type, packageElement, field);
+
+				if(null == property) {
+					return;
+				}
+
+				properties.add(property);
+			}
+		}
+
+		Table table = type.getAnnotation(Table.class);
+		String tableName = table.value().isEmpty() ? type.getSimpleName().toString() : table.value();
+		String idColumn = null;
+
+		for(Property property : properties) {
+			if(property.id) {
+				idColumn = property.column;
+				break;
+			}
+		}
+
+		PrintWriter out = new PrintWriter(processingEnv.getFiler()
+		                                               .createSourceFile(packageName.isEmpty()
+		                                                                 ? className
+		                                                                 : packageName + "." + className, type)
+		                                               .openWriter());
+
+		try {
+			if(! packageName.isEmpty()) {
+				out.println("package " + packageName + ";");
+				out.println();
+			}
+
+			out.println("/**");
+			out.println(" * 由 " + SQLMappingProcessor.class.getName() + " 生成, 不要修改");
+			out.println(" */");
+			out.println("@SuppressWarnings(\"unchecked\")");
+			out.println("public final class " + className + " implements org.tank.mysql.SQLEntityMapping<" + entityName + "> {");
+			out.print("\tprivate static final java.util.List<String> COLUMNS = java.util.Collections.unmodifiableList(java.util.Arrays.asList(");
+
+			for(int idx = 0; idx < properties.size(); ++ idx) {
+				out.print((0 == idx ? "" : ", ") + literal(properties.get(idx).column));
+			}
+
+			out.println("));");
+			out.print("\tprivate static final java.util.List<Class<?>> TYPES = java.util.Collections.unmodifiableList(java.util.Arrays.<Class<?>>asList(");
+
+			for(int idx = 0; idx < properties.size(); ++ idx) {
+				out.print((0 == idx ? "" : ", ") + typeName(properties.get(idx).type) + ".class");
+			}
+
+			out.println("));");
+			out.println();
+
+			out.println("\t@Override");
+			out.println("\tpublic String getTable() {");
+			out.println("\t\treturn " + literal(tableName) + ";");
+			out.println("\t}");
+			out.println();
+
+			out.println("\t@Override");
+			out.println("\tpublic java.util.List<String> getColumns() {");
+			out.println("\t\treturn COLUMNS;");
+			out.println("\t}");
+			out.println();
+
+			out.println("\t@Override");
+			out.println("\tpublic java.util.List<Class<?>> getTypes() {");
+			out.println("\t\treturn TYPES;");
+			out.println("\t}");
+			out.println();
+
+			out.println("\t@Override");
+			out.println("\tpublic String getIdColumn() {");
+			out.println("\t\treturn " + (null == idColumn ? "null" : literal(idColumn)) + ";");
+			out.println("\t}");
+			out.println();
+
+			out.println("\t@Override");
+			out.println("\tpublic " + entityName + " newInstance() {");
+			out.println("\t\treturn new " + entityName + "();");
+			out.println("\t}");
+			out.println();
+
+			out.println("\t@Override");
+			out.println("\tpublic void read(" + entityName + " entity, int column, java.sql.ResultSet resultSet, int index, "
+			            + "org.tank.mysql.SQLTypeConverter<?> converter) throws java.sql.SQLException {");
+			out.println("\t\tswitch(column) {");
+
+			for(int idx = 0; idx < properties.size(); ++ idx) {
+				Property property = properties.get(idx);
+
+				out.println("\t\t\tcase " + idx + ": {");
+				writeRead(out, property);
+				out.println("\t\t\t\tbreak;");
+				out.println("\t\t\t}");
+			}
+
+			out.println("\t\t\tdefault:");
+			out.println("\t\t\t\tthrow new IndexOutOfBoundsException(String.valueOf(column));");
+			out.println("\t\t}");
+			out.println("\t}");
+			out.println();
+
+			out.println("\t@Override");
+			out.println("\tpublic Object get(" + entityName + " entity, int column) {");
+			out.println("\t\tswitch(column) {");
+
+			for(int idx = 0; idx < properties.size(); ++ idx) {
+				out.println("\t\t\tcase " + idx + ":");
+				out.println("\t\t\t\treturn " + properties.get(idx).getter + ";");
+			}
+
+			out.println("\t\t\tdefault:");
+			out.println("\t\t\t\tthrow new IndexOutOfBoundsException(String.valueOf(column));");
+			out.println("\t\t}");
+			out.println("\t}");
+			out.println();
+
+			out.println("\t@Override");
+			out.println("\tpublic void bind(java.sql.PreparedStatement statement, int index, " + entityName + " entity, int column, "
+			            + "org.tank.mysql.SQLTypeConverter<?> converter) throws java.sql.SQLException {");
+			out.println("\t\tswitch(column) {");
+
+			for(int idx = 0; idx < properties.size(); ++ idx) {
+				Property property = properties.get(idx);
+
+				out.println("\t\t\tcase " + idx + ":");
+				writeBind(out, property);
+				out.println("\t\t\t\tbreak;");
+			}
+
+			out.println("\t\t\tdefault:");
+			out.println("\t\t\t\tthrow new IndexOutOfBoundsException(String.valueOf(column));");
+			out.println("\t\t}");
+			out.println("\t}");
+			out.println("}");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * 生成的代码能否创建实体: 非抽象的顶层类或静态内部类, 本身和无参构造函数在同一个包中可访问
+	 */
+	private boolean isInstantiable(TypeElement type) {
+		if(type.getModifiers().contains(Modifier.ABSTRACT)) {
+			warn(type, "实体是抽象类");
+			return false;
+		}
+
+		for(Element t = type; ElementKind.PACKAGE != t.getKind(); t = t.getEnclosingElement()) {
+			if(! (t instanceof TypeElement)) {
+				warn(type, "实体是局部类");
+				return false;
+			}
+
+			if(t.getModifiers().contains(Modifier.PRIVATE)) {
+				warn(type, "实体不可访问");
+				return false;
+			}
+
+			if(NestingKind.MEMBER == ((TypeElement) t).getNestingKind() && ! t.getModifiers().contains(Modifier.STATIC)) {
+				warn(type, "实体是非静态的内部类");
+				return false;
+			}
+		}
+
+		for(ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if(constructor.getParameters().isEmpty() && ! constructor.getModifiers().contains(Modifier.PRIVATE)) {
+				return true;
+			}
+		}
+
+		warn(type, "实体没有可访问的无参构造函数");
+		return false;
+	}
+
+	private TypeElement superclassOf(TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+		return TypeKind.DECLARED == superclass.getKind()
+		       ? (TypeElement) ((DeclaredType) superclass).asElement()
+		       : null;
+	}
+
+	/**
+	 * 确定一个变量的读写方式, 可直接访问时直接读写, 否则使用 getter 和 setter
+	 *
+	 * @return 读写方式, 无法访问时为 null
+	 */
+	private Property resolve(TypeElement type, PackageElement packageElement, VariableElement field) {
+		String name = field.getSimpleName().toString();
+		Column column = field.getAnnotation(Column.class);
+		Property property = new Property();
+
+		property.column = null == column || column.value().isEmpty() ? name : column.value();
+		property.type = processingEnv.getTypeUtils().erasure(field.asType());
+		property.id = null != field.getAnnotation(Id.class);
+
+		boolean readable = isAccessible(field, packageElement);
+		boolean writable = readable && ! field.getModifiers().contains(Modifier.FINAL);
+
+		if(readable) {
+			property.getter = "entity." + name;
+		}
+
+		if(writable) {
+			property.setterPrefix = "entity." + name + " = ";
+			property.setterSuffix = ";";
+		}
+
+		if(! readable || ! writable) {
+			String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+
+			for(ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+				String methodName = method.getSimpleName().toString();
+
+				if(method.getModifiers().contains(Modifier.STATIC) || ! isAccessible(method, packageElement)) {
+					continue;
+				}
+
+				if(! readable
+				   && method.getParameters().isEmpty()
+				   && processingEnv.getTypeUtils().isSameType(field.asType(), method.getReturnType())
+				   && (methodName.equals("get" + suffix)
+				       || (TypeKind.BOOLEAN == field.asType().getKind() && methodName.equals("is" + suffix)))) {
+					readable = true;
+					property.getter = "entity." + methodName + "()";
+				} else if(! writable
+				          && 1 == method.getParameters().size()
+				          && processingEnv.getTypeUtils().isSameType(field.asType(),
+				                                                     method.getParameters().get(0).asType())
+				          && methodName.equals("set" + suffix)) {
+					writable = true;
+					property.setterPrefix = "entity." + methodName + "(";
+					property.setterSuffix = ");";
+				}
+			}
+		}
+
+		if(! readable || ! writable) {
+			warn(field, "变量 " + name + " 没有可访问的" + (readable ? " setter" : " getter"));
+			return null;
+		}
+
+		return property;
+	}
+
+	/**
+	 * 生成的类与实体在同一个包中, 公有成员和同一个包中的非私有成员可以访问
+	 */
+	private boolean isAccessible(Element member, PackageElement packageElement) {
+		Set<Modifier> modifiers = member.getModifiers();
+
+		if(modifiers.contains(Modifier.PUBLIC)) {
+			return true;
+		}
+
+		return ! modifiers.contains(Modifier.PRIVATE)
+		       && processingEnv.getElementUtils().getPackageOf(member).equals(packageElement);
+	}
+
+	/**
+	 * 输出从结果集读取一列并赋值的语句, 基本类型的值为 NULL 时保留变量的默认值, 与反射的路径相同
+	 */
+	private void writeRead(PrintWriter out, Property property) {
+		TypeMirror type = property.type;
+
+		if(TypeKind.CHAR == type.getKind()) {
+			// char 按字符串读取, 取第一个字符
+			out.println("\t\t\t\tString value = resultSet.getString(index);");
+			out.println("\t\t\t\tif(null != value && ! value.isEmpty()) {");
+			out.println("\t\t\t\t\t" + property.setterPrefix + "value.charAt(0)" + property.setterSuffix);
+			out.println("\t\t\t\t}");
+		} else if(type.getKind().isPrimitive()) {
+			out.println("\t\t\t\t" + typeName(type) + " value = resultSet." + getterOf(type) + "(index);");
+			out.println("\t\t\t\tif(! resultSet.wasNull()) {");
+			out.println("\t\t\t\t\t" + property.setterPrefix + "value" + property.setterSuffix);
+			out.println("\t\t\t\t}");
+		} else {
+			out.println("\t\t\t\t" + property.setterPrefix + "(" + typeName(type) + ") converter.read(resultSet, index)"
+			            + property.setterSuffix);
+		}
+	}
+
+	/**
+	 * 输出把变量的值填充到参数中的语句, 基本类型使用 setInt 等, 其他类型使用传入的转换
+	 */
+	private void writeBind(PrintWriter out, Property property) {
+		TypeMirror type = property.type;
+
+		if(TypeKind.CHAR == type.getKind()) {
+			out.println("\t\t\t\tstatement.setString(index, String.valueOf(" + property.getter + "));");
+		} else if(type.getKind().isPrimitive()) {
+			out.println("\t\t\t\tstatement." + setterOf(type) + "(index, " + property.getter + ");");
+		} else {
+			out.println("\t\t\t\t((org.tank.mysql.SQLTypeConverter<Object>) converter).bind(statement, index, "
+			            + property.getter + ");");
+		}
+	}
+
+	/**
+	 * 取得擦除泛型后的类型在源代码中的写法, 用于类型转换和类字面量
+	 * 不直接使用 TypeMirror.toString(), 它会带上泛型参数和类型注解
+	 */
+	private String typeName(TypeMirror type) {
+		TypeMirror erasure = processingEnv.getTypeUtils().erasure(type);
+
+		switch(erasure.getKind()) {
+			case ARRAY:
+				return typeName(((ArrayType) erasure).getComponentType()) + "[]";
+
+			case DECLARED:
+				return ((TypeElement) ((DeclaredType) erasure).asElement()).getQualifiedName().toString();
+
+			default:
+				// 基本类型
+				return erasure.getKind().name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	/**
+	 * 基本类型对应的 ResultSet getter, char 没有对应的 getter, 为 getObject
+	 */
+	private static String getterOf(TypeMirror type) {
+		switch(type.getKind()) {
+			case BOOLEAN:
+				return "getBoolean";
+			case BYTE:
+				return "getByte";
+			case SHORT:
+				return "getShort";
+			case INT:
+				return "getInt";
+			case LONG:
+				return "getLong";
+			case FLOAT:
+				return "getFloat";
+			case DOUBLE:
+				return "getDouble";
+			default:
+				return "getObject";
+		}
+	}
+
+	/**
+	 * 基本类型对应的 PreparedStatement setter
+	 */
+	private static String setterOf(TypeMirror type) {
+		switch(type.getKind()) {
+			case BOOLEAN:
+				return "setBoolean";
+			case BYTE:
+				return "setByte";
+			case SHORT:
+				return "setShort";
+			case INT:
+				return "setInt";
+			case LONG:
+				return "setLong";
+			case FLOAT:
+				return "setFloat";
+			case DOUBLE:
+				return "setDouble";
+			default:
+				return "setObject";
+		}
+	}
+
+	private static String literal(String value) {
+		StringBuilder builder = new StringBuilder("\"");
+
+		for(char c : value.toCharArray()) {
+			if('"' == c || '\\' == c) {
+				builder.append('\\');
+			}
+
+			builder.append(c);
+		}
+
+		return builder.append('"').toString();
+	}
+}
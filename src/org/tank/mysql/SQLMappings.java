@@ -0,0 +1,156 @@
+package org.tank.mysql;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 查找 SQLMappingProcessor 生成的 SQLEntityMapping, 每个类只查找一次, 找不到的也会记住
+ */
+final class SQLMappings {
+	// 生成的类名的后缀
+	static final String SUFFIX = "_SQLMapping";
+
+	// 找不到生成的类时缓存的值
+	private static final Object NONE = new Object();
+
+	private static final ClassValue<Object> mMappings = new ClassValue<Object>() {
+		@Override
+		protected Object computeValue(Class<?> type) {
+			Class<?> mappingType;
+
+			try {
+				mappingType = Class.forName(type.getName() + SUFFIX, true, type.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				return NONE;
+			} catch (LinkageError e) {
+				return NONE;
+			}
+
+			if(! SQLEntityMapping.class.isAssignableFrom(mappingType)) {
+				return NONE;
+			}
+
+			return Reflect.on(mappingType).create().get();
+		}
+	};
+
+	private SQLMappings() {
+	}
+
+	/**
+	 * 获得实体类生成的映射
+	 *
+	 * @param type 实体类
+	 * @param <T>  实体的类型
+	 * @return 映射, 没有生成时为 null
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> SQLEntityMapping<T> find(Class<T> type) {
+		Object mapping = mMappings.get(type);
+		return NONE == mapping ? null : (SQLEntityMapping<T>) mapping;
+	}
+
+	/**
+	 * 获得实体类对应的表名, 依次使用生成的映射、@Table 和类名
+	 *
+	 * @param type 实体类
+	 * @return 表名
+	 */
+	static String tableName(Class<?> type) {
+		SQLEntityMapping<?> mapping = find(type);
+
+		if(null != mapping) {
+			return mapping.getTable();
+		}
+
+		Table table = type.getAnnotation(Table.class);
+
+		if(null != table && ! table.value().isEmpty()) {
+			return table.value();
+		}
+
+		return type.getSimpleName();
+	}
+
+	/**
+	 * 获得实体类的所有字段名, 有生成的映射时不会反射扫描实体
+	 *
+	 * @param type 实体类
+	 * @return 字段名列表
+	 */
+	static List<String> columns(Class<?> type) {
+		SQLEntityMapping<?> mapping = find(type);
+		return null == mapping ? SQLEntityAccessor.of(type).getNames() : mapping.getColumns();
+	}
+
+	/**
+	 * 为一次查询的结果集选出每一列读取时使用的转换, 之后每一行都使用同一组转换
+	 *
+	 * @param mapping  映射
+	 * @param columns  每一列在映射中的下标
+	 * @param metaData 结果集的元数据, 用于取得每列的 JDBC 类型
+	 * @return 每一列的转换, 基本类型的变量为 null
+	 * @throws SQLException 读取元数据失败
+	 */
+	static SQLTypeConverter<?>[] readers(SQLEntityMapping<?> mapping, int[] columns, ResultSetMetaData metaData)
+			throws SQLException {
+		SQLTypeConverter<?>[] result = new SQLTypeConverter<?>[columns.length];
+		List<Class<?>> types = mapping.getTypes();
+
+		for(int idx = 0; idx < columns.length; ++ idx) {
+			Class<?> type = types.get(columns[idx]);
+
+			if(! type.isPrimitive()) {
+				result[idx] = SQLTypeConverters.converter(metaData.getColumnType(idx + 1), type);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * 选出填充参数时每个字段使用的转换, 填充参数时不知道字段的 JDBC 类型, 使用不区分 JDBC 类型的转换
+	 *
+	 * @param mapping 映射
+	 * @param columns 每个参数对应的字段在映射中的下标
+	 * @return 每个参数的转换, 基本类型的变量为 null
+	 */
+	static SQLTypeConverter<?>[] binders(SQLEntityMapping<?> mapping, int[] columns) {
+		SQLTypeConverter<?>[] result = new SQLTypeConverter<?>[columns.length];
+		List<Class<?>> types = mapping.getTypes();
+
+		for(int idx = 0; idx < columns.length; ++ idx) {
+			Class<?> type = types.get(columns[idx]);
+
+			if(! type.isPrimitive()) {
+				result[idx] = SQLTypeConverters.converter(type);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * 把字段名转化成在映射的 getColumns() 中的下标
+	 *
+	 * @param mapping 映射
+	 * @param type    实体类
+	 * @param names   字段名
+	 * @return 每个字段的下标
+	 * @throws ReflectException 映射中没有某个字段
+	 */
+	static int[] indexOf(SQLEntityMapping<?> mapping, Class<?> type, List<String> names) throws ReflectException {
+		int[] result = new int[names.size()];
+
+		for(int idx = 0; idx < result.length; ++ idx) {
+			result[idx] = mapping.getColumns().indexOf(names.get(idx));
+
+			if(result[idx] < 0) {
+				throw new ReflectException(new NoSuchFieldException(type.getName() + "." + names.get(idx)));
+			}
+		}
+
+		return result;
+	}
+}
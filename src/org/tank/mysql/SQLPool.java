@@ -1,27 +1,101 @@
 package org.tank.mysql;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.sql.Connection;
 import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.Calendar;
-import java.util.Map;
+import java.util.Properties;
 import java.util.Queue;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created by Tank
  * on 2017/1/8.
  */
 public class SQLPool {
+	private final String mName;
+	// 连接池的配置, 没有指定配置时在初始化时从 SQLConfiguration 复制
+	private SQLPoolConfig mConfig;
+	private final boolean mStaticConfig;
+	private final SQLPoolMetrics mMetrics = new SQLPoolMetrics(this);
+	private ObjectName mObjectName = null;
 	private AtomNumber mCurrentSize = new AtomNumber(0);
-	private Map<Connection, SQLConnection> mUsingPool = null;
-	private Queue<SQLConnection> mPool = null;
-	private Thread mCleanPoolThread = null;
-	private boolean mKeepClean = true;
-	private boolean mClosed = false;
+	// 固定大小的槽位, 每个槽位持有一个长期存在的 SQLConnection,
+	// 物理连接关闭后槽位会被重新使用, 不再为每次借出和归还创建新的对象
+	// 只有强制收回借出的连接时才把槽位换成新的 SQLConnection, 换的时候复制整个数组, 读取时不加锁
+	private volatile SQLConnection[] mSlots = null;
+	private final ReentrantLock mSlotLock = new ReentrantLock();
+	// 空闲连接按线程分成多个子队列, 自己的子队列为空时再从相邻的子队列中取
+	private Stripe[] mStripes = null;
+	// 每个优先级的等待队列和正在使用的连接数, 连接释放时直接交给优先级最高的可以借用的等待者
+	private final Lane[] mLanes = new Lane[SQLPriority.values().length];
+	// HIGH 以外的优先级正在使用的连接数, 不超过 mSizeLimit - SQLPoolConfig.highReservedSize
+	private final AtomicInteger mSharedUsing = new AtomicInteger(0);
+	// 在后台并行建立物理连接的线程池, 以及正在建立的连接个数
+	private ThreadPoolExecutor mCreator = null;
+	private AtomicInteger mCreatingSize = new AtomicInteger(0);
+	// 执行定时任务的线程, 如自适应调整连接池大小和连接的定期维护
+	private ScheduledThreadPoolExecutor mScheduler = null;
+	private SQLPoolSizer mSizer = null;
+	private SQLPoolMaintainer mMaintainer = null;
+	// 数据库不可用时让借用者直接失败
+	private SQLCircuitBreaker mBreaker = null;
+	// 连接池允许扩充到的大小, 自适应控制器发现数据库饱和时会调低它
+	private volatile int mSizeLimit;
+	private volatile boolean mClosed = false;
+	// 初始化只用 ReentrantLock, 不用 synchronized, 虚拟线程在等待时不会占住载体线程
+	private final ReentrantLock mInitLock = new ReentrantLock();
+	private volatile boolean mInitialized = false;
+	private SQLValidator mValidator = new SQLValidator(this);
+	// 每个线程最近归还的连接, 再次借用时优先尝试直接拿回它, 不经过 mStripes
+	private ThreadLocal<SQLConnection> mLastReleased = new ThreadLocal<SQLConnection>();
+
+	public SQLPool() {
+		this("default");
+	}
+
+	/**
+	 * @param name 连接池的名称, 用于注册 JMX 时区分不同的连接池
+	 */
+	public SQLPool(String name) {
+		this(name, null);
+	}
+
+	/**
+	 * @param name   连接池的名称, 用于注册 JMX 时区分不同的连接池
+	 * @param config 连接池的配置, 为 null 时在初始化时从 SQLConfiguration 复制
+	 */
+	public SQLPool(String name, SQLPoolConfig config) {
+		this.mName = name;
+		this.mStaticConfig = null == config;
+		this.mConfig = null == config ? new SQLPoolConfig() : config;
+		this.mSizeLimit = this.mConfig.maxSize;
+
+		for(int idx = 0; idx < mLanes.length; ++ idx) {
+			mLanes[idx] = new Lane();
+		}
+	}
+
+	public String getName() {
+		return mName;
+	}
+
+	public SQLPoolConfig getConfig() {
+		return mConfig;
+	}
 
 	/**
 	 * 获得当前连接池中连接的数量
@@ -38,7 +112,18 @@ public class SQLPool {
 	 * @return 当前连接池中正在使用的连接的数量
 	 */
 	public int getCurrentUsingSize() {
-		return mUsingPool.size();
+		Stripe[] stripes = mStripes;
+		int result = 0;
+
+		if(null == stripes) {
+			return 0;
+		}
+
+		for(Stripe stripe : stripes) {
+			result += stripe.mUsingSize.get();
+		}
+
+		return result;
 	}
 
 	/**
@@ -47,7 +132,78 @@ public class SQLPool {
 	 * @return 当前连接池中未被使用的连接的数量
 	 */
 	public int getCurrentFreeSize() {
-		return mPool.size();
+		return getCurrentSize() - getCurrentUsingSize();
+	}
+
+	/**
+	 * 获得当前正在后台建立的连接的数量, 这些连接已计入 getCurrentSize()
+	 *
+	 * @return 正在建立的连接的数量
+	 */
+	public int getPendingSize() {
+		return mCreatingSize.get();
+	}
+
+	/**
+	 * 获得连接池的指标, 可通过 snapshot() 获取某一时刻的副本
+	 *
+	 * @return 连接池的指标
+	 */
+	public SQLPoolMetrics getMetrics() {
+		return mMetrics;
+	}
+
+	/**
+	 * 获得连接池大小的自适应控制器
+	 *
+	 * @return 自适应控制器, 未开启 SQLPoolConfig.adaptiveSizing 时为 null
+	 */
+	public SQLPoolSizer getSizer() {
+		return mSizer;
+	}
+
+	/**
+	 * 获得连接池的定期维护任务, 可以查看各类被关闭或重建的连接数
+	 *
+	 * @return 维护任务, SQLPoolConfig.idleTestPeriod 不大于 0 时为 null
+	 */
+	public SQLPoolMaintainer getMaintainer() {
+		return mMaintainer;
+	}
+
+	/**
+	 * 获得连接池的断路器
+	 *
+	 * @return 断路器, 连接池初始化之前为 null
+	 */
+	public SQLCircuitBreaker getCircuitBreaker() {
+		return mBreaker;
+	}
+
+	boolean isClosed() {
+		return mClosed;
+	}
+
+	SQLConnection[] getSlots() {
+		return mSlots;
+	}
+
+	public int getSizeLimit() {
+		return mSizeLimit;
+	}
+
+	void setSizeLimit(int sizeLimit) {
+		this.mSizeLimit = Math.max(mConfig.minSize,
+		                           Math.min(mConfig.maxSize, sizeLimit));
+	}
+
+	/**
+	 * 获得连接池的有效性检测器, 可以查看各个检测模式下的检测次数和耗时
+	 *
+	 * @return 有效性检测器
+	 */
+	public SQLValidator getValidator() {
+		return mValidator;
 	}
 
 	/**
@@ -56,7 +212,7 @@ public class SQLPool {
 	 * @return 连接池满了返回 true, 反之返回 false
 	 */
 	public boolean isFull() {
-		if(getCurrentSize() + 1 == SQLConfiguration.maxSize) {
+		if(getCurrentSize() >= mConfig.maxSize) {
 			return true;
 		}
 
@@ -64,273 +220,1165 @@ public class SQLPool {
 	}
 
 	/**
-	 * 初始化连接池, 往连接池中添加 SQLConfiguration.initSize 个连接, 同时设置清理线程
-	 * 需检查连接的相应数据库中设置的 maxSize, 保证该值大于 SQLConfiguration.maxSize
+	 * 初始化连接池, 在后台开始建立 SQLPoolConfig.initSize 个连接, 同时安排定期维护
+	 * 该方法不会等待连接建立完成, 需要等待时使用 prefill()
+	 * 需检查连接的相应数据库中设置的 maxSize, 保证该值大于 SQLPoolConfig.maxSize
 	 * 该方法只允许被调用一次
 	 */
 	public void init() {
-		mUsingPool = new ConcurrentHashMap<Connection, SQLConnection>();
-		mPool = new ConcurrentLinkedQueue<SQLConnection>();
+		if(mStaticConfig) {
+			mConfig = new SQLPoolConfig();
+		}
+
+		try {
+			Class.forName(mConfig.driver);
+		} catch (ClassNotFoundException e) {
+			if(SQLConfiguration.printStackTrace) {
+				e.printStackTrace();
+			}
+		}
+
+		SQLConnection[] slots = new SQLConnection[mConfig.maxSize];
+
+		for(int idx = 0; idx < slots.length; ++ idx) {
+			slots[idx] = new SQLConnection(this);
+		}
+
+		mSlots = slots;
+
+		mStripes = new Stripe[Math.max(1, mConfig.stripeCount)];
+
+		for(int idx = 0; idx < mStripes.length; ++ idx) {
+			mStripes[idx] = new Stripe();
+		}
+
 		mCurrentSize.setValue(0);
+		mCreatingSize.set(0);
 		mClosed = false;
 
-		incConnection(SQLConfiguration.initSize);
+		int concurrency = Math.max(1, mConfig.createConcurrency);
+		ThreadFactory threadFactory = new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger(0);
 
-		if(null != mCleanPoolThread) {
-			mKeepClean = false;
-			mCleanPoolThread.interrupt();
-
-			try {
-				Thread.sleep(SQLConfiguration.idleTestPeriod);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "SQLPool Creator-" + mCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
 			}
+		};
 
-			mKeepClean = true;
+		mCreator = new ThreadPoolExecutor(concurrency,
+		                                  concurrency,
+		                                  60,
+		                                  TimeUnit.SECONDS,
+		                                  new LinkedBlockingQueue<Runnable>(),
+		                                  threadFactory);
+		mCreator.allowCoreThreadTimeOut(true);
+		mSizeLimit = mConfig.maxSize;
+
+		if(null != mScheduler) {
+			mScheduler.shutdownNow();
 		}
 
-		mCleanPoolThread = new Thread("SQLPool Cleaner") {
+		mScheduler = new ScheduledThreadPoolExecutor(Math.max(1, mConfig.maintenanceConcurrency),
+		                                             new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger(0);
+
 			@Override
-			public void run() {
-				while(mKeepClean) {
-					try {
-						Thread.sleep(SQLConfiguration.idleTestPeriod);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "SQLPool Scheduler-" + mCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mScheduler.setRemoveOnCancelPolicy(true);
+		mBreaker = new SQLCircuitBreaker(this, mScheduler);
 
-					// 清理连接池中的连接
-					SQLConnection sqlConnection = null;
-					int availableCount = mPool.size();
-					long now;
-
-					for(int idx = 0; idx < availableCount; ++ idx) {
-						sqlConnection = mPool.poll();
-
-						if(null == sqlConnection) {
-							break;
-						}
-
-						now = Calendar.getInstance().getTimeInMillis();
-
-						if(SQLConfiguration.closeIdleConnection
-						   && sqlConnection.getLastUsingTime() + SQLConfiguration.maxIdleTime < now
-						   && mCurrentSize.getValue() > SQLConfiguration.minSize) {
-							try {
-								sqlConnection.closeRealConnection();
-								sqlConnection = null;
-							} catch (SQLException e) {
-								e.printStackTrace();
-							}
-
-							mCurrentSize.inc(- 1);
-						} else { // 如果不需要关闭连接, 则需要保证连接可用
-							makeConnectUsable(sqlConnection);
-							mPool.offer(sqlConnection);
-						}
-					}
+		fillPool(mConfig.initSize);
 
-					// 清理长期未释放的连接
-					Set<Connection> keys = mUsingPool.keySet();
-
-					for(Connection key : keys) {
-						sqlConnection = mUsingPool.get(key);
-						now = Calendar.getInstance().getTimeInMillis();
-
-						if(SQLConfiguration.maxUsingTime > 0
-						   && sqlConnection.getLastUsingTime() + SQLConfiguration.maxUsingTime
-						      < now) {
-							try {
-								sqlConnection.closeRealConnectionAndRelease();
-							} catch (SQLException e) {
-								e.printStackTrace();
-							}
-						}
-					}
-				}
-			}
-		};
+		if(mConfig.adaptiveSizing) {
+			mSizer = new SQLPoolSizer(this);
+			mScheduler.scheduleWithFixedDelay(mSizer,
+			                                  mConfig.sizingPeriod,
+			                                  mConfig.sizingPeriod,
+			                                  TimeUnit.MILLISECONDS);
+		}
+
+		if(mConfig.idleTestPeriod > 0) {
+			mMaintainer = new SQLPoolMaintainer(this, mScheduler);
+			mMaintainer.start();
+		}
 
-		mCleanPoolThread.start();
+		if(mConfig.registerMBean) {
+			registerMBean();
+		}
+
+		mInitialized = true;
 	}
 
 	/**
-	 * 添加 incSize 个连接到连接池中
-	 * (由调用此方法的方法控制同步锁)
-	 *
-	 * @param incSize 增加的连接池的个数
+	 * 第一次使用连接池时初始化
 	 */
-	private void incConnection(int incSize) {
+	private void ensureInit() {
+		if(mInitialized) {
+			return;
+		}
+
+		mInitLock.lock();
+
 		try {
-			Class.forName(SQLConfiguration.driver);
-
-			for(int i = 0; incSize > i && ! isFull(); ++ i) {
-				DriverManager.setLoginTimeout((int) (SQLConfiguration.timeout / 1000));
-
-				try {
-					Connection connection = DriverManager.getConnection(SQLConfiguration.url,
-					                                                    SQLConfiguration.username,
-					                                                    SQLConfiguration.password);
-					releaseConnection(connection);
-					mCurrentSize.inc(1);
-				} catch (SQLException e) {
-					e.printStackTrace();
-				}
+			if(! mInitialized) {
+				init();
 			}
-
-		} catch (ClassNotFoundException e) {
-			e.printStackTrace();
+		} finally {
+			mInitLock.unlock();
 		}
 	}
 
 	/**
-	 * 释放连接, 将其放回连接池
+	 * 在后台新建最多 count 个连接, 建立好的连接会直接交给等待的线程或放入空闲队列
+	 * 槽位在提交前就已占用, 因此正在建立的连接也计入 getCurrentSize()
 	 *
-	 * @param connection 要释放的连接
+	 * @param count 要新建的连接个数
+	 * @return 实际提交的个数, 连接池满了时可能少于 count
 	 */
-	public void releaseConnection(Connection connection) {
-		mUsingPool.remove(connection);
+	int fillPool(int count) {
+		int submitted = 0;
+
+		// 断路器打开期间不再新建连接, 由断路器的探测决定何时恢复
+		if(! mBreaker.allowConnect()) {
+			return 0;
+		}
+
+		for(; submitted < count && getCurrentSize() < mSizeLimit; ++ submitted) {
+			final SQLConnection sqlConnection = reserveSlot();
+
+			if(null == sqlConnection) {
+				break;
+			}
+
+			mCreatingSize.incrementAndGet();
+
+			try {
+				mCreator.execute(new Runnable() {
+					@Override
+					public void run() {
+						createConnection(sqlConnection);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// 连接池已关闭
+				mCreatingSize.decrementAndGet();
+				releaseSlot(sqlConnection);
+				break;
+			}
+		}
 
-		SQLConnection sqlConnection = new SQLConnection();
-		sqlConnection.setSQLPool(this);
-		sqlConnection.setConnection(connection);
-		sqlConnection.setLastUsingTime(Calendar.getInstance().getTimeInMillis());
+		return submitted;
+	}
 
-		mPool.add(sqlConnection);
+	/**
+	 * 在后台扩充 count 个连接, 供自适应控制器使用
+	 *
+	 * @param count 要扩充的连接个数
+	 * @return 实际提交的个数
+	 */
+	int grow(int count) {
+		return fillPool(count);
 	}
 
 	/**
-	 * 新建一个连接
-	 * 用于强制关闭长期占用的连接后保持连接池中连接池的个数
+	 * 关闭最多 count 个空闲连接, 不会低于 SQLPoolConfig.minSize, 供自适应控制器使用
 	 *
-	 * @param connection 强制关闭了的连接
+	 * @param count 要关闭的连接个数
+	 * @return 实际关闭的个数
 	 */
-	public void newConnection(Connection connection) {
-		mUsingPool.remove(connection);
+	int shrink(int count) {
+		int shrunk = 0;
 
-		SQLConnection sqlConnection = new SQLConnection();
-		sqlConnection.setSQLPool(this);
-		sqlConnection.setLastUsingTime(Calendar.getInstance().getTimeInMillis());
+		while(shrunk < count && getCurrentSize() > mConfig.minSize) {
+			SQLConnection sqlConnection = pollConnection();
 
-		DriverManager.setLoginTimeout((int) (SQLConfiguration.timeout / 1000));
+			if(null == sqlConnection) {
+				break;
+			}
+
+			retireConnection(sqlConnection);
+			++ shrunk;
+		}
+
+		return shrunk;
+	}
+
+	/**
+	 * 为占用的槽位建立物理连接, 在 mCreator 的线程中执行
+	 *
+	 * @param sqlConnection 已占用的槽位
+	 */
+	private void createConnection(SQLConnection sqlConnection) {
+		boolean created = false;
 
 		try {
-			connection = DriverManager.getConnection(SQLConfiguration.url,
-			                                         SQLConfiguration.username,
-			                                         SQLConfiguration.password);
+			sqlConnection.setConnection(connect());
+			sqlConnection.setLastUsingTime(System.currentTimeMillis());
+			created = true;
 		} catch (SQLException e) {
-			e.printStackTrace();
+			releaseSlot(sqlConnection);
+			if(SQLConfiguration.printStackTrace) {
+				e.printStackTrace();
+			}
+		} finally {
+			mCreatingSize.decrementAndGet();
+			mMetrics.recordCreate(created);
 		}
 
-		sqlConnection.setConnection(connection);
+		// 建立连接期间连接池已关闭, 不再放回连接池
+		if(created && mClosed) {
+			retireConnection(sqlConnection);
+			return;
+		}
+
+		if(created) {
+			offerConnection(sqlConnection);
 
-		mPool.add(sqlConnection);
+			// 仍有线程在等待时继续扩充连接池
+			if(hasWaiters() && 0 == mCreatingSize.get()) {
+				fillPool(mConfig.increment);
+			}
+		}
 	}
 
 	/**
-	 * 确保让该连接可用(调用前得保证 sqlConnection 非空)
+	 * 放弃占用的槽位
 	 *
-	 * @param sqlConnection 数据库连接
+	 * @param sqlConnection 已占用的槽位
 	 */
-	public void makeConnectUsable(SQLConnection sqlConnection) {
-		int count = 0;
-
-		while(count < SQLConfiguration.retryTimesWhileCanNotConnectServer
-		      || SQLConfiguration.retryTimesWhileCanNotConnectServer <= 0) {
+	private void releaseSlot(SQLConnection sqlConnection) {
+		if(sqlConnection.compareAndSetState(sqlConnection.getGeneration(),
+		                                    SQLConnection.RESERVED,
+		                                    SQLConnection.EMPTY,
+		                                    false)) {
+			mCurrentSize.inc(- 1);
+		}
+	}
 
-			try(PreparedStatement preparedStatement
-					    = sqlConnection.prepareStatement(SQLConfiguration.keepAliveSQL)) {
-				preparedStatement.execute();
-				preparedStatement.close();
-				break;
-			} catch (SQLException e) {
-				e.printStackTrace();
+	/**
+	 * 占用一个空的槽位用于放置新建的连接
+	 *
+	 * @return 占用到的槽位, 没有空槽位时返回 null
+	 */
+	private SQLConnection reserveSlot() {
+		for(SQLConnection slot : mSlots) {
+			if(slot.compareAndSetState(slot.getGeneration(),
+			                           SQLConnection.EMPTY,
+			                           SQLConnection.RESERVED,
+			                           false)) {
+				mCurrentSize.inc(1);
+				return slot;
 			}
+		}
 
-			DriverManager.setLoginTimeout((int) (SQLConfiguration.timeout / 1000));
+		return null;
+	}
 
-			try {
-				Connection connection = DriverManager.getConnection(SQLConfiguration.url,
-				                                                    SQLConfiguration.username,
-				                                                    SQLConfiguration.password);
-				sqlConnection.setConnection(connection);
-			} catch (SQLException e) {
-				e.printStackTrace();
-			}
+	/**
+	 * 关闭空闲连接的物理连接, 并清空其槽位
+	 * (调用前得保证该连接已通过 pollConnection 或 claimConnection 取出)
+	 *
+	 * @param sqlConnection 空闲的连接
+	 */
+	void retireConnection(SQLConnection sqlConnection) {
+		mMetrics.recordEvict();
 
-			try {
-				Thread.sleep(SQLConfiguration.retryDurationDuringConnectingServer);
-			} catch (InterruptedException e) {
+		try {
+			sqlConnection.closeRealConnection();
+		} catch (SQLException e) {
+			if(SQLConfiguration.printStackTrace) {
 				e.printStackTrace();
 			}
+		}
 
-			++ count;
+		releaseSlot(sqlConnection);
+	}
+
+	/**
+	 * 释放连接, 将其放回连接池, 连接池已关闭时关闭其物理连接
+	 * 借出后连接已被强制回收或已经归还过时, 代数对不上, 什么都不做
+	 *
+	 * @param sqlConnection 要释放的连接
+	 * @param generation    借出连接时连接的代数
+	 * @return 成功放回连接池返回 true, 反之返回 false
+	 */
+	boolean releaseConnection(SQLConnection sqlConnection, long generation) {
+		if(! sqlConnection.compareAndSetState(generation,
+		                                      SQLConnection.USING,
+		                                      SQLConnection.RESERVED,
+		                                      false)) {
+			return false;
 		}
+
+		currentStripe().mUsingSize.decrementAndGet();
+		releaseLane(sqlConnection.getPriority());
+		sqlConnection.setLastUsingTime(System.currentTimeMillis());
+		mMetrics.recordRelease(System.nanoTime() - sqlConnection.getBorrowTime());
+
+		// 连接池关闭后归还的连接不再放回空闲队列, 与建立连接期间关闭连接池时一样直接关闭
+		if(mClosed) {
+			retireConnection(sqlConnection);
+			return false;
+		}
+
+		if(mConfig.threadAffinity) {
+			mLastReleased.set(sqlConnection);
+		}
+
+		offerConnection(sqlConnection);
+
+		return true;
 	}
 
 	/**
-	 * 从数据库连接池中获得一个连接
+	 * 将连接交给等待的线程, 没有等待的线程时置为空闲并放回连接池, 连接池已关闭时关闭它
+	 * (调用前连接需处于 RESERVED 状态, 即只有当前线程持有它)
 	 *
-	 * @return SQLConnection 或者 null
+	 * @param sqlConnection 要交出的连接
 	 */
-	public SQLConnection getConnection() {
+	void offerConnection(SQLConnection sqlConnection) {
 		if(mClosed) {
-			return null;
+			retireConnection(sqlConnection);
+			return;
 		}
 
-		synchronized(this) {
-			if(null == mPool) {
-				init();
+		while(sqlConnection != null) {
+			if(handOffToWaiter(sqlConnection)) {
+				return;
+			}
+
+			sqlConnection.compareAndSetState(sqlConnection.getGeneration(),
+			                                 SQLConnection.RESERVED,
+			                                 SQLConnection.FREE,
+			                                 false);
+
+			// 通过线程缓存借出再归还的连接可能还在空闲队列中, 此时不需要重复放入
+			if(sqlConnection.markQueued()) {
+				currentStripe().mQueue.offer(sqlConnection);
+			}
+
+			// 入队前 close() 可能已经清空过空闲队列, 由这里再清空一次
+			if(mClosed) {
+				retireIdleConnections();
+				return;
 			}
+
+			// 放回连接池的同时可能有线程刚开始等待, 此时需要把连接重新取出来交给它
+			if(! hasAdmissibleWaiter()) {
+				return;
+			}
+
+			sqlConnection = pollConnection();
 		}
+	}
 
-		SQLConnection sqlConnection = mPool.poll();
-		int count = 0;
+	/**
+	 * 按优先级从高到低把连接交给等待的线程, 交出前替等待者占用其优先级的名额
+	 * 某个优先级的名额用完时跳过该优先级的等待者
+	 *
+	 * @param sqlConnection 要交出的连接, 需处于 RESERVED 状态
+	 * @return 交出成功返回 true, 反之返回 false
+	 */
+	private boolean handOffToWaiter(SQLConnection sqlConnection) {
+		for(SQLPriority priority : SQLPriority.values()) {
+			Queue<Waiter> waiters = mLanes[priority.ordinal()].mWaiters;
 
-		while(null == sqlConnection
-		      && (count < SQLConfiguration.retryTimesWhileGetNullConnection
-		          || SQLConfiguration.retryTimesWhileGetNullConnection <= 0)) {
-			synchronized(this) {
-				if(! isFull()) {
-					incConnection(SQLConfiguration.increment);
+			while(! waiters.isEmpty() && tryAcquireLane(priority)) {
+				Waiter waiter = waiters.poll();
+
+				if(waiter != null && waiter.handOff(sqlConnection)) {
+					return true;
+				}
+
+				// 等待者已超时或队列已被取空, 退还名额
+				releaseLane(priority);
+
+				if(null == waiter) {
+					break;
 				}
 			}
+		}
 
-			sqlConnection = mPool.poll();
+		return false;
+	}
 
-			if(sqlConnection != null) {
-				break;
+	/**
+	 * 判断是否有线程在等待连接
+	 *
+	 * @return 有线程在等待返回 true, 反之返回 false
+	 */
+	private boolean hasWaiters() {
+		for(Lane lane : mLanes) {
+			if(! lane.mWaiters.isEmpty()) {
+				return true;
 			}
+		}
 
-			try {
-				Thread.sleep(SQLConfiguration.retryDurationDuringGetNullConnection);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+		return false;
+	}
+
+	/**
+	 * 判断是否有名额未用完的等待者
+	 *
+	 * @return 有返回 true, 反之返回 false
+	 */
+	private boolean hasAdmissibleWaiter() {
+		for(SQLPriority priority : SQLPriority.values()) {
+			if(! mLanes[priority.ordinal()].mWaiters.isEmpty() && canAcquireLane(priority)) {
+				return true;
 			}
+		}
 
-			++ count;
+		return false;
+	}
+
+	/**
+	 * 判断是否有优先级不低于 priority 的线程在等待, 有时当前线程不能插队
+	 *
+	 * @param priority 当前线程的优先级
+	 * @return 有返回 true, 反之返回 false
+	 */
+	private boolean hasWaitersAbove(SQLPriority priority) {
+		for(int idx = 0; idx <= priority.ordinal(); ++ idx) {
+			if(! mLanes[idx].mWaiters.isEmpty()) {
+				return true;
+			}
 		}
 
-		if(sqlConnection != null) {
-			makeConnectUsable(sqlConnection);
+		return false;
+	}
 
-			try {
-				sqlConnection.setAutoCommit(true);
-			} catch (SQLException e) {
-				e.printStackTrace();
+	private int sharedLimit() {
+		if(mConfig.highReservedSize <= 0) {
+			return Integer.MAX_VALUE;
+		}
+
+		return Math.max(1, mSizeLimit - mConfig.highReservedSize);
+	}
+
+	private int laneLimit(SQLPriority priority) {
+		if(SQLPriority.LOW == priority && mConfig.lowMaxSize > 0) {
+			return mConfig.lowMaxSize;
+		}
+
+		return Integer.MAX_VALUE;
+	}
+
+	private boolean canAcquireLane(SQLPriority priority) {
+		if(SQLPriority.HIGH != priority && mSharedUsing.get() >= sharedLimit()) {
+			return false;
+		}
+
+		return mLanes[priority.ordinal()].mUsingSize.get() < laneLimit(priority);
+	}
+
+	/**
+	 * 为优先级 priority 占用一个使用连接的名额
+	 *
+	 * @param priority 优先级
+	 * @return 名额未用完时占用并返回 true, 反之返回 false
+	 */
+	private boolean tryAcquireLane(SQLPriority priority) {
+		if(SQLPriority.HIGH != priority && ! incrementBelow(mSharedUsing, sharedLimit())) {
+			return false;
+		}
+
+		if(! incrementBelow(mLanes[priority.ordinal()].mUsingSize, laneLimit(priority))) {
+			if(SQLPriority.HIGH != priority) {
+				mSharedUsing.decrementAndGet();
 			}
 
-			mUsingPool.put(sqlConnection.getConnection(), sqlConnection);
+			return false;
 		}
 
-		return sqlConnection;
+		return true;
 	}
 
 	/**
-	 * 关闭连接池
+	 * 退还优先级 priority 的一个名额, 名额用完而在等待的线程可能因此可以拿到空闲连接
+	 *
+	 * @param priority 优先级
 	 */
-	public void close() {
-		mKeepClean = false;
-		mClosed = true;
+	private void releaseLane(SQLPriority priority) {
+		mLanes[priority.ordinal()].mUsingSize.decrementAndGet();
+
+		if(SQLPriority.HIGH != priority) {
+			mSharedUsing.decrementAndGet();
+		}
+	}
+
+	private static boolean incrementBelow(AtomicInteger counter, int limit) {
+		for(;;) {
+			int current = counter.get();
+
+			if(current >= limit) {
+				return false;
+			}
+
+			if(counter.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 获得所有优先级正在等待连接的线程数
+	 *
+	 * @return 等待的线程数
+	 */
+	public int getWaitingSize() {
+		int result = 0;
+
+		for(Lane lane : mLanes) {
+			result += lane.mWaiters.size();
+		}
+
+		return result;
+	}
+
+	/**
+	 * 获得某个优先级正在使用的连接数
+	 *
+	 * @param priority 优先级
+	 * @return 正在使用的连接数
+	 */
+	public int getLaneUsingSize(SQLPriority priority) {
+		return mLanes[priority.ordinal()].mUsingSize.get();
+	}
+
+	/**
+	 * 获得某个优先级正在等待的线程数
+	 *
+	 * @param priority 优先级
+	 * @return 等待的线程数
+	 */
+	public int getLaneWaitingSize(SQLPriority priority) {
+		return mLanes[priority.ordinal()].mWaiters.size();
+	}
+
+	/**
+	 * 从空闲队列中取出一个空闲连接, 并置为 RESERVED 状态
+	 * 先取当前线程对应的子队列, 为空时依次从后面的子队列中取
+	 * 已经被线程缓存直接借走的连接会被跳过
+	 *
+	 * @return 空闲连接, 没有时返回 null
+	 */
+	private SQLConnection pollConnection() {
+		int home = stripeIndex();
+
+		for(int idx = 0; idx < mStripes.length; ++ idx) {
+			Queue<SQLConnection> queue = mStripes[(home + idx) % mStripes.length].mQueue;
+			SQLConnection sqlConnection;
+
+			while((sqlConnection = queue.poll()) != null) {
+				// 先清除标记再抢占, 抢占失败时归还它的线程会看到标记已清除并重新入队
+				sqlConnection.clearQueued();
+
+				if(sqlConnection.compareAndSetState(sqlConnection.getGeneration(),
+				                                    SQLConnection.FREE,
+				                                    SQLConnection.RESERVED,
+				                                    false)) {
+					return sqlConnection;
+				}
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * 不经过空闲队列, 直接将空闲的连接置为 RESERVED 状态, 供维护任务使用
+	 * 连接仍留在空闲队列中, 被取出时会因状态不符而跳过, 放回时 offerConnection 不会重复入队
+	 *
+	 * @param sqlConnection 要取出的连接
+	 * @return 连接空闲且抢占成功返回 true, 反之返回 false
+	 */
+	boolean claimConnection(SQLConnection sqlConnection) {
+		return sqlConnection.compareAndSetState(sqlConnection.getGeneration(),
+		                                        SQLConnection.FREE,
+		                                        SQLConnection.RESERVED,
+		                                        false);
+	}
+
+	private int stripeIndex() {
+		return (int) (Thread.currentThread().getId() % mStripes.length);
+	}
+
+	private Stripe currentStripe() {
+		return mStripes[stripeIndex()];
+	}
+
+	/**
+	 * 尝试拿回当前线程最近归还的连接, 成功时置为 RESERVED 状态
+	 *
+	 * @return 拿回的连接, 已被其他线程借走时返回 null
+	 */
+	private SQLConnection pollLastReleased() {
+		SQLConnection sqlConnection = mLastReleased.get();
+
+		if(sqlConnection != null
+		   && sqlConnection.compareAndSetState(sqlConnection.getGeneration(),
+		                                       SQLConnection.FREE,
+		                                       SQLConnection.RESERVED,
+		                                       false)) {
+			return sqlConnection;
+		}
+
+		return null;
+	}
+
+	/**
+	 * 为连接重新建立物理连接, 并放回连接池
+	 * 用于借用者在归还时无法恢复连接状态, 关闭物理连接后保持连接池中连接的个数
+	 * (由借用者的线程调用, 调用前连接的代数已经加一, 原来的持有者无法再归还它)
+	 *
+	 * @param sqlConnection 已关闭了物理连接的连接
+	 */
+	void renewConnection(SQLConnection sqlConnection) {
+		long generation = sqlConnection.getGeneration();
+
+		mMetrics.recordEvict();
+
+		try {
+			sqlConnection.setConnection(connect());
+		} catch (SQLException e) {
+			// 没有物理连接的槽位不能放回连接池
+			discardConnection(sqlConnection, generation);
+			if(SQLConfiguration.printStackTrace) {
+				e.printStackTrace();
+			}
+			return;
+		}
+
+		releaseConnection(sqlConnection, generation);
+	}
+
+	/**
+	 * 强制收回借出过久的连接, 供维护任务在调度线程中调用
+	 * 代数加一后原来的借用者无法再归还或使用它, 之后中止物理连接, 并把槽位换成新的 SQLConnection,
+	 * 原来的对象只留给仍持有它的借用者, 它的语句缓存和物理连接不会被其他借用者用到,
+	 * 借用者以原来的代数归还时再清理
+	 *
+	 * @param sqlConnection 借出状态的连接
+	 * @param generation    借出时的代数
+	 * @return 收回成功返回 true, 连接已经归还或已被收回时返回 false
+	 */
+	boolean revokeConnection(SQLConnection sqlConnection, long generation) {
+		if(! sqlConnection.compareAndSetState(generation,
+		                                      SQLConnection.USING,
+		                                      SQLConnection.RESERVED,
+		                                      true)) {
+			return false;
+		}
+
+		currentStripe().mUsingSize.decrementAndGet();
+		releaseLane(sqlConnection.getPriority());
+		mMetrics.recordEvict();
+		sqlConnection.abortRealConnection();
+		sqlConnection.markRevoked();
+		replaceSlot(sqlConnection);
+		mCurrentSize.inc(- 1);
+		signalWaiters();
+
+		return true;
+	}
+
+	/**
+	 * 把被强制收回的连接所在的槽位换成空的 SQLConnection
+	 * 被收回的连接停在 RESERVED 状态, 不会再被借出、维护或放回连接池
+	 *
+	 * @param sqlConnection 被强制收回的连接
+	 */
+	private void replaceSlot(SQLConnection sqlConnection) {
+		mSlotLock.lock();
+
+		try {
+			SQLConnection[] slots = mSlots.clone();
+
+			for(int idx = 0; idx < slots.length; ++ idx) {
+				if(slots[idx] == sqlConnection) {
+					slots[idx] = new SQLConnection(this);
+					mSlots = slots;
+					return;
+				}
+			}
+		} finally {
+			mSlotLock.unlock();
+		}
+	}
+
+	/**
+	 * 关闭借出状态的连接并清空其槽位, 不放回连接池
+	 *
+	 * @param sqlConnection 借出状态的连接
+	 * @param generation    连接当前的代数
+	 */
+	private void discardConnection(SQLConnection sqlConnection, long generation) {
+		if(sqlConnection.compareAndSetState(generation,
+		                                    SQLConnection.USING,
+		                                    SQLConnection.RESERVED,
+		                                    false)) {
+			currentStripe().mUsingSize.decrementAndGet();
+			releaseLane(sqlConnection.getPriority());
+			retireConnection(sqlConnection);
+			signalWaiters();
+		}
+	}
+
+	/**
+	 * 退还名额后, 把空闲连接交给之前因名额用完而等待的线程
+	 */
+	private void signalWaiters() {
+		if(hasAdmissibleWaiter()) {
+			SQLConnection sqlConnection = pollConnection();
+
+			if(sqlConnection != null) {
+				offerConnection(sqlConnection);
+			}
+		}
+	}
+
+	/**
+	 * 建立一个物理连接, 并将结果记录到断路器
+	 * 超时通过连接属性交给驱动, 只对这一个连接有效; DriverManager.setLoginTimeout 是整个 JVM 共用的,
+	 * 多个数据源会互相覆盖
+	 *
+	 * @return 物理连接
+	 * @throws SQLException 无法建立连接
+	 */
+	Connection connect() throws SQLException {
+		Properties info = new Properties();
+
+		if(null != mConfig.username) {
+			info.setProperty("user", mConfig.username);
+		}
+
+		if(null != mConfig.password) {
+			info.setProperty("password", mConfig.password);
+		}
+
+		// MySQL 驱动建立连接的超时, 单位为毫秒
+		info.setProperty("connectTimeout", String.valueOf(mConfig.timeout));
+
+		try {
+			Connection connection = DriverManager.getDriver(mConfig.url).connect(mConfig.url, info);
+
+			if(null == connection) {
+				throw new SQLException("No suitable driver found for " + mConfig.url);
+			}
+
+			mBreaker.recordSuccess();
+			return connection;
+		} catch (SQLException e) {
+			mBreaker.recordFailure();
+			throw e;
+		}
+	}
+
+	/**
+	 * 断路器打开时唤醒所有等待的线程, 让它们直接失败
+	 */
+	void onCircuitOpen() {
+		unparkWaiters();
+	}
+
+	private void unparkWaiters() {
+		for(Lane lane : mLanes) {
+			for(Waiter waiter : lane.mWaiters) {
+				LockSupport.unpark(waiter.mThread);
+			}
+		}
+	}
+
+	/**
+	 * 断路器关闭时补足 minSize 个连接
+	 */
+	void onCircuitClosed() {
+		int lack = mConfig.minSize - getCurrentSize();
+
+		if(lack > 0) {
+			fillPool(lack);
+		}
+	}
+
+	/**
+	 * 确保让该连接可用(调用前得保证 sqlConnection 非空)
+	 * 检测失败时重新建立物理连接, 每次重试前的等待时间按指数增长并带有随机抖动,
+	 * 断路器打开或重试次数用完时放弃
+	 *
+	 * @param sqlConnection 数据库连接
+	 * @param mode          检测记录在哪个模式下
+	 * @return 连接可用返回 true, 反之返回 false
+	 */
+	public boolean makeConnectUsable(SQLConnection sqlConnection, SQLValidator.Mode mode) {
+		if(mValidator.validate(sqlConnection, mode)) {
+			return true;
+		}
+
+		int count = 0;
+
+		while(count < mConfig.retryTimesWhileCanNotConnectServer
+		      || mConfig.retryTimesWhileCanNotConnectServer <= 0) {
+			try {
+				sqlConnection.setConnection(connect());
+				return true;
+			} catch (SQLException e) {
+				if(SQLConfiguration.printStackTrace) {
+					e.printStackTrace();
+				}
+			}
+
+			if(! mBreaker.allowConnect() || mClosed) {
+				break;
+			}
+
+			++ count;
+
+			LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(
+					SQLCircuitBreaker.backoff(count,
+					                          mConfig.retryDurationDuringConnectingServer,
+					                          mConfig.circuitMaxOpenTime)));
+
+			if(Thread.currentThread().isInterrupted()) {
+				break;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * 从数据库连接池中获得一个连接
+	 * 连接池中没有空闲连接时会在等待队列中排队, 直到有连接被释放或者超过 SQLPoolConfig.borrowTimeout
+	 * 返回的 SQLLease 只代表这一次借出, 关闭它即归还连接, 重复关闭没有效果
+	 *
+	 * @return SQLLease, 连接池已关闭时返回 null
+	 * @throws SQLPoolTimeoutException 超时仍未获得连接
+	 * @throws SQLException            等待时线程被中断
+	 */
+	public SQLLease getConnection() throws SQLException {
+		return getConnection(SQLPriority.NORMAL);
+	}
+
+	/**
+	 * 以指定的优先级从数据库连接池中获得一个连接
+	 * 优先级的名额用完时即使有空闲连接也要等待, 见 SQLPriority
+	 *
+	 * @param priority 优先级
+	 * @return SQLLease, 连接池已关闭时返回 null
+	 * @throws SQLPoolTimeoutException 超时仍未获得连接
+	 * @throws SQLException            等待时线程被中断
+	 */
+	public SQLLease getConnection(SQLPriority priority) throws SQLException {
+		SQLConnection sqlConnection = borrow(priority);
+		return null == sqlConnection ? null : sqlConnection.lease();
+	}
+
+	/**
+	 * 借出槽位上的连接本身, 不创建 SQLLease, 供内部使用
+	 * 借出后立即用 SQLConnection.getGeneration() 记下代数, 归还时调用 close(generation)
+	 *
+	 * @param priority 优先级
+	 * @return SQLConnection, 连接池已关闭时返回 null
+	 * @throws SQLPoolTimeoutException 超时仍未获得连接
+	 * @throws SQLException            等待时线程被中断
+	 */
+	SQLConnection borrow(SQLPriority priority) throws SQLException {
+		if(mClosed) {
+			return null;
+		}
+
+		long start = System.nanoTime();
+
+		ensureInit();
+
+		SQLConnection sqlConnection = null;
+
+		// 已经有同等或更高优先级的线程在排队时不插队, 保证先来的线程先拿到连接
+		if(! hasWaitersAbove(priority) && tryAcquireLane(priority)) {
+			if(mConfig.threadAffinity) {
+				sqlConnection = pollLastReleased();
+			}
+
+			if(null == sqlConnection) {
+				sqlConnection = pollConnection();
+			}
+
+			if(null == sqlConnection) {
+				releaseLane(priority);
+			}
+		}
+
+		if(null == sqlConnection) {
+			// 断路器打开期间不会新建连接, 没有空闲连接时直接失败, 不再排队
+			if(! mBreaker.allowRequest()) {
+				throw new SQLPoolUnavailableException("Circuit breaker is " + mBreaker.getState()
+				                                      + ", the database is unavailable");
+			}
+
+			sqlConnection = waitForConnection(priority);
+		}
+
+		if(sqlConnection != null) {
+			long now = System.currentTimeMillis();
+			// 空闲时间要在更新 lastUsingTime 之前判断
+			boolean validate = mValidator.needValidateOnBorrow(sqlConnection, now);
+
+			sqlConnection.compareAndSetState(sqlConnection.getGeneration(),
+			                                 SQLConnection.RESERVED,
+			                                 SQLConnection.USING,
+			                                 true);
+			sqlConnection.setLastUsingTime(now);
+			sqlConnection.setPriority(priority);
+			sqlConnection.clearLease();
+			currentStripe().mUsingSize.incrementAndGet();
+
+			if(validate && ! makeConnectUsable(sqlConnection, mConfig.validationMode)) {
+				discardConnection(sqlConnection, sqlConnection.getGeneration());
+				throw new SQLPoolUnavailableException("Unable to connect to the database");
+			}
+
+			try {
+				sqlConnection.resetAutoCommit(true);
+			} catch (SQLException e) {
+				if(SQLConfiguration.printStackTrace) {
+					e.printStackTrace();
+				}
+			}
+
+			sqlConnection.setBorrowTime(System.nanoTime());
+			mMetrics.recordBorrow(priority, sqlConnection.getBorrowTime() - start);
+		}
+
+		return sqlConnection;
+	}
+
+	/**
+	 * 在优先级对应的等待队列中排队, 直到有连接交到当前线程手上
+	 * 交到手上时已经替当前线程占用了名额
+	 *
+	 * @param priority 优先级
+	 * @return SQLConnection, 连接池已关闭时返回 null
+	 * @throws SQLPoolTimeoutException 超时仍未获得连接
+	 * @throws SQLException            等待时线程被中断
+	 */
+	private SQLConnection waitForConnection(SQLPriority priority) throws SQLException {
+		long start = System.nanoTime();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(mConfig.borrowTimeout);
+		Queue<Waiter> waiters = mLanes[priority.ordinal()].mWaiters;
+		Waiter waiter = new Waiter();
+
+		waiters.offer(waiter);
+
+		// 入队前可能刚好有连接放回了连接池, 或者名额刚好被退还
+		if(tryAcquireLane(priority)) {
+			SQLConnection sqlConnection = pollConnection();
+
+			if(sqlConnection != null && waiter.cancel()) {
+				waiters.remove(waiter);
+				return sqlConnection;
+			}
+
+			releaseLane(priority);
+
+			// 已经有连接交到手上了, 多出来的放回去
+			if(sqlConnection != null) {
+				offerConnection(sqlConnection);
+				return waiter.getConnection();
+			}
+		}
+
+		// 没有正在建立的连接时在后台扩充连接池, 只需等到第一个可用的连接
+		// 名额用完时扩充连接池也拿不到连接
+		if(0 == mCreatingSize.get() && canAcquireLane(priority)) {
+			fillPool(mConfig.increment);
+		}
+
+		while(! waiter.isDone()) {
+			long remaining = deadline - System.nanoTime();
+
+			boolean unavailable = mBreaker.getState() != SQLCircuitBreaker.State.CLOSED;
+
+			if(mClosed || unavailable || remaining <= 0 || Thread.interrupted()) {
+				if(waiter.cancel()) {
+					waiters.remove(waiter);
+
+					if(mClosed) {
+						return null;
+					}
+
+					if(unavailable) {
+						mBreaker.allowRequest();
+						throw new SQLPoolUnavailableException("Circuit breaker is " + mBreaker.getState()
+						                                      + ", the database is unavailable");
+					}
+
+					if(remaining <= 0) {
+						mMetrics.recordTimeout();
+						throw new SQLPoolTimeoutException(
+								TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+					}
+
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted while waiting for a connection");
+				}
+
+				break;
+			}
+
+			LockSupport.parkNanos(this, remaining);
+		}
+
+		return waiter.getConnection();
+	}
+
+	/**
+	 * 预热连接池, 用于应用启动时提前建立连接
+	 * 阻塞直到 SQLPoolConfig.initSize 个连接全部建立完成, 或者超过 SQLPoolConfig.timeout
+	 *
+	 * @return 预热结束时连接池中已建立的连接数
+	 */
+	public int prefill() {
+		ensureInit();
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mConfig.timeout);
+
+		while(mCreatingSize.get() > 0 && System.nanoTime() < deadline && ! mClosed) {
+			LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+		}
+
+		return getCurrentSize() - mCreatingSize.get();
+	}
+
+	/**
+	 * 关闭连接池
+	 */
+	public void close() {
+		mClosed = true;
+
+		if(null != mCreator) {
+			mCreator.shutdownNow();
+		}
+
+		if(null != mScheduler) {
+			mScheduler.shutdownNow();
+
+			// 等正在处理的维护分片把取出的连接放回后, 再关闭空闲连接
+			// 超时后仍未放回的连接由 offerConnection 在放回时关闭
+			try {
+				mScheduler.awaitTermination(mConfig.shutdownTimeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		unregisterMBean();
+		unparkWaiters();
+
+		if(null != mStripes) {
+			retireIdleConnections();
+		}
+	}
+
+	/**
+	 * 关闭空闲队列中的所有连接
+	 */
+	private void retireIdleConnections() {
+		SQLConnection sqlConnection;
+
+		while((sqlConnection = pollConnection()) != null) {
+			retireConnection(sqlConnection);
+		}
+	}
+
+	private void registerMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName("org.tank.mysql:type=SQLPool,name="
+			                                       + ObjectName.quote(mName));
+
+			if(! server.isRegistered(objectName)) {
+				server.registerMBean(mMetrics, objectName);
+				mObjectName = objectName;
+			}
+		} catch (JMException e) {
+			if(SQLConfiguration.printStackTrace) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void unregisterMBean() {
+		if(null == mObjectName) {
+			return;
+		}
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(mObjectName);
+		} catch (JMException e) {
+			if(SQLConfiguration.printStackTrace) {
+				e.printStackTrace();
+			}
+		}
+
+		mObjectName = null;
+	}
+
+	/**
+	 * 空闲连接的子队列
+	 * 借出和归还可能发生在不同的线程, 单个子队列的 mUsingSize 可能为负数, 但总和是正确的
+	 */
+	private static class Stripe {
+		private final Queue<SQLConnection> mQueue = new ConcurrentLinkedQueue<SQLConnection>();
+		private final AtomicInteger mUsingSize = new AtomicInteger(0);
+	}
+
+	/**
+	 * 一个优先级的等待队列和正在使用的连接数
+	 */
+	private static class Lane {
+		private final Queue<Waiter> mWaiters = new ConcurrentLinkedQueue<Waiter>();
+		private final AtomicInteger mUsingSize = new AtomicInteger(0);
+	}
+
+	/**
+	 * 等待连接的线程, 释放连接的线程通过 CAS 把连接交给它,
+	 * 超时的线程通过 CAS 把自己标记为取消, 两者只会有一方成功
+	 */
+	private static class Waiter {
+		private static final Object CANCELLED = new Object();
+
+		private final Thread mThread = Thread.currentThread();
+		private final AtomicReference<Object> mSlot = new AtomicReference<Object>();
+
+		boolean handOff(SQLConnection sqlConnection) {
+			if(mSlot.compareAndSet(null, sqlConnection)) {
+				LockSupport.unpark(mThread);
+				return true;
+			}
+
+			return false;
+		}
+
+		boolean cancel() {
+			return mSlot.compareAndSet(null, CANCELLED);
+		}
+
+		boolean isDone() {
+			return mSlot.get() != null;
+		}
+
+		SQLConnection getConnection() {
+			Object value = mSlot.get();
+			return value instanceof SQLConnection ? (SQLConnection) value : null;
+		}
 	}
 }
@@ -0,0 +1,345 @@
+package org.tank.mysql;
+
+/**
+ * 一个连接池的配置, 创建时复制 SQLConfiguration 中的默认值, 再通过 set 方法修改
+ * 每个 SQLDataSource 持有自己的配置, 同一个 JVM 中可以有多个大小和地址各不相同的连接池
+ * 连接池初始化之后再修改配置不一定生效
+ */
+public class SQLPoolConfig {
+
+	// jdbc 驱动类名
+	String driver;
+	// 数据库连接地址
+	String url;
+	// 数据库用户名
+	String username;
+	// 数据库密码
+	String password;
+	// 连接池最大连接数
+	int maxSize;
+	// 连接池最小连接数
+	int minSize;
+	// 初始化时建立的连接数
+	int initSize;
+	// 连接不够时每次扩充的连接数
+	int increment;
+	// 并行建立连接的线程数
+	int createConcurrency;
+	// 建立连接的超时时间, 单位为毫秒
+	long timeout;
+	// 借用连接的最长等待时间, 单位为毫秒
+	long borrowTimeout;
+	// 是否优先借出当前线程最近归还的连接
+	boolean threadAffinity;
+	// 空闲队列的分段数
+	int stripeCount;
+	// 只留给 SQLPriority.HIGH 的连接数
+	int highReservedSize;
+	// SQLPriority.LOW 最多同时使用的连接数, 不大于 0 时不限制
+	int lowMaxSize;
+	// 每个连接缓存的预编译语句数, 为 0 时不缓存
+	int statementCacheSize;
+	// 流式查询每次从服务器取的行数, Integer.MIN_VALUE 时 MySQL 驱动逐行读取服务器推送的结果,
+	// 大于 0 时使用服务器端游标, 每次取这么多行, 需要在 url 中加上 useCursorFetch=true
+	int fetchSize;
+	// 检测连接时执行的 sql
+	String keepAliveSQL;
+	// 连接的检测模式
+	SQLValidator.Mode validationMode;
+	// 借出时空闲超过该时间才检测, 单位为毫秒
+	long validationIdleTime;
+	// Connection.isValid 的超时时间, 单位为秒
+	int validationTimeout;
+	// 定期维护的间隔, 单位为毫秒, 不大于 0 时不维护
+	long idleTestPeriod;
+	// 定期维护间隔和连接寿命的随机抖动比例
+	double maintenanceJitter;
+	// 定期维护的线程数
+	int maintenanceConcurrency;
+	// 定期维护时每个分片的连接数
+	int maintenanceSliceSize;
+	// 关闭连接池时等待正在处理的维护分片结束的最长时间, 单位为毫秒
+	long shutdownTimeout;
+	// 是否关闭空闲过久的连接
+	boolean closeIdleConnection;
+	// 连接的最长空闲时间, 单位为毫秒
+	long maxIdleTime;
+	// 物理连接的最长寿命, 单位为毫秒, 不大于 0 时不限制
+	long maxLifetime;
+	// 借出的最长时间, 超过后强制回收, 单位为毫秒, 不大于 0 时不限制
+	long maxUsingTime;
+	// 连接不可用时的重连次数, 不大于 0 时不限制
+	int retryTimesWhileCanNotConnectServer;
+	// 第一次重连前的等待时间, 单位为毫秒
+	long retryDurationDuringConnectingServer;
+	// 连续失败多少次后打开断路器
+	int circuitFailureThreshold;
+	// 断路器第一次打开的时长, 单位为毫秒
+	long circuitOpenTime;
+	// 断路器最长的打开时长, 单位为毫秒
+	long circuitMaxOpenTime;
+	// 是否注册 JMX
+	boolean registerMBean;
+	// 是否自适应调整连接池大小
+	boolean adaptiveSizing;
+	// 自适应调整的间隔, 单位为毫秒
+	long sizingPeriod;
+	// 平均借用等待超过该时间时扩充, 单位为毫秒
+	long sizingWaitThreshold;
+	// 估算连接数时预留的余量倍数
+	double sizingHeadroom;
+	// 扩充后吞吐量至少提升的比例, 否则认为数据库已饱和
+	double sizingMinGain;
+
+	/**
+	 * 以 SQLConfiguration 中的值为默认值创建配置
+	 */
+	public SQLPoolConfig() {
+		this.driver = SQLConfiguration.driver;
+		this.url = SQLConfiguration.url;
+		this.username = SQLConfiguration.username;
+		this.password = SQLConfiguration.password;
+		this.maxSize = SQLConfiguration.maxSize;
+		this.minSize = SQLConfiguration.minSize;
+		this.initSize = SQLConfiguration.initSize;
+		this.increment = SQLConfiguration.increment;
+		this.createConcurrency = SQLConfiguration.createConcurrency;
+		this.timeout = SQLConfiguration.timeout;
+		this.borrowTimeout = SQLConfiguration.borrowTimeout;
+		this.threadAffinity = SQLConfiguration.threadAffinity;
+		this.stripeCount = SQLConfiguration.stripeCount;
+		this.highReservedSize = SQLConfiguration.highReservedSize;
+		this.lowMaxSize = SQLConfiguration.lowMaxSize;
+		this.statementCacheSize = SQLConfiguration.statementCacheSize;
+		this.fetchSize = SQLConfiguration.fetchSize;
+		this.keepAliveSQL = SQLConfiguration.keepAliveSQL;
+		this.validationMode = SQLConfiguration.validationMode;
+		this.validationIdleTime = SQLConfiguration.validationIdleTime;
+		this.validationTimeout = SQLConfiguration.validationTimeout;
+		this.idleTestPeriod = SQLConfiguration.idleTestPeriod;
+		this.maintenanceJitter = SQLConfiguration.maintenanceJitter;
+		this.maintenanceConcurrency = SQLConfiguration.maintenanceConcurrency;
+		this.maintenanceSliceSize = SQLConfiguration.maintenanceSliceSize;
+		this.shutdownTimeout = SQLConfiguration.shutdownTimeout;
+		this.closeIdleConnection = SQLConfiguration.closeIdleConnection;
+		this.maxIdleTime = SQLConfiguration.maxIdleTime;
+		this.maxLifetime = SQLConfiguration.maxLifetime;
+		this.maxUsingTime = SQLConfiguration.maxUsingTime;
+		this.retryTimesWhileCanNotConnectServer = SQLConfiguration.retryTimesWhileCanNotConnectServer;
+		this.retryDurationDuringConnectingServer = SQLConfiguration.retryDurationDuringConnectingServer;
+		this.circuitFailureThreshold = SQLConfiguration.circuitFailureThreshold;
+		this.circuitOpenTime = SQLConfiguration.circuitOpenTime;
+		this.circuitMaxOpenTime = SQLConfiguration.circuitMaxOpenTime;
+		this.registerMBean = SQLConfiguration.registerMBean;
+		this.adaptiveSizing = SQLConfiguration.adaptiveSizing;
+		this.sizingPeriod = SQLConfiguration.sizingPeriod;
+		this.sizingWaitThreshold = SQLConfiguration.sizingWaitThreshold;
+		this.sizingHeadroom = SQLConfiguration.sizingHeadroom;
+		this.sizingMinGain = SQLConfiguration.sizingMinGain;
+	}
+
+	public SQLPoolConfig setDriver(String driver) {
+		this.driver = driver;
+		return this;
+	}
+
+	public SQLPoolConfig setUrl(String url) {
+		this.url = url;
+		return this;
+	}
+
+	public SQLPoolConfig setUsername(String username) {
+		this.username = username;
+		return this;
+	}
+
+	public SQLPoolConfig setPassword(String password) {
+		this.password = password;
+		return this;
+	}
+
+	public SQLPoolConfig setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		return this;
+	}
+
+	public SQLPoolConfig setMinSize(int minSize) {
+		this.minSize = minSize;
+		return this;
+	}
+
+	public SQLPoolConfig setInitSize(int initSize) {
+		this.initSize = initSize;
+		return this;
+	}
+
+	public SQLPoolConfig setIncrement(int increment) {
+		this.increment = increment;
+		return this;
+	}
+
+	public SQLPoolConfig setCreateConcurrency(int createConcurrency) {
+		this.createConcurrency = createConcurrency;
+		return this;
+	}
+
+	public SQLPoolConfig setTimeout(long timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+
+	public SQLPoolConfig setBorrowTimeout(long borrowTimeout) {
+		this.borrowTimeout = borrowTimeout;
+		return this;
+	}
+
+	public SQLPoolConfig setThreadAffinity(boolean threadAffinity) {
+		this.threadAffinity = threadAffinity;
+		return this;
+	}
+
+	public SQLPoolConfig setStripeCount(int stripeCount) {
+		this.stripeCount = stripeCount;
+		return this;
+	}
+
+	public SQLPoolConfig setHighReservedSize(int highReservedSize) {
+		this.highReservedSize = highReservedSize;
+		return this;
+	}
+
+	public SQLPoolConfig setLowMaxSize(int lowMaxSize) {
+		this.lowMaxSize = lowMaxSize;
+		return this;
+	}
+
+	public SQLPoolConfig setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+		return this;
+	}
+
+	public SQLPoolConfig setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+		return this;
+	}
+
+	public SQLPoolConfig setKeepAliveSQL(String keepAliveSQL) {
+		this.keepAliveSQL = keepAliveSQL;
+		return this;
+	}
+
+	public SQLPoolConfig setValidationMode(SQLValidator.Mode validationMode) {
+		this.validationMode = validationMode;
+		return this;
+	}
+
+	public SQLPoolConfig setValidationIdleTime(long validationIdleTime) {
+		this.validationIdleTime = validationIdleTime;
+		return this;
+	}
+
+	public SQLPoolConfig setValidationTimeout(int validationTimeout) {
+		this.validationTimeout = validationTimeout;
+		return this;
+	}
+
+	public SQLPoolConfig setIdleTestPeriod(long idleTestPeriod) {
+		this.idleTestPeriod = idleTestPeriod;
+		return this;
+	}
+
+	public SQLPoolConfig setMaintenanceJitter(double maintenanceJitter) {
+		this.maintenanceJitter = maintenanceJitter;
+		return this;
+	}
+
+	public SQLPoolConfig setMaintenanceConcurrency(int maintenanceConcurrency) {
+		this.maintenanceConcurrency = maintenanceConcurrency;
+		return this;
+	}
+
+	public SQLPoolConfig setMaintenanceSliceSize(int maintenanceSliceSize) {
+		this.maintenanceSliceSize = maintenanceSliceSize;
+		return this;
+	}
+
+	public SQLPoolConfig setShutdownTimeout(long shutdownTimeout) {
+		this.shutdownTimeout = shutdownTimeout;
+		return this;
+	}
+
+	public SQLPoolConfig setCloseIdleConnection(boolean closeIdleConnection) {
+		this.closeIdleConnection = closeIdleConnection;
+		return this;
+	}
+
+	public SQLPoolConfig setMaxIdleTime(long maxIdleTime) {
+		this.maxIdleTime = maxIdleTime;
+		return this;
+	}
+
+	public SQLPoolConfig setMaxLifetime(long maxLifetime) {
+		this.maxLifetime = maxLifetime;
+		return this;
+	}
+
+	public SQLPoolConfig setMaxUsingTime(long maxUsingTime) {
+		this.maxUsingTime = maxUsingTime;
+		return this;
+	}
+
+	public SQLPoolConfig setRetryTimesWhileCanNotConnectServer(int retryTimesWhileCanNotConnectServer) {
+		this.retryTimesWhileCanNotConnectServer = retryTimesWhileCanNotConnectServer;
+		return this;
+	}
+
+	public SQLPoolConfig setRetryDurationDuringConnectingServer(long retryDurationDuringConnectingServer) {
+		this.retryDurationDuringConnectingServer = retryDurationDuringConnectingServer;
+		return this;
+	}
+
+	public SQLPoolConfig setCircuitFailureThreshold(int circuitFailureThreshold) {
+		this.circuitFailureThreshold = circuitFailureThreshold;
+		return this;
+	}
+
+	public SQLPoolConfig setCircuitOpenTime(long circuitOpenTime) {
+		this.circuitOpenTime = circuitOpenTime;
+		return this;
+	}
+
+	public SQLPoolConfig setCircuitMaxOpenTime(long circuitMaxOpenTime) {
+		this.circuitMaxOpenTime = circuitMaxOpenTime;
+		return this;
+	}
+
+	public SQLPoolConfig setRegisterMBean(boolean registerMBean) {
+		this.registerMBean = registerMBean;
+		return this;
+	}
+
+	public SQLPoolConfig setAdaptiveSizing(boolean adaptiveSizing) {
+		this.adaptiveSizing = adaptiveSizing;
+		return this;
+	}
+
+	public SQLPoolConfig setSizingPeriod(long sizingPeriod) {
+		this.sizingPeriod = sizingPeriod;
+		return this;
+	}
+
+	public SQLPoolConfig setSizingWaitThreshold(long sizingWaitThreshold) {
+		this.sizingWaitThreshold = sizingWaitThreshold;
+		return this;
+	}
+
+	public SQLPoolConfig setSizingHeadroom(double sizingHeadroom) {
+		this.sizingHeadroom = sizingHeadroom;
+		return this;
+	}
+
+	public SQLPoolConfig setSizingMinGain(double sizingMinGain) {
+		this.sizingMinGain = sizingMinGain;
+		return this;
+	}
+}
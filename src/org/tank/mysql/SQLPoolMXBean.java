@@ -0,0 +1,83 @@
+package org.tank.mysql;
+
+/**
+ * 通过 JMX 暴露的连接池指标, 耗时单位均为微秒
+ */
+public interface SQLPoolMXBean {
+
+	int getTotalConnections();
+
+	int getActiveConnections();
+
+	int getIdleConnections();
+
+	int getPendingConnections();
+
+	long getBorrowCount();
+
+	long getTimeoutCount();
+
+	long getCreateCount();
+
+	long getCreateFailureCount();
+
+	long getValidationCount();
+
+	long getEvictCount();
+
+	long getBorrowWaitMeanMicros();
+
+	long getBorrowWaitP50Micros();
+
+	long getBorrowWaitP99Micros();
+
+	long getBorrowWaitMaxMicros();
+
+	long getHoldTimeMeanMicros();
+
+	long getHoldTimeP50Micros();
+
+	long getHoldTimeP99Micros();
+
+	long getHoldTimeMaxMicros();
+
+	int getTargetConnections();
+
+	int getConnectionLimit();
+
+	long getThroughput();
+
+	long getSizingGrowCount();
+
+	long getSizingShrinkCount();
+
+	long getStatementCacheHitCount();
+
+	long getStatementCacheMissCount();
+
+	long getStatementCacheEvictCount();
+
+	String getCircuitState();
+
+	long getCircuitOpenCount();
+
+	long getCircuitRejectCount();
+
+	int getHighActiveConnections();
+
+	long getHighBorrowWaitMeanMicros();
+
+	long getHighBorrowWaitP99Micros();
+
+	int getNormalActiveConnections();
+
+	long getNormalBorrowWaitMeanMicros();
+
+	long getNormalBorrowWaitP99Micros();
+
+	int getLowActiveConnections();
+
+	long getLowBorrowWaitMeanMicros();
+
+	long getLowBorrowWaitP99Micros();
+}
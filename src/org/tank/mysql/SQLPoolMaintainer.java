@@ -0,0 +1,265 @@
+package org.tank.mysql;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接池的定时维护任务, 每隔 SQLPoolConfig.idleTestPeriod (加减随机抖动) 执行一次
+ * 槽位按 SQLPoolConfig.maintenanceSliceSize 个分成若干片, 在调度线程中并行处理, 每片依次:
+ * 关闭空闲过久的连接, 重建超过最大寿命的连接, 检测其余空闲连接, 回收长期未归还的连接
+ * 每次只从连接池中取出一个连接处理, 处理完立即放回, 借用者不会看到连接池被取空
+ * 检测只执行一次, 失败的连接直接关闭并在后台补上, 不会在数据库不可用时无限重试
+ */
+public class SQLPoolMaintainer implements Runnable {
+	private final SQLPool mPool;
+	private final ScheduledExecutorService mExecutor;
+
+	// 本轮还没处理完的分片个数, 最后一片处理完时安排下一轮, 两轮之间不会重叠
+	private final AtomicInteger mPendingSlices = new AtomicInteger(0);
+
+	private final LongAdder mRunCount = new LongAdder();
+	private final LongAdder mIdleEvictCount = new LongAdder();
+	private final LongAdder mExpireCount = new LongAdder();
+	private final LongAdder mInvalidCount = new LongAdder();
+	private final LongAdder mLeakCount = new LongAdder();
+
+	SQLPoolMaintainer(SQLPool pool, ScheduledExecutorService executor) {
+		this.mPool = pool;
+		this.mExecutor = executor;
+	}
+
+	/**
+	 * 安排第一轮维护
+	 */
+	void start() {
+		scheduleNext();
+	}
+
+	private void scheduleNext() {
+		try {
+			mExecutor.schedule(this,
+			                   jitter(mPool.getConfig().idleTestPeriod, mPool.getConfig().maintenanceJitter),
+			                   TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// 连接池已关闭
+		}
+	}
+
+	@Override
+	public void run() {
+		final SQLConnection[] slots = mPool.getSlots();
+		int sliceSize = Math.max(1, mPool.getConfig().maintenanceSliceSize);
+		int sliceCount = (slots.length + sliceSize - 1) / sliceSize;
+
+		if(mPool.isClosed()) {
+			return;
+		}
+
+		mRunCount.increment();
+
+		if(0 == sliceCount) {
+			finish();
+			return;
+		}
+
+		mPendingSlices.set(sliceCount);
+
+		for(int from = 0; from < slots.length; from += sliceSize) {
+			final int start = from;
+			final int end = Math.min(slots.length, from + sliceSize);
+
+			try {
+				mExecutor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							maintain(slots, start, end);
+						} catch (RuntimeException e) {
+							// 不能让异常终止定时任务
+							if(SQLConfiguration.printStackTrace) {
+								e.printStackTrace();
+							}
+						} finally {
+							if(0 == mPendingSlices.decrementAndGet()) {
+								finish();
+							}
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// 连接池已关闭, 剩下的分片不再处理
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 一轮的所有分片处理完后, 补足 minSize 个连接并安排下一轮
+	 */
+	private void finish() {
+		if(mPool.isClosed()) {
+			return;
+		}
+
+		int lack = mPool.getConfig().minSize - mPool.getCurrentSize();
+
+		if(lack > 0) {
+			mPool.grow(lack);
+		}
+
+		scheduleNext();
+	}
+
+	/**
+	 * 处理 [start, end) 范围内的槽位
+	 */
+	private void maintain(SQLConnection[] slots, int start, int end) {
+		for(int idx = start; idx < end && ! mPool.isClosed(); ++ idx) {
+			SQLConnection sqlConnection = slots[idx];
+
+			if(sqlConnection.getState() == SQLConnection.USING) {
+				reclaimIfLeaked(sqlConnection);
+			} else if(mPool.claimConnection(sqlConnection)) {
+				maintainIdle(sqlConnection);
+			}
+		}
+	}
+
+	/**
+	 * 处理已取出的空闲连接, 处理完后放回连接池或关闭
+	 * (调用前连接需处于 RESERVED 状态)
+	 *
+	 * @param sqlConnection 已取出的空闲连接
+	 */
+	private void maintainIdle(SQLConnection sqlConnection) {
+		long now = System.currentTimeMillis();
+
+		if(mPool.getConfig().closeIdleConnection
+		   && sqlConnection.getLastUsingTime() + mPool.getConfig().maxIdleTime < now
+		   && mPool.getCurrentSize() > mPool.getConfig().minSize) {
+			mIdleEvictCount.increment();
+			mPool.retireConnection(sqlConnection);
+			return;
+		}
+
+		if(sqlConnection.getExpireTime() < now) {
+			mExpireCount.increment();
+			mPool.retireConnection(sqlConnection);
+			mPool.grow(1);
+			return;
+		}
+
+		if(mPool.getValidator().needValidateInBackground()
+		   && ! mPool.getValidator().validate(sqlConnection, SQLValidator.Mode.BACKGROUND)) {
+			mInvalidCount.increment();
+			mPool.retireConnection(sqlConnection);
+			mPool.grow(1);
+			return;
+		}
+
+		mPool.offerConnection(sqlConnection);
+	}
+
+	/**
+	 * 借出超过 SQLPoolConfig.maxUsingTime 仍未归还的连接, 强制收回并在后台补上一个
+	 * 借用者可能仍在使用它, 这里只收回借出并中止物理连接, 见 SQLPool.revokeConnection
+	 *
+	 * @param sqlConnection 借出中的连接
+	 */
+	private void reclaimIfLeaked(SQLConnection sqlConnection) {
+		long now = System.currentTimeMillis();
+		long generation = sqlConnection.getGeneration();
+
+		if(mPool.getConfig().maxUsingTime > 0
+		   && sqlConnection.getLastUsingTime() + mPool.getConfig().maxUsingTime < now
+		   && mPool.revokeConnection(sqlConnection, generation)) {
+			mLeakCount.increment();
+			mPool.grow(1);
+		}
+	}
+
+	/**
+	 * 在 period 上加减 jitter 比例的随机抖动,
+	 * 多个连接池或多个进程的维护任务不会总在同一时刻执行
+	 */
+	private static long jitter(long period, double jitter) {
+		long range = (long) (period * jitter);
+
+		if(range <= 0) {
+			return Math.max(1, period);
+		}
+
+		return Math.max(1, period - range + ThreadLocalRandom.current().nextLong(2 * range + 1));
+	}
+
+	/**
+	 * 计算新建立的物理连接的到期时间, 在 SQLPoolConfig.maxLifetime 的基础上随机提前一些
+	 *
+	 * @param config 连接所属连接池的配置
+	 * @return 到期时间, 未设置 maxLifetime 时为 Long.MAX_VALUE
+	 */
+	static long nextExpireTime(SQLPoolConfig config) {
+		long lifetime = config.maxLifetime;
+
+		if(lifetime <= 0) {
+			return Long.MAX_VALUE;
+		}
+
+		long range = (long) (lifetime * config.maintenanceJitter);
+
+		if(range > 0) {
+			lifetime -= ThreadLocalRandom.current().nextLong(range + 1);
+		}
+
+		return System.currentTimeMillis() + lifetime;
+	}
+
+	/**
+	 * 获得已执行的维护轮数
+	 *
+	 * @return 维护轮数
+	 */
+	public long getRunCount() {
+		return mRunCount.sum();
+	}
+
+	/**
+	 * 获得因空闲超过 SQLPoolConfig.maxIdleTime 而关闭的连接数
+	 *
+	 * @return 关闭的连接数
+	 */
+	public long getIdleEvictCount() {
+		return mIdleEvictCount.sum();
+	}
+
+	/**
+	 * 获得因超过 SQLPoolConfig.maxLifetime 而重建的连接数
+	 *
+	 * @return 重建的连接数
+	 */
+	public long getExpireCount() {
+		return mExpireCount.sum();
+	}
+
+	/**
+	 * 获得后台检测失败而重建的连接数
+	 *
+	 * @return 重建的连接数
+	 */
+	public long getInvalidCount() {
+		return mInvalidCount.sum();
+	}
+
+	/**
+	 * 获得借出超过 SQLPoolConfig.maxUsingTime 而被强制回收的连接数
+	 *
+	 * @return 回收的连接数
+	 */
+	public long getLeakCount() {
+		return mLeakCount.sum();
+	}
+}
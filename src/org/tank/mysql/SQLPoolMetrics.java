@@ -0,0 +1,269 @@
+package org.tank.mysql;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接池的指标, 借用等待时间和占用时间的直方图, 以及新建、检测、清理和超时的次数
+ * 热路径上只做分段累加, 读取时才求和, 可通过 JMX 或 snapshot() 获取
+ */
+public class SQLPoolMetrics implements SQLPoolMXBean {
+	private final SQLPool mPool;
+	private final SQLHistogram mBorrowWait = new SQLHistogram();
+	// 各优先级的借用等待时间
+	private final SQLHistogram[] mLaneWait = new SQLHistogram[SQLPriority.values().length];
+	private final SQLHistogram mHoldTime = new SQLHistogram();
+	private final LongAdder mTimeoutCount = new LongAdder();
+	private final LongAdder mCreateCount = new LongAdder();
+	private final LongAdder mCreateFailureCount = new LongAdder();
+	private final LongAdder mEvictCount = new LongAdder();
+	private final LongAdder mStatementHitCount = new LongAdder();
+	private final LongAdder mStatementMissCount = new LongAdder();
+	private final LongAdder mStatementEvictCount = new LongAdder();
+
+	SQLPoolMetrics(SQLPool pool) {
+		this.mPool = pool;
+
+		for(int idx = 0; idx < mLaneWait.length; ++ idx) {
+			mLaneWait[idx] = new SQLHistogram();
+		}
+	}
+
+	void recordBorrow(SQLPriority priority, long waitNanos) {
+		mBorrowWait.record(waitNanos);
+		mLaneWait[priority.ordinal()].record(waitNanos);
+	}
+
+	void recordRelease(long holdNanos) {
+		mHoldTime.record(holdNanos);
+	}
+
+	void recordTimeout() {
+		mTimeoutCount.increment();
+	}
+
+	void recordCreate(boolean success) {
+		if(success) {
+			mCreateCount.increment();
+		} else {
+			mCreateFailureCount.increment();
+		}
+	}
+
+	void recordEvict() {
+		mEvictCount.increment();
+	}
+
+	void recordStatementHit() {
+		mStatementHitCount.increment();
+	}
+
+	void recordStatementMiss() {
+		mStatementMissCount.increment();
+	}
+
+	void recordStatementEvict() {
+		mStatementEvictCount.increment();
+	}
+
+	/**
+	 * 获得当前所有指标的副本
+	 *
+	 * @return 指标的副本
+	 */
+	public SQLPoolSnapshot snapshot() {
+		return new SQLPoolSnapshot(this);
+	}
+
+	/**
+	 * 获得借用连接等待时间的直方图
+	 *
+	 * @return 借用等待时间的直方图
+	 */
+	public SQLHistogram getBorrowWaitHistogram() {
+		return mBorrowWait;
+	}
+
+	/**
+	 * 获得某个优先级借用连接等待时间的直方图
+	 *
+	 * @param priority 优先级
+	 * @return 该优先级借用等待时间的直方图
+	 */
+	public SQLHistogram getLaneWaitHistogram(SQLPriority priority) {
+		return mLaneWait[priority.ordinal()];
+	}
+
+	/**
+	 * 获得连接从借出到归还的占用时间的直方图
+	 *
+	 * @return 占用时间的直方图
+	 */
+	public SQLHistogram getHoldTimeHistogram() {
+		return mHoldTime;
+	}
+
+	@Override public int getTotalConnections() {
+		return mPool.getCurrentSize();
+	}
+
+	@Override public int getActiveConnections() {
+		return mPool.getCurrentUsingSize();
+	}
+
+	@Override public int getIdleConnections() {
+		return mPool.getCurrentFreeSize() - mPool.getPendingSize();
+	}
+
+	@Override public int getPendingConnections() {
+		return mPool.getPendingSize();
+	}
+
+	@Override public long getBorrowCount() {
+		return mBorrowWait.getCount();
+	}
+
+	@Override public long getTimeoutCount() {
+		return mTimeoutCount.sum();
+	}
+
+	@Override public long getCreateCount() {
+		return mCreateCount.sum();
+	}
+
+	@Override public long getCreateFailureCount() {
+		return mCreateFailureCount.sum();
+	}
+
+	@Override public long getValidationCount() {
+		long result = 0;
+
+		for(SQLValidator.Mode mode : SQLValidator.Mode.values()) {
+			result += mPool.getValidator().getValidationCount(mode);
+		}
+
+		return result;
+	}
+
+	@Override public long getEvictCount() {
+		return mEvictCount.sum();
+	}
+
+	@Override public long getBorrowWaitMeanMicros() {
+		return mBorrowWait.getMeanMicros();
+	}
+
+	@Override public long getBorrowWaitP50Micros() {
+		return mBorrowWait.getPercentileMicros(0.5);
+	}
+
+	@Override public long getBorrowWaitP99Micros() {
+		return mBorrowWait.getPercentileMicros(0.99);
+	}
+
+	@Override public long getBorrowWaitMaxMicros() {
+		return mBorrowWait.getMaxMicros();
+	}
+
+	@Override public long getHoldTimeMeanMicros() {
+		return mHoldTime.getMeanMicros();
+	}
+
+	@Override public long getHoldTimeP50Micros() {
+		return mHoldTime.getPercentileMicros(0.5);
+	}
+
+	@Override public long getHoldTimeP99Micros() {
+		return mHoldTime.getPercentileMicros(0.99);
+	}
+
+	@Override public long getHoldTimeMaxMicros() {
+		return mHoldTime.getMaxMicros();
+	}
+
+	@Override public int getTargetConnections() {
+		SQLPoolSizer sizer = mPool.getSizer();
+		return null == sizer ? 0 : sizer.getTargetSize();
+	}
+
+	@Override public int getConnectionLimit() {
+		return mPool.getSizeLimit();
+	}
+
+	@Override public long getThroughput() {
+		SQLPoolSizer sizer = mPool.getSizer();
+		return null == sizer ? 0 : sizer.getThroughput();
+	}
+
+	@Override public long getSizingGrowCount() {
+		SQLPoolSizer sizer = mPool.getSizer();
+		return null == sizer ? 0 : sizer.getGrowCount();
+	}
+
+	@Override public long getSizingShrinkCount() {
+		SQLPoolSizer sizer = mPool.getSizer();
+		return null == sizer ? 0 : sizer.getShrinkCount();
+	}
+
+	@Override public long getStatementCacheHitCount() {
+		return mStatementHitCount.sum();
+	}
+
+	@Override public long getStatementCacheMissCount() {
+		return mStatementMissCount.sum();
+	}
+
+	@Override public long getStatementCacheEvictCount() {
+		return mStatementEvictCount.sum();
+	}
+
+	@Override public String getCircuitState() {
+		SQLCircuitBreaker breaker = mPool.getCircuitBreaker();
+		return null == breaker ? SQLCircuitBreaker.State.CLOSED.name() : breaker.getState().name();
+	}
+
+	@Override public long getCircuitOpenCount() {
+		SQLCircuitBreaker breaker = mPool.getCircuitBreaker();
+		return null == breaker ? 0 : breaker.getOpenCount();
+	}
+
+	@Override public long getCircuitRejectCount() {
+		SQLCircuitBreaker breaker = mPool.getCircuitBreaker();
+		return null == breaker ? 0 : breaker.getRejectCount();
+	}
+
+	@Override public int getHighActiveConnections() {
+		return mPool.getLaneUsingSize(SQLPriority.HIGH);
+	}
+
+	@Override public long getHighBorrowWaitMeanMicros() {
+		return mLaneWait[SQLPriority.HIGH.ordinal()].getMeanMicros();
+	}
+
+	@Override public long getHighBorrowWaitP99Micros() {
+		return mLaneWait[SQLPriority.HIGH.ordinal()].getPercentileMicros(0.99);
+	}
+
+	@Override public int getNormalActiveConnections() {
+		return mPool.getLaneUsingSize(SQLPriority.NORMAL);
+	}
+
+	@Override public long getNormalBorrowWaitMeanMicros() {
+		return mLaneWait[SQLPriority.NORMAL.ordinal()].getMeanMicros();
+	}
+
+	@Override public long getNormalBorrowWaitP99Micros() {
+		return mLaneWait[SQLPriority.NORMAL.ordinal()].getPercentileMicros(0.99);
+	}
+
+	@Override public int getLowActiveConnections() {
+		return mPool.getLaneUsingSize(SQLPriority.LOW);
+	}
+
+	@Override public long getLowBorrowWaitMeanMicros() {
+		return mLaneWait[SQLPriority.LOW.ordinal()].getMeanMicros();
+	}
+
+	@Override public long getLowBorrowWaitP99Micros() {
+		return mLaneWait[SQLPriority.LOW.ordinal()].getPercentileMicros(0.99);
+	}
+}
@@ -0,0 +1,145 @@
+package org.tank.mysql;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接池大小的自适应控制器, 每隔 SQLPoolConfig.sizingPeriod 执行一次
+ * 按 Little 定律估算需要的连接数: 平均同时占用的连接数 = 吞吐量 * 平均占用时间,
+ * 借用等待时间超过阈值时扩充, 连接明显过剩时收缩, 两者都限制在 minSize 与 maxSize 之间
+ * 扩充后吞吐量没有相应提升时, 认为数据库已饱和, 不再继续扩充
+ */
+public class SQLPoolSizer implements Runnable {
+	private final SQLPool mPool;
+
+	private long mLastTime;
+	private long mLastBorrowCount;
+	private long mLastWaitTotal;
+	private long mLastHoldCount;
+	private long mLastHoldTotal;
+
+	// 上一次扩充前的连接数和吞吐量, 用于判断扩充是否有效, -1 表示没有待判断的扩充
+	private int mSizeBeforeGrow = - 1;
+	private double mThroughputBeforeGrow = 0;
+
+	private volatile int mTargetSize;
+	private volatile double mThroughput = 0;
+	private final LongAdder mGrowCount = new LongAdder();
+	private final LongAdder mShrinkCount = new LongAdder();
+
+	SQLPoolSizer(SQLPool pool) {
+		this.mPool = pool;
+		this.mTargetSize = mPool.getConfig().initSize;
+		this.mLastTime = System.nanoTime();
+	}
+
+	@Override
+	public void run() {
+		try {
+			adjust();
+		} catch (RuntimeException e) {
+			// 不能让异常终止定时任务
+			if(SQLConfiguration.printStackTrace) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void adjust() {
+		SQLHistogram borrowWait = mPool.getMetrics().getBorrowWaitHistogram();
+		SQLHistogram holdTime = mPool.getMetrics().getHoldTimeHistogram();
+		long now = System.nanoTime();
+		long borrowCount = borrowWait.getCount();
+		long waitTotal = borrowWait.getTotalMicros();
+		long holdCount = holdTime.getCount();
+		long holdTotal = holdTime.getTotalMicros();
+
+		double seconds = (now - mLastTime) / 1e9;
+		long borrows = borrowCount - mLastBorrowCount;
+		long holds = holdCount - mLastHoldCount;
+		double throughput = seconds > 0 ? borrows / seconds : 0;
+		double meanWait = borrows > 0 ? (double) (waitTotal - mLastWaitTotal) / borrows : 0;
+		double meanHold = holds > 0 ? (double) (holdTotal - mLastHoldTotal) / holds / 1e6 : 0;
+
+		mLastTime = now;
+		mLastBorrowCount = borrowCount;
+		mLastWaitTotal = waitTotal;
+		mLastHoldCount = holdCount;
+		mLastHoldTotal = holdTotal;
+		mThroughput = throughput;
+
+		int size = mPool.getCurrentSize();
+		int limit = mPool.getSizeLimit();
+		int target = (int) Math.ceil(throughput * meanHold * mPool.getConfig().sizingHeadroom);
+
+		target = Math.max(mPool.getConfig().minSize, Math.min(mPool.getConfig().maxSize, target));
+		mTargetSize = target;
+
+		// 判断上一次扩充是否提升了吞吐量
+		if(mSizeBeforeGrow >= 0 && size > mSizeBeforeGrow) {
+			if(throughput < mThroughputBeforeGrow * (1 + mPool.getConfig().sizingMinGain)) {
+				mPool.setSizeLimit(size);
+				log("saturated at " + size + " connections, throughput " + (long) throughput + "/s");
+			}
+
+			mSizeBeforeGrow = - 1;
+		}
+
+		if(meanWait > mPool.getConfig().sizingWaitThreshold * 1000 && size < limit) {
+			int count = Math.min(limit - size, Math.max(mPool.getConfig().increment, target - size));
+
+			mSizeBeforeGrow = size;
+			mThroughputBeforeGrow = throughput;
+			mGrowCount.increment();
+			mPool.grow(count);
+			log("grow " + size + " -> " + (size + count) + ", mean wait " + (long) meanWait + "us, "
+			    + "throughput " + (long) throughput + "/s");
+		} else if(meanWait <= mPool.getConfig().sizingWaitThreshold * 1000 && target < size) {
+			// 一次最多收缩 increment 个, 避免来回震荡
+			int count = Math.min(mPool.getConfig().increment, size - target);
+			int shrunk = mPool.shrink(count);
+
+			if(shrunk > 0) {
+				mShrinkCount.increment();
+				log("shrink " + size + " -> " + (size - shrunk) + ", target " + target + ", "
+				    + "throughput " + (long) throughput + "/s");
+			}
+
+			// 负载已经降下来, 重新允许扩充到 maxSize
+			if(limit < mPool.getConfig().maxSize && target < limit - mPool.getConfig().increment) {
+				mPool.setSizeLimit(mPool.getConfig().maxSize);
+			}
+		}
+	}
+
+	private void log(String message) {
+		if(SQLConfiguration.showLog) {
+			System.out.println("* SQLPool[" + mPool.getName() + "] " + message);
+		}
+	}
+
+	/**
+	 * 获得最近一次按 Little 定律估算出的连接数
+	 *
+	 * @return 估算的连接数
+	 */
+	public int getTargetSize() {
+		return mTargetSize;
+	}
+
+	/**
+	 * 获得最近一个周期的吞吐量
+	 *
+	 * @return 每秒借出的次数
+	 */
+	public long getThroughput() {
+		return (long) mThroughput;
+	}
+
+	public long getGrowCount() {
+		return mGrowCount.sum();
+	}
+
+	public long getShrinkCount() {
+		return mShrinkCount.sum();
+	}
+}
@@ -0,0 +1,273 @@
+package org.tank.mysql;
+
+/**
+ * 某一时刻连接池指标的副本, 耗时单位均为微秒
+ */
+public class SQLPoolSnapshot implements SQLPoolMXBean {
+
+	private final int mTotalConnections;
+	private final int mActiveConnections;
+	private final int mIdleConnections;
+	private final int mPendingConnections;
+	private final long mBorrowCount;
+	private final long mTimeoutCount;
+	private final long mCreateCount;
+	private final long mCreateFailureCount;
+	private final long mValidationCount;
+	private final long mEvictCount;
+	private final long mBorrowWaitMeanMicros;
+	private final long mBorrowWaitP50Micros;
+	private final long mBorrowWaitP99Micros;
+	private final long mBorrowWaitMaxMicros;
+	private final long mHoldTimeMeanMicros;
+	private final long mHoldTimeP50Micros;
+	private final long mHoldTimeP99Micros;
+	private final long mHoldTimeMaxMicros;
+	private final int mTargetConnections;
+	private final int mConnectionLimit;
+	private final long mThroughput;
+	private final long mSizingGrowCount;
+	private final long mSizingShrinkCount;
+	private final long mStatementCacheHitCount;
+	private final long mStatementCacheMissCount;
+	private final long mStatementCacheEvictCount;
+	private final String mCircuitState;
+	private final long mCircuitOpenCount;
+	private final long mCircuitRejectCount;
+	private final int mHighActiveConnections;
+	private final long mHighBorrowWaitMeanMicros;
+	private final long mHighBorrowWaitP99Micros;
+	private final int mNormalActiveConnections;
+	private final long mNormalBorrowWaitMeanMicros;
+	private final long mNormalBorrowWaitP99Micros;
+	private final int mLowActiveConnections;
+	private final long mLowBorrowWaitMeanMicros;
+	private final long mLowBorrowWaitP99Micros;
+
+	SQLPoolSnapshot(SQLPoolMXBean source) {
+		this.mTotalConnections = source.getTotalConnections();
+		this.mActiveConnections = source.getActiveConnections();
+		this.mIdleConnections = source.getIdleConnections();
+		this.mPendingConnections = source.getPendingConnections();
+		this.mBorrowCount = source.getBorrowCount();
+		this.mTimeoutCount = source.getTimeoutCount();
+		this.mCreateCount = source.getCreateCount();
+		this.mCreateFailureCount = source.getCreateFailureCount();
+		this.mValidationCount = source.getValidationCount();
+		this.mEvictCount = source.getEvictCount();
+		this.mBorrowWaitMeanMicros = source.getBorrowWaitMeanMicros();
+		this.mBorrowWaitP50Micros = source.getBorrowWaitP50Micros();
+		this.mBorrowWaitP99Micros = source.getBorrowWaitP99Micros();
+		this.mBorrowWaitMaxMicros = source.getBorrowWaitMaxMicros();
+		this.mHoldTimeMeanMicros = source.getHoldTimeMeanMicros();
+		this.mHoldTimeP50Micros = source.getHoldTimeP50Micros();
+		this.mHoldTimeP99Micros = source.getHoldTimeP99Micros();
+		this.mHoldTimeMaxMicros = source.getHoldTimeMaxMicros();
+		this.mTargetConnections = source.getTargetConnections();
+		this.mConnectionLimit = source.getConnectionLimit();
+		this.mThroughput = source.getThroughput();
+		this.mSizingGrowCount = source.getSizingGrowCount();
+		this.mSizingShrinkCount = source.getSizingShrinkCount();
+		this.mStatementCacheHitCount = source.getStatementCacheHitCount();
+		this.mStatementCacheMissCount = source.getStatementCacheMissCount();
+		this.mStatementCacheEvictCount = source.getStatementCacheEvictCount();
+		this.mCircuitState = source.getCircuitState();
+		this.mCircuitOpenCount = source.getCircuitOpenCount();
+		this.mCircuitRejectCount = source.getCircuitRejectCount();
+		this.mHighActiveConnections = source.getHighActiveConnections();
+		this.mHighBorrowWaitMeanMicros = source.getHighBorrowWaitMeanMicros();
+		this.mHighBorrowWaitP99Micros = source.getHighBorrowWaitP99Micros();
+		this.mNormalActiveConnections = source.getNormalActiveConnections();
+		this.mNormalBorrowWaitMeanMicros = source.getNormalBorrowWaitMeanMicros();
+		this.mNormalBorrowWaitP99Micros = source.getNormalBorrowWaitP99Micros();
+		this.mLowActiveConnections = source.getLowActiveConnections();
+		this.mLowBorrowWaitMeanMicros = source.getLowBorrowWaitMeanMicros();
+		this.mLowBorrowWaitP99Micros = source.getLowBorrowWaitP99Micros();
+	}
+
+	@Override public int getTotalConnections() {
+		return mTotalConnections;
+	}
+
+	@Override public int getActiveConnections() {
+		return mActiveConnections;
+	}
+
+	@Override public int getIdleConnections() {
+		return mIdleConnections;
+	}
+
+	@Override public int getPendingConnections() {
+		return mPendingConnections;
+	}
+
+	@Override public long getBorrowCount() {
+		return mBorrowCount;
+	}
+
+	@Override public long getTimeoutCount() {
+		return mTimeoutCount;
+	}
+
+	@Override public long getCreateCount() {
+		return mCreateCount;
+	}
+
+	@Override public long getCreateFailureCount() {
+		return mCreateFailureCount;
+	}
+
+	@Override public long getValidationCount() {
+		return mValidationCount;
+	}
+
+	@Override public long getEvictCount() {
+		return mEvictCount;
+	}
+
+	@Override public long getBorrowWaitMeanMicros() {
+		return mBorrowWaitMeanMicros;
+	}
+
+	@Override public long getBorrowWaitP50Micros() {
+		return mBorrowWaitP50Micros;
+	}
+
+	@Override public long getBorrowWaitP99Micros() {
+		return mBorrowWaitP99Micros;
+	}
+
+	@Override public long getBorrowWaitMaxMicros() {
+		return mBorrowWaitMaxMicros;
+	}
+
+	@Override public long getHoldTimeMeanMicros() {
+		return mHoldTimeMeanMicros;
+	}
+
+	@Override public long getHoldTimeP50Micros() {
+		return mHoldTimeP50Micros;
+	}
+
+	@Override public long getHoldTimeP99Micros() {
+		return mHoldTimeP99Micros;
+	}
+
+	@Override public long getHoldTimeMaxMicros() {
+		return mHoldTimeMaxMicros;
+	}
+
+	@Override public int getTargetConnections() {
+		return mTargetConnections;
+	}
+
+	@Override public int getConnectionLimit() {
+		return mConnectionLimit;
+	}
+
+	@Override public long getThroughput() {
+		return mThroughput;
+	}
+
+	@Override public long getSizingGrowCount() {
+		return mSizingGrowCount;
+	}
+
+	@Override public long getSizingShrinkCount() {
+		return mSizingShrinkCount;
+	}
+
+	@Override public long getStatementCacheHitCount() {
+		return mStatementCacheHitCount;
+	}
+
+	@Override public long getStatementCacheMissCount() {
+		return mStatementCacheMissCount;
+	}
+
+	@Override public long getStatementCacheEvictCount() {
+		return mStatementCacheEvictCount;
+	}
+
+	@Override public String getCircuitState() {
+		return mCircuitState;
+	}
+
+	@Override public long getCircuitOpenCount() {
+		return mCircuitOpenCount;
+	}
+
+	@Override public long getCircuitRejectCount() {
+		return mCircuitRejectCount;
+	}
+
+	@Override public int getHighActiveConnections() {
+		return mHighActiveConnections;
+	}
+
+	@Override public long getHighBorrowWaitMeanMicros() {
+		return mHighBorrowWaitMeanMicros;
+	}
+
+	@Override public long getHighBorrowWaitP99Micros() {
+		return mHighBorrowWaitP99Micros;
+	}
+
+	@Override public int getNormalActiveConnections() {
+		return mNormalActiveConnections;
+	}
+
+	@Override public long getNormalBorrowWaitMeanMicros() {
+		return mNormalBorrowWaitMeanMicros;
+	}
+
+	@Override public long getNormalBorrowWaitP99Micros() {
+		return mNormalBorrowWaitP99Micros;
+	}
+
+	@Override public int getLowActiveConnections() {
+		return mLowActiveConnections;
+	}
+
+	@Override public long getLowBorrowWaitMeanMicros() {
+		return mLowBorrowWaitMeanMicros;
+	}
+
+	@Override public long getLowBorrowWaitP99Micros() {
+		return mLowBorrowWaitP99Micros;
+	}
+
+	@Override public String toString() {
+		return "SQLPool{total=" + mTotalConnections
+		       + ", active=" + mActiveConnections
+		       + ", idle=" + mIdleConnections
+		       + ", pending=" + mPendingConnections
+		       + ", borrows=" + mBorrowCount
+		       + ", timeouts=" + mTimeoutCount
+		       + ", creates=" + mCreateCount
+		       + ", createFailures=" + mCreateFailureCount
+		       + ", validations=" + mValidationCount
+		       + ", evicts=" + mEvictCount
+		       + ", borrowWait(us) mean/p50/p99/max=" + mBorrowWaitMeanMicros
+		       + "/" + mBorrowWaitP50Micros + "/" + mBorrowWaitP99Micros + "/" + mBorrowWaitMaxMicros
+		       + ", holdTime(us) mean/p50/p99/max=" + mHoldTimeMeanMicros
+		       + "/" + mHoldTimeP50Micros + "/" + mHoldTimeP99Micros + "/" + mHoldTimeMaxMicros
+		       + ", target=" + mTargetConnections
+		       + ", limit=" + mConnectionLimit
+		       + ", throughput=" + mThroughput
+		       + ", grows=" + mSizingGrowCount
+		       + ", shrinks=" + mSizingShrinkCount
+		       + ", statementCache hit/miss/evict=" + mStatementCacheHitCount
+		       + "/" + mStatementCacheMissCount + "/" + mStatementCacheEvictCount
+		       + ", circuit=" + mCircuitState
+		       + ", circuitOpens=" + mCircuitOpenCount
+		       + ", circuitRejects=" + mCircuitRejectCount
+		       + ", lanes active/waitMean/waitP99(us) high=" + mHighActiveConnections
+		       + "/" + mHighBorrowWaitMeanMicros + "/" + mHighBorrowWaitP99Micros
+		       + " normal=" + mNormalActiveConnections
+		       + "/" + mNormalBorrowWaitMeanMicros + "/" + mNormalBorrowWaitP99Micros
+		       + " low=" + mLowActiveConnections
+		       + "/" + mLowBorrowWaitMeanMicros + "/" + mLowBorrowWaitP99Micros
+		       + "}";
+	}
+}
@@ -0,0 +1,27 @@
+package org.tank.mysql;
+
+import java.sql.SQLTimeoutException;
+
+/**
+ * 在 SQLPoolConfig.borrowTimeout 内没能从连接池中获得连接时抛出
+ */
+public class SQLPoolTimeoutException extends SQLTimeoutException {
+
+	private static final long serialVersionUID = 4286125032297413551L;
+
+	private final long mWaitTime;
+
+	public SQLPoolTimeoutException(long waitTime) {
+		super("Timed out after " + waitTime + "ms waiting for a connection from SQLPool");
+		this.mWaitTime = waitTime;
+	}
+
+	/**
+	 * 获得放弃前等待的时间
+	 *
+	 * @return 等待的毫秒数
+	 */
+	public long getWaitTime() {
+		return mWaitTime;
+	}
+}
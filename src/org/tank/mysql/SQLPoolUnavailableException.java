@@ -0,0 +1,15 @@
+package org.tank.mysql;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * 连接池的断路器处于打开状态, 或无法与数据库建立连接时抛出, 借用者不会在数据库故障期间阻塞
+ */
+public class SQLPoolUnavailableException extends SQLTransientConnectionException {
+
+	private static final long serialVersionUID = - 3472391566804127035L;
+
+	public SQLPoolUnavailableException(String reason) {
+		super(reason);
+	}
+}
@@ -0,0 +1,566 @@
+package org.tank.mysql;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.*;
+import java.util.Calendar;
+
+/**
+ * 可以被缓存的预编译语句, 调用 close() 时放回所属 SQLConnection 的缓存, 而不是真正关闭
+ */
+public class SQLPreparedStatement implements PreparedStatement {
+
+	private final PreparedStatement mStatement;
+	private final SQLConnection mConnection;
+	// 创建该语句的物理连接, 物理连接被替换后该语句不能再放回缓存
+	private final Connection mPhysicalConnection;
+	private final String mKey;
+	// 本次取出该语句时连接借出的 SQLLease, getConnection() 返回它
+	private SQLLease mLease = null;
+	// 本次取出该语句时连接的代数, 连接归还后再关闭语句时不能放回下一个借用者的缓存
+	private long mGeneration = 0;
+	private boolean mClosed = false;
+
+	// 使用者改过的语句属性在放回缓存前恢复为第一次修改前的值, 没改过的不必访问驱动
+	private boolean mMaxRowsChanged = false;
+	private int mDefaultMaxRows;
+	private boolean mQueryTimeoutChanged = false;
+	private int mDefaultQueryTimeout;
+	private boolean mMaxFieldSizeChanged = false;
+	private int mDefaultMaxFieldSize;
+	private boolean mFetchDirectionChanged = false;
+	private int mDefaultFetchDirection;
+
+	SQLPreparedStatement(SQLConnection connection,
+	                     Connection physicalConnection,
+	                     PreparedStatement statement,
+	                     String key) {
+		this.mConnection = connection;
+		this.mPhysicalConnection = physicalConnection;
+		this.mStatement = statement;
+		this.mKey = key;
+	}
+
+	String getKey() {
+		return mKey;
+	}
+
+	Connection getPhysicalConnection() {
+		return mPhysicalConnection;
+	}
+
+	long getGeneration() {
+		return mGeneration;
+	}
+
+	/**
+	 * 新建或从缓存中取出时重新打开
+	 *
+	 * @param lease      连接本次借出的 SQLLease, 内部借用时为 null
+	 * @param generation 连接本次借出的代数
+	 */
+	void reopen(SQLLease lease, long generation) {
+		mClosed = false;
+		mLease = lease;
+		mGeneration = generation;
+	}
+
+	/**
+	 * 放回缓存前清理上一次使用留下的状态
+	 *
+	 * @throws SQLException 数据库异常
+	 */
+	void reset() throws SQLException {
+		ResultSet resultSet = mStatement.getResultSet();
+
+		if(null != resultSet) {
+			resultSet.close();
+		}
+
+		// 流式查询改过的取行数恢复默认, 下次普通查询不会变成流式读取
+		if(0 != mStatement.getFetchSize()) {
+			mStatement.setFetchSize(0);
+		}
+
+		// 上一个使用者设置的行数上限、超时等不能带给下一个使用者
+		if(mMaxRowsChanged) {
+			mStatement.setMaxRows(mDefaultMaxRows);
+			mMaxRowsChanged = false;
+		}
+
+		if(mQueryTimeoutChanged) {
+			mStatement.setQueryTimeout(mDefaultQueryTimeout);
+			mQueryTimeoutChanged = false;
+		}
+
+		if(mMaxFieldSizeChanged) {
+			mStatement.setMaxFieldSize(mDefaultMaxFieldSize);
+			mMaxFieldSizeChanged = false;
+		}
+
+		if(mFetchDirectionChanged) {
+			mStatement.setFetchDirection(mDefaultFetchDirection);
+			mFetchDirectionChanged = false;
+		}
+
+		mStatement.clearParameters();
+		mStatement.clearBatch();
+		mStatement.clearWarnings();
+	}
+
+	/**
+	 * 关闭真实的语句
+	 *
+	 * @throws SQLException 数据库异常
+	 */
+	void closeRealStatement() throws SQLException {
+		mClosed = true;
+		mStatement.close();
+	}
+
+	@Override public String toString() {
+		return mStatement.toString();
+	}
+
+	@Override public void addBatch() throws SQLException {
+		mStatement.addBatch();
+	}
+
+	@Override public void clearParameters() throws SQLException {
+		mStatement.clearParameters();
+	}
+
+	@Override public boolean execute() throws SQLException {
+		return mStatement.execute();
+	}
+
+	@Override public ResultSet executeQuery() throws SQLException {
+		return mStatement.executeQuery();
+	}
+
+	@Override public int executeUpdate() throws SQLException {
+		return mStatement.executeUpdate();
+	}
+
+	@Override public ResultSetMetaData getMetaData() throws SQLException {
+		return mStatement.getMetaData();
+	}
+
+	@Override public ParameterMetaData getParameterMetaData() throws SQLException {
+		return mStatement.getParameterMetaData();
+	}
+
+	@Override public void setArray(int parameterIndex, Array x) throws SQLException {
+		mStatement.setArray(parameterIndex, x);
+	}
+
+	@Override public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+		mStatement.setAsciiStream(parameterIndex, x);
+	}
+
+	@Override public void setAsciiStream(int parameterIndex, InputStream x, int length)
+			throws SQLException {
+		mStatement.setAsciiStream(parameterIndex, x, length);
+	}
+
+	@Override public void setAsciiStream(int parameterIndex, InputStream x, long length)
+			throws SQLException {
+		mStatement.setAsciiStream(parameterIndex, x, length);
+	}
+
+	@Override public void setBigDecimal(int parameterIndex, BigDecimal x)
+			throws SQLException {
+		mStatement.setBigDecimal(parameterIndex, x);
+	}
+
+	@Override public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+		mStatement.setBinaryStream(parameterIndex, x);
+	}
+
+	@Override public void setBinaryStream(int parameterIndex, InputStream x, int length)
+			throws SQLException {
+		mStatement.setBinaryStream(parameterIndex, x, length);
+	}
+
+	@Override public void setBinaryStream(int parameterIndex, InputStream x, long length)
+			throws SQLException {
+		mStatement.setBinaryStream(parameterIndex, x, length);
+	}
+
+	@Override public void setBlob(int parameterIndex, InputStream x) throws SQLException {
+		mStatement.setBlob(parameterIndex, x);
+	}
+
+	@Override public void setBlob(int parameterIndex, Blob x) throws SQLException {
+		mStatement.setBlob(parameterIndex, x);
+	}
+
+	@Override public void setBlob(int parameterIndex, InputStream x, long length)
+			throws SQLException {
+		mStatement.setBlob(parameterIndex, x, length);
+	}
+
+	@Override public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+		mStatement.setBoolean(parameterIndex, x);
+	}
+
+	@Override public void setByte(int parameterIndex, byte x) throws SQLException {
+		mStatement.setByte(parameterIndex, x);
+	}
+
+	@Override public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+		mStatement.setBytes(parameterIndex, x);
+	}
+
+	@Override public void setCharacterStream(int parameterIndex, Reader x) throws SQLException {
+		mStatement.setCharacterStream(parameterIndex, x);
+	}
+
+	@Override public void setCharacterStream(int parameterIndex, Reader x, int length)
+			throws SQLException {
+		mStatement.setCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override public void setCharacterStream(int parameterIndex, Reader x, long length)
+			throws SQLException {
+		mStatement.setCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override public void setClob(int parameterIndex, Reader x) throws SQLException {
+		mStatement.setClob(parameterIndex, x);
+	}
+
+	@Override public void setClob(int parameterIndex, Clob x) throws SQLException {
+		mStatement.setClob(parameterIndex, x);
+	}
+
+	@Override public void setClob(int parameterIndex, Reader x, long length) throws SQLException {
+		mStatement.setClob(parameterIndex, x, length);
+	}
+
+	@Override public void setDate(int parameterIndex, Date x) throws SQLException {
+		mStatement.setDate(parameterIndex, x);
+	}
+
+	@Override public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+		mStatement.setDate(parameterIndex, x, cal);
+	}
+
+	@Override public void setDouble(int parameterIndex, double x) throws SQLException {
+		mStatement.setDouble(parameterIndex, x);
+	}
+
+	@Override public void setFloat(int parameterIndex, float x) throws SQLException {
+		mStatement.setFloat(parameterIndex, x);
+	}
+
+	@Override public void setInt(int parameterIndex, int x) throws SQLException {
+		mStatement.setInt(parameterIndex, x);
+	}
+
+	@Override public void setLong(int parameterIndex, long x) throws SQLException {
+		mStatement.setLong(parameterIndex, x);
+	}
+
+	@Override public void setNCharacterStream(int parameterIndex, Reader x) throws SQLException {
+		mStatement.setNCharacterStream(parameterIndex, x);
+	}
+
+	@Override public void setNCharacterStream(int parameterIndex, Reader x, long length)
+			throws SQLException {
+		mStatement.setNCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override public void setNClob(int parameterIndex, Reader x) throws SQLException {
+		mStatement.setNClob(parameterIndex, x);
+	}
+
+	@Override public void setNClob(int parameterIndex, NClob x) throws SQLException {
+		mStatement.setNClob(parameterIndex, x);
+	}
+
+	@Override public void setNClob(int parameterIndex, Reader x, long length) throws SQLException {
+		mStatement.setNClob(parameterIndex, x, length);
+	}
+
+	@Override public void setNString(int parameterIndex, String x) throws SQLException {
+		mStatement.setNString(parameterIndex, x);
+	}
+
+	@Override public void setNull(int parameterIndex, int sqlType) throws SQLException {
+		mStatement.setNull(parameterIndex, sqlType);
+	}
+
+	@Override public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+		mStatement.setNull(parameterIndex, sqlType, typeName);
+	}
+
+	@Override public void setObject(int parameterIndex, Object x) throws SQLException {
+		mStatement.setObject(parameterIndex, x);
+	}
+
+	@Override public void setObject(int parameterIndex, Object x, int targetSqlType)
+			throws SQLException {
+		mStatement.setObject(parameterIndex, x, targetSqlType);
+	}
+
+	@Override public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength)
+			throws SQLException {
+		mStatement.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+	}
+
+	@Override public void setRef(int parameterIndex, Ref x) throws SQLException {
+		mStatement.setRef(parameterIndex, x);
+	}
+
+	@Override public void setRowId(int parameterIndex, RowId x) throws SQLException {
+		mStatement.setRowId(parameterIndex, x);
+	}
+
+	@Override public void setSQLXML(int parameterIndex, SQLXML x) throws SQLException {
+		mStatement.setSQLXML(parameterIndex, x);
+	}
+
+	@Override public void setShort(int parameterIndex, short x) throws SQLException {
+		mStatement.setShort(parameterIndex, x);
+	}
+
+	@Override public void setString(int parameterIndex, String x) throws SQLException {
+		mStatement.setString(parameterIndex, x);
+	}
+
+	@Override public void setTime(int parameterIndex, Time x) throws SQLException {
+		mStatement.setTime(parameterIndex, x);
+	}
+
+	@Override public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+		mStatement.setTime(parameterIndex, x, cal);
+	}
+
+	@Override public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+		mStatement.setTimestamp(parameterIndex, x);
+	}
+
+	@Override public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal)
+			throws SQLException {
+		mStatement.setTimestamp(parameterIndex, x, cal);
+	}
+
+	@Override public void setURL(int parameterIndex, URL x) throws SQLException {
+		mStatement.setURL(parameterIndex, x);
+	}
+
+	@Deprecated
+	@Override public void setUnicodeStream(int parameterIndex, InputStream x, int length)
+			throws SQLException {
+		mStatement.setUnicodeStream(parameterIndex, x, length);
+	}
+
+	@Override public void addBatch(String sql) throws SQLException {
+		mStatement.addBatch(sql);
+	}
+
+	@Override public void cancel() throws SQLException {
+		mStatement.cancel();
+	}
+
+	@Override public void clearBatch() throws SQLException {
+		mStatement.clearBatch();
+	}
+
+	@Override public void clearWarnings() throws SQLException {
+		mStatement.clearWarnings();
+	}
+
+	/**
+	 * 不关闭真实的语句, 而是放回所属连接的缓存中
+	 *
+	 * @throws SQLException 数据库异常
+	 */
+	@Override public void close() throws SQLException {
+		if(mClosed) {
+			return;
+		}
+
+		mClosed = true;
+		mConnection.returnStatement(this);
+	}
+
+	@Override public void closeOnCompletion() throws SQLException {
+		mStatement.closeOnCompletion();
+	}
+
+	@Override public boolean execute(String sql) throws SQLException {
+		return mStatement.execute(sql);
+	}
+
+	@Override public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		return mStatement.execute(sql, columnIndexes);
+	}
+
+	@Override public boolean execute(String sql, String[] columnNames) throws SQLException {
+		return mStatement.execute(sql, columnNames);
+	}
+
+	@Override public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+		return mStatement.execute(sql, autoGeneratedKeys);
+	}
+
+	@Override public int[] executeBatch() throws SQLException {
+		return mStatement.executeBatch();
+	}
+
+	@Override public ResultSet executeQuery(String sql) throws SQLException {
+		return mStatement.executeQuery(sql);
+	}
+
+	@Override public int executeUpdate(String sql) throws SQLException {
+		return mStatement.executeUpdate(sql);
+	}
+
+	@Override public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		return mStatement.executeUpdate(sql, columnIndexes);
+	}
+
+	@Override public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+		return mStatement.executeUpdate(sql, columnNames);
+	}
+
+	@Override public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		return mStatement.executeUpdate(sql, autoGeneratedKeys);
+	}
+
+	@Override public Connection getConnection() throws SQLException {
+		return null == mLease ? mConnection : mLease;
+	}
+
+	@Override public int getFetchDirection() throws SQLException {
+		return mStatement.getFetchDirection();
+	}
+
+	@Override public int getFetchSize() throws SQLException {
+		return mStatement.getFetchSize();
+	}
+
+	@Override public ResultSet getGeneratedKeys() throws SQLException {
+		return mStatement.getGeneratedKeys();
+	}
+
+	@Override public int getMaxFieldSize() throws SQLException {
+		return mStatement.getMaxFieldSize();
+	}
+
+	@Override public int getMaxRows() throws SQLException {
+		return mStatement.getMaxRows();
+	}
+
+	@Override public boolean getMoreResults() throws SQLException {
+		return mStatement.getMoreResults();
+	}
+
+	@Override public boolean getMoreResults(int current) throws SQLException {
+		return mStatement.getMoreResults(current);
+	}
+
+	@Override public int getQueryTimeout() throws SQLException {
+		return mStatement.getQueryTimeout();
+	}
+
+	@Override public ResultSet getResultSet() throws SQLException {
+		return mStatement.getResultSet();
+	}
+
+	@Override public int getResultSetConcurrency() throws SQLException {
+		return mStatement.getResultSetConcurrency();
+	}
+
+	@Override public int getResultSetHoldability() throws SQLException {
+		return mStatement.getResultSetHoldability();
+	}
+
+	@Override public int getResultSetType() throws SQLException {
+		return mStatement.getResultSetType();
+	}
+
+	@Override public int getUpdateCount() throws SQLException {
+		return mStatement.getUpdateCount();
+	}
+
+	@Override public SQLWarning getWarnings() throws SQLException {
+		return mStatement.getWarnings();
+	}
+
+	@Override public boolean isCloseOnCompletion() throws SQLException {
+		return mStatement.isCloseOnCompletion();
+	}
+
+	@Override public boolean isClosed() throws SQLException {
+		return mClosed || mStatement.isClosed();
+	}
+
+	@Override public boolean isPoolable() throws SQLException {
+		return mStatement.isPoolable();
+	}
+
+	@Override public void setCursorName(String cursorName) throws SQLException {
+		mStatement.setCursorName(cursorName);
+	}
+
+	@Override public void setEscapeProcessing(boolean escapeProcessing) throws SQLException {
+		mStatement.setEscapeProcessing(escapeProcessing);
+	}
+
+	@Override public void setFetchDirection(int fetchDirection) throws SQLException {
+		if(! mFetchDirectionChanged) {
+			mDefaultFetchDirection = mStatement.getFetchDirection();
+			mFetchDirectionChanged = true;
+		}
+
+		mStatement.setFetchDirection(fetchDirection);
+	}
+
+	@Override public void setFetchSize(int fetchSize) throws SQLException {
+		mStatement.setFetchSize(fetchSize);
+	}
+
+	@Override public void setMaxFieldSize(int maxFieldSize) throws SQLException {
+		if(! mMaxFieldSizeChanged) {
+			mDefaultMaxFieldSize = mStatement.getMaxFieldSize();
+			mMaxFieldSizeChanged = true;
+		}
+
+		mStatement.setMaxFieldSize(maxFieldSize);
+	}
+
+	@Override public void setMaxRows(int maxRows) throws SQLException {
+		if(! mMaxRowsChanged) {
+			mDefaultMaxRows = mStatement.getMaxRows();
+			mMaxRowsChanged = true;
+		}
+
+		mStatement.setMaxRows(maxRows);
+	}
+
+	@Override public void setPoolable(boolean poolable) throws SQLException {
+		mStatement.setPoolable(poolable);
+	}
+
+	@Override public void setQueryTimeout(int queryTimeout) throws SQLException {
+		if(! mQueryTimeoutChanged) {
+			mDefaultQueryTimeout = mStatement.getQueryTimeout();
+			mQueryTimeoutChanged = true;
+		}
+
+		mStatement.setQueryTimeout(queryTimeout);
+	}
+
+	@Override public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return mStatement.isWrapperFor(iface);
+	}
+
+	@Override public <T> T unwrap(Class<T> iface) throws SQLException {
+		return mStatement.unwrap(iface);
+	}
+}
@@ -0,0 +1,15 @@
+package org.tank.mysql;
+
+/**
+ * 借用连接的优先级, 每个优先级有自己的等待队列, 连接释放时先交给优先级高的等待者
+ * SQLPoolConfig.highReservedSize 个连接只留给 HIGH,
+ * LOW 同时使用的连接数不超过 SQLPoolConfig.lowMaxSize
+ */
+public enum SQLPriority {
+	// 对延迟敏感的操作, 如在线查询
+	HIGH,
+	// 默认的优先级
+	NORMAL,
+	// 批量操作, 如大批量插入
+	LOW
+}
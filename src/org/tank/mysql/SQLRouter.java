@@ -0,0 +1,207 @@
+package org.tank.mysql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 读写分离的路由, 查询发往从库, 更新、插入和删除发往主库
+ * 线程写过主库后 stickyTime 毫秒内的查询仍发往主库, 避免读不到刚写入的数据
+ * 所有从库的断路器都打开或连接池已关闭时, 查询改发主库
+ * 通过 SQLCommand.on(router) 或这里的命令工厂方法使用
+ */
+public class SQLRouter {
+
+	public enum Strategy {
+		// 依次轮流使用各个从库
+		ROUND_ROBIN,
+		// 使用正在使用和等待的连接数最少的从库
+		LEAST_OUTSTANDING
+	}
+
+	private final SQLDataSource mPrimary;
+	private final List<SQLDataSource> mReplicas;
+	private Strategy mStrategy = Strategy.ROUND_ROBIN;
+	private long mStickyTime = 0;
+	private final AtomicInteger mNext = new AtomicInteger(0);
+	// 每个线程最近一次写主库的时间
+	private final ThreadLocal<Long> mLastWriteTime = new ThreadLocal<Long>();
+
+	/**
+	 * @param primary  主库
+	 * @param replicas 从库, 可以为空, 此时所有操作都发往主库
+	 */
+	public SQLRouter(SQLDataSource primary, List<SQLDataSource> replicas) {
+		this.mPrimary = primary;
+		this.mReplicas = Collections.unmodifiableList(new ArrayList<SQLDataSource>(replicas));
+	}
+
+	public SQLRouter(SQLDataSource primary, SQLDataSource... replicas) {
+		this(primary, Arrays.asList(replicas));
+	}
+
+	/**
+	 * 设置选择从库的策略, 默认为 Strategy.ROUND_ROBIN
+	 *
+	 * @param strategy 选择从库的策略
+	 * @return this
+	 */
+	public SQLRouter setStrategy(Strategy strategy) {
+		this.mStrategy = strategy;
+		return this;
+	}
+
+	/**
+	 * 设置写主库后多长时间内查询仍发往主库, 默认为 0, 即不粘滞
+	 *
+	 * @param stickyTime 粘滞时间, 单位为毫秒
+	 * @return this
+	 */
+	public SQLRouter setStickyTime(long stickyTime) {
+		this.mStickyTime = stickyTime;
+		return this;
+	}
+
+	public SQLDataSource getPrimary() {
+		return mPrimary;
+	}
+
+	public List<SQLDataSource> getReplicas() {
+		return mReplicas;
+	}
+
+	/**
+	 * 选择执行操作的数据源
+	 *
+	 * @param write 是否为写操作
+	 * @return 写操作返回主库, 读操作返回选中的从库, 没有可用的从库或处于粘滞期时返回主库
+	 */
+	public SQLDataSource route(boolean write) {
+		if(write) {
+			if(mStickyTime > 0) {
+				mLastWriteTime.set(System.currentTimeMillis());
+			}
+
+			return mPrimary;
+		}
+
+		if(mStickyTime > 0) {
+			Long lastWriteTime = mLastWriteTime.get();
+
+			if(lastWriteTime != null) {
+				if(System.currentTimeMillis() - lastWriteTime < mStickyTime) {
+					return mPrimary;
+				}
+
+				mLastWriteTime.remove();
+			}
+		}
+
+		SQLDataSource replica = Strategy.LEAST_OUTSTANDING == mStrategy ? leastOutstanding() : roundRobin();
+
+		return null == replica ? mPrimary : replica;
+	}
+
+	/**
+	 * 从下一个开始依次找到可用的从库
+	 */
+	private SQLDataSource roundRobin() {
+		int size = mReplicas.size();
+		int start = mNext.getAndIncrement() & Integer.MAX_VALUE;
+
+		for(int idx = 0; idx < size; ++ idx) {
+			SQLDataSource replica = mReplicas.get((start + idx) % size);
+
+			if(isAvailable(replica)) {
+				return replica;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * 找到正在使用和等待的连接数最少的可用从库
+	 */
+	private SQLDataSource leastOutstanding() {
+		SQLDataSource result = null;
+		int min = Integer.MAX_VALUE;
+
+		for(SQLDataSource replica : mReplicas) {
+			if(! isAvailable(replica)) {
+				continue;
+			}
+
+			SQLPool pool = replica.getPool();
+			int outstanding = pool.getCurrentUsingSize() + pool.getWaitingSize();
+
+			if(outstanding < min) {
+				min = outstanding;
+				result = replica;
+			}
+		}
+
+		return result;
+	}
+
+	private static boolean isAvailable(SQLDataSource dataSource) {
+		SQLPool pool = dataSource.getPool();
+		SQLCircuitBreaker breaker = pool.getCircuitBreaker();
+
+		return ! pool.isClosed()
+		       && (null == breaker || SQLCircuitBreaker.State.CLOSED == breaker.getState());
+	}
+
+	/**
+	 * 创建经过该路由执行的更新命令
+	 *
+	 * @param <T> 查询语句返回类型
+	 * @return 更新命令
+	 */
+	public <T> SQLCommand<T> update() {
+		return new SQLCommand<T>().on(this).update();
+	}
+
+	/**
+	 * 创建经过该路由执行的插入命令
+	 *
+	 * @param <T> 查询语句返回类型
+	 * @return 插入命令
+	 */
+	public <T> SQLCommand<T> insert() {
+		return new SQLCommand<T>().on(this);
+	}
+
+	/**
+	 * 创建经过该路由执行的查询命令
+	 *
+	 * @param <T> 查询语句返回类型
+	 * @return 查询命令
+	 */
+	public <T> SQLCommand<T> query() {
+		return new SQLCommand<T>().on(this).query();
+	}
+
+	/**
+	 * 创建经过该路由执行的删除命令
+	 *
+	 * @param <T> 查询语句返回类型
+	 * @return 删除命令
+	 */
+	public <T> SQLCommand<T> delete() {
+		return new SQLCommand<T>().on(this).delete();
+	}
+
+	/**
+	 * 关闭主库和所有从库
+	 */
+	public void close() {
+		mPrimary.close();
+
+		for(SQLDataSource replica : mReplicas) {
+			replica.close();
+		}
+	}
+}
@@ -0,0 +1,235 @@
+package org.tank.mysql;
+
+import java.lang.reflect.Constructor;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * 把结果集的行直接转化成实体, 每次查询只根据字段名解析一次,
+ * 得到 "第几列 -> 哪个变量" 的映射, 之后每行按列的下标读取并直接赋值, 不再经过 HashMap
+ * 变量为基本类型时使用 getInt、getLong 等读取, 不会装箱; 值为 NULL 时保留变量的默认值
+ * 其他变量按 (字段的 JDBC 类型, 变量类型) 从 SQLTypeConverters 取得转换, 每次查询只取一次
+ * 变量从 SQLEntityAccessor 的访问表中按名称查找, 规则与 Reflect.set 相同, 通过其中的 MethodHandle 赋值,
+ * 基本类型的变量使用 setInt 等不装箱的 setter
+ * 实体有 SQLMappingProcessor 生成的 SQLEntityMapping 时, 改由生成的代码创建实体和读取每一列, 不使用反射,
+ * 转换同样每次查询按 JDBC 类型只取一次
+ */
+class SQLRowMapper<T> {
+	private static final int OBJECT = 0;
+	private static final int BOOLEAN = 1;
+	private static final int BYTE = 2;
+	private static final int SHORT = 3;
+	private static final int INT = 4;
+	private static final int LONG = 5;
+	private static final int FLOAT = 6;
+	private static final int DOUBLE = 7;
+
+	private final Constructor<T> mConstructor;
+	private final SQLEntityAccessor.Property[] mProperties;
+	private final int[] mKinds;
+	// 类型为 OBJECT 的变量使用的转换, 有生成的映射时为每一列传给映射的转换
+	private final SQLTypeConverter<?>[] mConverters;
+
+	// 生成的映射, 以及每一列在映射中的下标
+	private final SQLEntityMapping<T> mMapping;
+	private final int[] mColumns;
+
+	private SQLRowMapper(Constructor<T> constructor,
+	                     SQLEntityAccessor.Property[] properties,
+	                     int[] kinds,
+	                     SQLTypeConverter<?>[] converters) {
+		this.mConstructor = constructor;
+		this.mProperties = properties;
+		this.mKinds = kinds;
+		this.mConverters = converters;
+		this.mMapping = null;
+		this.mColumns = null;
+	}
+
+	private SQLRowMapper(SQLEntityMapping<T> mapping, int[] columns, SQLTypeConverter<?>[] converters) {
+		this.mConstructor = null;
+		this.mProperties = null;
+		this.mKinds = null;
+		this.mConverters = converters;
+		this.mMapping = mapping;
+		this.mColumns = columns;
+	}
+
+	/**
+	 * 根据结果集的字段名生成映射
+	 *
+	 * @param clazz  实体的类型, 需要有无参构造函数
+	 * @param fields   结果集的字段名, 按列的顺序排列
+	 * @param metaData 结果集的元数据, 用于取得每列的 JDBC 类型
+	 * @param <T>      实体的类型
+	 * @return 映射
+	 * @throws SQLException     读取元数据失败
+	 * @throws ReflectException 没有无参构造函数, 或某个字段没有同名的变量
+	 */
+	static <T> SQLRowMapper<T> compile(Class<T> clazz, List<String> fields, ResultSetMetaData metaData)
+			throws SQLException, ReflectException {
+		SQLEntityMapping<T> mapping = SQLMappings.find(clazz);
+
+		if(null != mapping) {
+			int[] columns = SQLMappings.indexOf(mapping, clazz, fields);
+			return new SQLRowMapper<T>(mapping, columns, SQLMappings.readers(mapping, columns, metaData));
+		}
+
+		Constructor<T> constructor;
+
+		try {
+			constructor = Reflect.accessible(clazz.getDeclaredConstructor());
+		} catch (NoSuchMethodException e) {
+			throw new ReflectException(e);
+		}
+
+		SQLEntityAccessor accessor = SQLEntityAccessor.of(clazz);
+		SQLEntityAccessor.Property[] targets = new SQLEntityAccessor.Property[fields.size()];
+		int[] kinds = new int[fields.size()];
+		SQLTypeConverter<?>[] converters = new SQLTypeConverter<?>[fields.size()];
+
+		for(int idx = 0; idx < targets.length; ++ idx) {
+			targets[idx] = accessor.property(fields.get(idx));
+			kinds[idx] = kindOf(targets[idx].getType());
+
+			if(OBJECT == kinds[idx]) {
+				converters[idx] = SQLTypeConverters.converter(metaData.getColumnType(idx + 1), boxedType(targets[idx].getType()));
+			}
+		}
+
+		return new SQLRowMapper<T>(constructor, targets, kinds, converters);
+	}
+
+	private static int kindOf(Class<?> type) {
+		if(! type.isPrimitive()) {
+			return OBJECT;
+		} else if(boolean.class == type) {
+			return BOOLEAN;
+		} else if(byte.class == type) {
+			return BYTE;
+		} else if(short.class == type) {
+			return SHORT;
+		} else if(int.class == type) {
+			return INT;
+		} else if(long.class == type) {
+			return LONG;
+		} else if(float.class == type) {
+			return FLOAT;
+		} else if(double.class == type) {
+			return DOUBLE;
+		}
+
+		// char 没有对应的 getter, 按对象赋值
+		return OBJECT;
+	}
+
+	private static Class<?> boxedType(Class<?> type) {
+		return char.class == type ? Character.class : type;
+	}
+
+	/**
+	 * 把结果集的当前行转化成实体
+	 *
+	 * @param resultSet 已指向要转化的行的结果集
+	 * @return 相应实体
+	 * @throws SQLException     读取结果集失败
+	 * @throws ReflectException 创建实体或赋值失败
+	 */
+	T map(ResultSet resultSet) throws SQLException, ReflectException {
+		if(null != mMapping) {
+			T entity = mMapping.newInstance();
+
+			for(int idx = 0; idx < mColumns.length; ++ idx) {
+				mMapping.read(entity, mColumns[idx], resultSet, idx + 1, mConverters[idx]);
+			}
+
+			return entity;
+		}
+
+		try {
+			T entity = mConstructor.newInstance();
+
+			for(int idx = 0; idx < mProperties.length; ++ idx) {
+				SQLEntityAccessor.Property property = mProperties[idx];
+				int column = idx + 1;
+
+				switch(mKinds[idx]) {
+					case BOOLEAN:
+						boolean booleanValue = resultSet.getBoolean(column);
+
+						if(! resultSet.wasNull()) {
+							property.setBoolean(entity, booleanValue);
+						}
+						break;
+
+					case BYTE:
+						byte byteValue = resultSet.getByte(column);
+
+						if(! resultSet.wasNull()) {
+							property.setByte(entity, byteValue);
+						}
+						break;
+
+					case SHORT:
+						short shortValue = resultSet.getShort(column);
+
+						if(! resultSet.wasNull()) {
+							property.setShort(entity, shortValue);
+						}
+						break;
+
+					case INT:
+						int intValue = resultSet.getInt(column);
+
+						if(! resultSet.wasNull()) {
+							property.setInt(entity, intValue);
+						}
+						break;
+
+					case LONG:
+						long longValue = resultSet.getLong(column);
+
+						if(! resultSet.wasNull()) {
+							property.setLong(entity, longValue);
+						}
+						break;
+
+					case FLOAT:
+						float floatValue = resultSet.getFloat(column);
+
+						if(! resultSet.wasNull()) {
+							property.setFloat(entity, floatValue);
+						}
+						break;
+
+					case DOUBLE:
+						double doubleValue = resultSet.getDouble(column);
+
+						if(! resultSet.wasNull()) {
+							property.setDouble(entity, doubleValue);
+						}
+						break;
+
+					default:
+						Object value = mConverters[idx].read(resultSet, column);
+
+						// 基本类型的变量值为 NULL 时保留默认值
+						if(null != value || ! property.getType().isPrimitive()) {
+							property.set(entity, value);
+						}
+						break;
+				}
+			}
+
+			return entity;
+		} catch (SQLException e) {
+			throw e;
+		} catch (ReflectException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new ReflectException(e);
+		}
+	}
+}
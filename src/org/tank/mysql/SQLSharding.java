@@ -0,0 +1,669 @@
+package org.tank.mysql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按分片键把数据分到多个数据源, 每个数据源保存一部分行, 表结构相同
+ * 条件中对分片键的 = 和 IN (且没有 OR) 只发往拥有这些值的分片, 其他操作并行发往所有分片
+ * 多个分片的查询结果按 ORDER BY 的字段做 k 路归并, 再在全局上应用 LIMIT
+ * 插入按每个实体分片键的值分组后发往各自的分片
+ * 通过 SQLCommand.on(sharding) 或这里的命令工厂方法使用
+ */
+public class SQLSharding {
+
+	public enum Strategy {
+		// 按分片键的哈希值取模, 整数和整数形式的字符串按数值本身取模
+		HASH,
+		// 按分片键所在的区间, 分片键需为整数
+		RANGE
+	}
+
+	/**
+	 * 在一个分片上执行的操作
+	 *
+	 * @param <R> 执行结果的类型
+	 */
+	interface ShardTask<R> {
+		R execute(SQLDataSource shard);
+	}
+
+	private final String mField;
+	private final Strategy mStrategy;
+	// RANGE 时各分片的上界 (不含), 比分片数少一个, 最后一个分片没有上界
+	private final long[] mBounds;
+	private final List<SQLDataSource> mShards;
+	// 并行执行各分片上的操作, 调用线程自己执行第一个分片
+	// 线程数和队列长度都有上限, 满了时由调用线程自己执行
+	private final ThreadPoolExecutor mExecutor;
+
+	private SQLSharding(String field, Strategy strategy, long[] bounds, List<SQLDataSource> shards) {
+		if(shards.isEmpty()) {
+			throw new IllegalArgumentException("At least one shard is required");
+		}
+
+		this.mField = field;
+		this.mStrategy = strategy;
+		this.mBounds = bounds;
+		this.mShards = Collections.unmodifiableList(new ArrayList<SQLDataSource>(shards));
+
+		int limit = limitOf(SQLConfiguration.shardingParallelism);
+
+		this.mExecutor = new ThreadPoolExecutor(limit,
+		                                        limit,
+		                                        60,
+		                                        TimeUnit.SECONDS,
+		                                        new ArrayBlockingQueue<Runnable>(limit),
+		                                        new ThreadFactory() {
+			private final AtomicInteger mCount = new AtomicInteger(0);
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "SQLSharding Worker-" + mCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.mExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	private int limitOf(int parallelism) {
+		return mShards.size() * Math.max(1, parallelism);
+	}
+
+	/**
+	 * 设置每个分片上最多同时由工作线程执行几个操作
+	 * 工作线程数不超过分片数乘以 parallelism, 线程和排队的队列都满了时由调用线程自己执行
+	 * 默认为 SQLConfiguration.shardingParallelism
+	 *
+	 * @param parallelism 每个分片的并行度, 至少为 1
+	 * @return this
+	 */
+	public SQLSharding setParallelism(int parallelism) {
+		int limit = limitOf(parallelism);
+
+		// 核心线程数不能超过最大线程数, 调大时先调最大线程数
+		if(limit > mExecutor.getMaximumPoolSize()) {
+			mExecutor.setMaximumPoolSize(limit);
+			mExecutor.setCorePoolSize(limit);
+		} else {
+			mExecutor.setCorePoolSize(limit);
+			mExecutor.setMaximumPoolSize(limit);
+		}
+
+		return this;
+	}
+
+	/**
+	 * 按分片键的哈希值分片
+	 *
+	 * @param field  分片键的字段名, 同时也是实体中相应的变量名
+	 * @param shards 各个分片
+	 * @return 分片
+	 */
+	public static SQLSharding hash(String field, List<SQLDataSource> shards) {
+		return new SQLSharding(field, Strategy.HASH, null, shards);
+	}
+
+	public static SQLSharding hash(String field, SQLDataSource... shards) {
+		return hash(field, Arrays.asList(shards));
+	}
+
+	/**
+	 * 按分片键所在的区间分片, 小于 bounds[0] 的在第一个分片, [bounds[i - 1], bounds[i]) 的在第 i + 1 个分片,
+	 * 不小于最后一个上界的在最后一个分片
+	 *
+	 * @param field  分片键的字段名, 同时也是实体中相应的变量名
+	 * @param bounds 各分片的上界 (不含), 从小到大排列, 个数比分片数少一个
+	 * @param shards 各个分片
+	 * @return 分片
+	 */
+	public static SQLSharding range(String field, long[] bounds, List<SQLDataSource> shards) {
+		if(bounds.length != shards.size() - 1) {
+			throw new IllegalArgumentException("Expected " + (shards.size() - 1) + " bounds for "
+			                                   + shards.size() + " shards, got " + bounds.length);
+		}
+
+		for(int idx = 1; idx < bounds.length; ++ idx) {
+			if(bounds[idx - 1] >= bounds[idx]) {
+				throw new IllegalArgumentException("Bounds must be in strictly ascending order");
+			}
+		}
+
+		return new SQLSharding(field, Strategy.RANGE, bounds.clone(), shards);
+	}
+
+	public static SQLSharding range(String field, long[] bounds, SQLDataSource... shards) {
+		return range(field, bounds, Arrays.asList(shards));
+	}
+
+	public String getField() {
+		return mField;
+	}
+
+	public Strategy getStrategy() {
+		return mStrategy;
+	}
+
+	public List<SQLDataSource> getShards() {
+		return mShards;
+	}
+
+	/**
+	 * 获得分片键的值所在的分片
+	 *
+	 * @param key 分片键的值
+	 * @return 分片
+	 */
+	public SQLDataSource locate(Object key) {
+		return mShards.get(indexOf(key));
+	}
+
+	private int indexOf(Object key) {
+		if(null == key) {
+			throw new IllegalArgumentException("Sharding key " + mField + " must not be null");
+		}
+
+		if(Strategy.RANGE == mStrategy) {
+			Long value = key instanceof Number ? Long.valueOf(((Number) key).longValue()) : parseLong(key.toString());
+
+			if(null == value) {
+				throw new ReflectException("Sharding key " + mField + " must be an integer, got '" + key + "'");
+			}
+
+			int idx = Arrays.binarySearch(mBounds, value);
+
+			// 上界不含, 等于某个上界时属于下一个分片
+			return idx >= 0 ? idx + 1 : - idx - 1;
+		}
+
+		// 同一个值无论以 5 还是 "5" 给出都落在同一个分片
+		if(key instanceof Number) {
+			return (int) Math.floorMod(((Number) key).longValue(), (long) mShards.size());
+		}
+
+		if(key instanceof CharSequence) {
+			Long value = parseLong(key.toString());
+
+			if(null != value) {
+				return (int) Math.floorMod(value, (long) mShards.size());
+			}
+		}
+
+		return Math.floorMod(key.hashCode(), mShards.size());
+	}
+
+	/**
+	 * 把整数形式的字符串转换为整数, 允许前后的空白和正负号
+	 *
+	 * @param text 字符串
+	 * @return 整数, 不是整数形式或超出 long 的范围时为 null
+	 */
+	static Long parseLong(String text) {
+		String value = text.trim();
+		int start = value.startsWith("-") || value.startsWith("+") ? 1 : 0;
+
+		if(value.length() == start) {
+			return null;
+		}
+
+		for(int idx = start; idx < value.length(); ++ idx) {
+			char ch = value.charAt(idx);
+
+			if(ch < '0' || ch > '9') {
+				return null;
+			}
+		}
+
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			// 超出 long 的范围
+			return null;
+		}
+	}
+
+	/**
+	 * 根据条件选出需要执行的分片
+	 * 有 OR 时无法确定, 发往所有分片; 否则取分片键上每个 = 和 IN 条件所在分片的交集
+	 *
+	 * @param conditions 命令的条件
+	 * @return 需要执行的分片, 条件互相矛盾时为空
+	 */
+	List<SQLDataSource> route(Collection<SQLCondition> conditions) {
+		boolean[] owned = null;
+
+		for(SQLCondition condition : conditions) {
+			String operation = condition.getOperation();
+
+			if(SQLCondition.OR.equals(operation)) {
+				return mShards;
+			}
+
+			if(! SQLCondition.EQUAL.equals(operation) && ! SQLCondition.IN.equals(operation)) {
+				continue;
+			}
+
+			if(! mField.equalsIgnoreCase(condition.getFields().get(0))) {
+				continue;
+			}
+
+			boolean[] hit = new boolean[mShards.size()];
+
+			for(Object value : condition.getData()) {
+				// = NULL 不会匹配任何行
+				if(null != value) {
+					hit[indexOf(value)] = true;
+				}
+			}
+
+			if(null == owned) {
+				owned = hit;
+			} else {
+				for(int idx = 0; idx < owned.length; ++ idx) {
+					owned[idx] &= hit[idx];
+				}
+			}
+		}
+
+		if(null == owned) {
+			return mShards;
+		}
+
+		List<SQLDataSource> result = new ArrayList<SQLDataSource>();
+
+		for(int idx = 0; idx < owned.length; ++ idx) {
+			if(owned[idx]) {
+				result.add(mShards.get(idx));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * 按分片键的值把实体分到各自的分片
+	 *
+	 * @param entities 实体
+	 * @param <T>      实体的类型
+	 * @return 每个分片和要插入它的实体, 按分片的顺序排列
+	 */
+	<T> Map<SQLDataSource, List<T>> group(List<T> entities) {
+		List<List<T>> groups = new ArrayList<List<T>>(mShards.size());
+
+		for(int idx = 0; idx < mShards.size(); ++ idx) {
+			groups.add(new ArrayList<T>());
+		}
+
+		for(T entity : entities) {
+			groups.get(indexOf(SQLEntityAccessor.of(entity.getClass()).get(entity, mField))).add(entity);
+		}
+
+		Map<SQLDataSource, List<T>> result = new LinkedHashMap<SQLDataSource, List<T>>();
+
+		for(int idx = 0; idx < mShards.size(); ++ idx) {
+			if(! groups.get(idx).isEmpty()) {
+				result.put(mShards.get(idx), groups.get(idx));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * 在各个分片上并行执行操作, 调用线程自己执行第一个分片, 其余的交给工作线程
+	 * 任一分片抛出异常时取消其余还在执行的分片, 再抛出这个异常
+	 *
+	 * @param shards 分片
+	 * @param task   操作
+	 * @param <R>    执行结果的类型
+	 * @return 每个分片的执行结果, 与 shards 的顺序相同, 被中断的为 null
+	 */
+	<R> List<R> scatter(List<SQLDataSource> shards, final ShardTask<R> task) {
+		List<R> result = new ArrayList<R>(shards.size());
+
+		if(shards.isEmpty()) {
+			return result;
+		}
+
+		List<Future<R>> futures = new ArrayList<Future<R>>(shards.size() - 1);
+
+		for(int idx = 1; idx < shards.size(); ++ idx) {
+			final SQLDataSource shard = shards.get(idx);
+
+			try {
+				futures.add(mExecutor.submit(new Callable<R>() {
+					@Override
+					public R call() throws Exception {
+						return task.execute(shard);
+					}
+				}));
+			} catch (RejectedExecutionException e) {
+				// 工作线程和队列都满了, 或者已关闭, 这个分片在调用线程中执行
+				futures.add(null);
+			}
+		}
+
+		boolean completed = false;
+
+		try {
+			result.add(task.execute(shards.get(0)));
+
+			for(int idx = 0; idx < futures.size(); ++ idx) {
+				Future<R> future = futures.get(idx);
+
+				if(null == future) {
+					result.add(task.execute(shards.get(idx + 1)));
+					continue;
+				}
+
+				try {
+					result.add(future.get());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					future.cancel(true);
+					result.add(null);
+				} catch (ExecutionException e) {
+					if(e.getCause() instanceof RuntimeException) {
+						throw (RuntimeException) e.getCause();
+					}
+
+					throw new RuntimeException(e.getCause());
+				}
+			}
+
+			completed = true;
+		} finally {
+			if(! completed) {
+				// 任一分片失败时不再等待其余分片, 取消还没有完成的操作
+				for(Future<R> future : futures) {
+					if(null != future) {
+						future.cancel(true);
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * 合并各分片的查询结果
+	 * 有排序字段时各分片的结果已分别有序, 做 k 路归并; 否则依次拼接
+	 * 合并后跳过前 offset 个, 最多保留 count 个
+	 *
+	 * @param parts     各分片的查询结果
+	 * @param fields    排序的字段名, 可以为空
+	 * @param ascending 每个排序字段是否从小到大
+	 * @param offset    跳过的个数
+	 * @param count     最多保留的个数, 小于 0 时不限制
+	 * @param <T>       实体的类型
+	 * @return 合并后的结果
+	 */
+	static <T> List<T> merge(List<List<T>> parts,
+	                         List<String> fields,
+	                         List<Boolean> ascending,
+	                         long offset,
+	                         long count) {
+		List<Iterator<T>> iterators = new ArrayList<Iterator<T>>(parts.size());
+
+		for(List<T> part : parts) {
+			iterators.add(part.iterator());
+		}
+
+		List<T> result = new ArrayList<T>();
+		Iterator<T> merged = mergeIterators(iterators, fields, ascending, offset, count);
+
+		while(merged.hasNext()) {
+			result.add(merged.next());
+		}
+
+		return result;
+	}
+
+	/**
+	 * 逐行合并各分片的查询结果, 规则同 merge(List, List, List, long, long)
+	 * 每次 next() 才从各分片读取需要的行, 流式查询时各分片同时只有一行在内存中
+	 *
+	 * @param parts     各分片结果的迭代器
+	 * @param fields    排序的字段名, 可以为空
+	 * @param ascending 每个排序字段是否从小到大
+	 * @param offset    跳过的个数
+	 * @param count     最多返回的个数, 小于 0 时不限制
+	 * @param <T>       实体的类型
+	 * @return 合并后的迭代器
+	 */
+	static <T> Iterator<T> mergeIterators(final List<? extends Iterator<T>> parts,
+	                                      final List<String> fields,
+	                                      final List<Boolean> ascending,
+	                                      final long offset,
+	                                      final long count) {
+		final PriorityQueue<Cursor<T>> heap = new PriorityQueue<Cursor<T>>(Math.max(1, parts.size()),
+		                                                                   new Comparator<Cursor<T>>() {
+			@Override
+			public int compare(Cursor<T> lhs, Cursor<T> rhs) {
+				for(int idx = 0; idx < lhs.mKeys.length; ++ idx) {
+					int diff = compareValue(lhs.mKeys[idx], rhs.mKeys[idx]);
+
+					if(0 != diff) {
+						return ascending.get(idx) ? diff : - diff;
+					}
+				}
+
+				// 相同时先取前面分片的, 结果稳定
+				return Integer.compare(lhs.mIndex, rhs.mIndex);
+			}
+		});
+
+		return new Iterator<T>() {
+			// 没有排序字段时正在读取的分片
+			private int mPart = 0;
+			private boolean mStarted = false;
+			private long mSkipped = 0;
+			private long mReturned = 0;
+
+			@Override
+			public boolean hasNext() {
+				if(count >= 0 && mReturned >= count) {
+					return false;
+				}
+
+				for(; mSkipped < offset; ++ mSkipped) {
+					if(! advance()) {
+						return false;
+					}
+
+					poll();
+				}
+
+				return advance();
+			}
+
+			@Override
+			public T next() {
+				if(! hasNext()) {
+					throw new NoSuchElementException();
+				}
+
+				++ mReturned;
+				return poll();
+			}
+
+			/**
+			 * 准备好下一行, 没有更多行时返回 false
+			 */
+			private boolean advance() {
+				if(fields.isEmpty()) {
+					for(; mPart < parts.size(); ++ mPart) {
+						if(parts.get(mPart).hasNext()) {
+							return true;
+						}
+					}
+
+					return false;
+				}
+
+				if(! mStarted) {
+					mStarted = true;
+
+					for(int idx = 0; idx < parts.size(); ++ idx) {
+						Cursor<T> cursor = new Cursor<T>(idx, parts.get(idx));
+
+						if(cursor.next(fields)) {
+							heap.add(cursor);
+						}
+					}
+				}
+
+				return ! heap.isEmpty();
+			}
+
+			/**
+			 * 取走 advance() 准备好的一行
+			 */
+			private T poll() {
+				if(fields.isEmpty()) {
+					return parts.get(mPart).next();
+				}
+
+				Cursor<T> cursor = heap.poll();
+				T row = cursor.mRow;
+
+				if(cursor.next(fields)) {
+					heap.add(cursor);
+				}
+
+				return row;
+			}
+		};
+	}
+
+	/**
+	 * 比较两个字段值, NULL 最小, 与 MySQL 相同
+	 * 字符串忽略大小写比较, 与默认的 *_ci 排序规则一致
+	 */
+	@SuppressWarnings("unchecked")
+	private static int compareValue(Object lhs, Object rhs) {
+		if(lhs == rhs) {
+			return 0;
+		}
+
+		if(null == lhs) {
+			return - 1;
+		}
+
+		if(null == rhs) {
+			return 1;
+		}
+
+		if(lhs instanceof String && rhs instanceof String) {
+			return String.CASE_INSENSITIVE_ORDER.compare((String) lhs, (String) rhs);
+		}
+
+		if(lhs instanceof Number && rhs instanceof Number && lhs.getClass() != rhs.getClass()) {
+			return Double.compare(((Number) lhs).doubleValue(), ((Number) rhs).doubleValue());
+		}
+
+		return ((Comparable<Object>) lhs).compareTo(rhs);
+	}
+
+	/**
+	 * 一个分片结果上的游标, 记住当前行排序字段的值, 归并时不必反复反射取值
+	 */
+	private static class Cursor<T> {
+		private final int mIndex;
+		private final Iterator<T> mIterator;
+		private T mRow;
+		private Object[] mKeys;
+
+		Cursor(int index, Iterator<T> iterator) {
+			this.mIndex = index;
+			this.mIterator = iterator;
+		}
+
+		boolean next(List<String> fields) {
+			if(! mIterator.hasNext()) {
+				return false;
+			}
+
+			mRow = mIterator.next();
+			mKeys = new Object[fields.size()];
+			SQLEntityAccessor accessor = SQLEntityAccessor.of(mRow.getClass());
+
+			for(int idx = 0; idx < mKeys.length; ++ idx) {
+				mKeys[idx] = accessor.get(mRow, fields.get(idx));
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * 创建在该分片上执行的更新命令
+	 *
+	 * @param <T> 查询语句返回类型
+	 * @return 更新命令
+	 */
+	public <T> SQLCommand<T> update() {
+		return new SQLCommand<T>().on(this).update();
+	}
+
+	/**
+	 * 创建在该分片上执行的插入命令
+	 *
+	 * @param <T> 查询语句返回类型
+	 * @return 插入命令
+	 */
+	public <T> SQLCommand<T> insert() {
+		return new SQLCommand<T>().on(this);
+	}
+
+	/**
+	 * 创建在该分片上执行的查询命令
+	 *
+	 * @param <T> 查询语句返回类型
+	 * @return 查询命令
+	 */
+	public <T> SQLCommand<T> query() {
+		return new SQLCommand<T>().on(this).query();
+	}
+
+	/**
+	 * 创建在该分片上执行的删除命令
+	 *
+	 * @param <T> 查询语句返回类型
+	 * @return 删除命令
+	 */
+	public <T> SQLCommand<T> delete() {
+		return new SQLCommand<T>().on(this).delete();
+	}
+
+	/**
+	 * 停止工作线程并关闭所有分片
+	 */
+	public void close() {
+		mExecutor.shutdown();
+
+		for(SQLDataSource shard : mShards) {
+			shard.close();
+		}
+	}
+}
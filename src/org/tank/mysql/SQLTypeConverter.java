@@ -0,0 +1,34 @@
+package org.tank.mysql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * 一种 Java 类型与字段值之间的转换, 读取和填充时使用 getInt、setString 等具体的方法
+ * 通过 SQLTypeConverters.register 注册, 可以为枚举、JSON 字段等自定义转换
+ *
+ * @param <T> Java 类型
+ */
+public interface SQLTypeConverter<T> {
+
+	/**
+	 * 从结果集的当前行读取一列
+	 *
+	 * @param resultSet 结果集
+	 * @param index     列的下标, 从 1 开始
+	 * @return 转换后的值, 字段为 NULL 时为 null
+	 * @throws SQLException 读取失败
+	 */
+	T read(ResultSet resultSet, int index) throws SQLException;
+
+	/**
+	 * 把值填充到语句的参数中
+	 *
+	 * @param statement 语句
+	 * @param index     参数的下标, 从 1 开始
+	 * @param value     值, 可以为 null
+	 * @throws SQLException 填充失败
+	 */
+	void bind(PreparedStatement statement, int index, T value) throws SQLException;
+}
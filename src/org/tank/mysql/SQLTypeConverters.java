@@ -0,0 +1,540 @@
+package org.tank.mysql;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 按 (JDBC 类型, Java 类型) 选择 SQLTypeConverter, 每种组合只解析一次
+ * 读取时先找该 JDBC 类型上注册的转换, 再找不区分 JDBC 类型 (ANY) 的转换;
+ * 填充参数时不知道字段的 JDBC 类型, 只使用 ANY 上注册的转换
+ * 没有注册的枚举按名称读写, 其他类型使用 getObject 和 setObject
+ * 内置了 String、包装类型、BigDecimal、byte[]、日期时间类型的转换, 注册相同的类型会覆盖内置的转换
+ * 注册应在启动时完成, 注册后已解析的结果会被清空
+ * 注册和解析的结果通过 ClassValue 挂在 Java 类型上, 不会阻止实体所在的类加载器被回收, 查找时也不分配对象
+ */
+public final class SQLTypeConverters {
+	// 不区分 JDBC 类型
+	public static final int ANY = Integer.MIN_VALUE;
+
+	// java.sql.Types 中的类型对应的下标个数, 见 slot(int)
+	private static final int SLOTS = 54;
+
+	/**
+	 * 一种 Java 类型上注册的转换和解析的结果, 都按 slot(int) 得到的下标保存
+	 */
+	private static final class Converters {
+		private final AtomicReferenceArray<SQLTypeConverter<?>> mRegistered
+				= new AtomicReferenceArray<SQLTypeConverter<?>>(SLOTS);
+		private volatile Resolved mResolved = new Resolved(0);
+	}
+
+	/**
+	 * 某次注册之后的解析结果, 再有注册时整体换掉
+	 */
+	private static final class Resolved {
+		private final int mVersion;
+		private final AtomicReferenceArray<SQLTypeConverter<?>> mConverters
+				= new AtomicReferenceArray<SQLTypeConverter<?>>(SLOTS);
+
+		Resolved(int version) {
+			this.mVersion = version;
+		}
+	}
+
+	/**
+	 * 没有相应转换时使用, 由驱动决定 Java 类型
+	 */
+	private static final SQLTypeConverter<Object> OBJECT = new SQLTypeConverter<Object>() {
+		@Override
+		public Object read(ResultSet resultSet, int index) throws SQLException {
+			return resultSet.getObject(index);
+		}
+
+		@Override
+		public void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+			statement.setObject(index, value);
+		}
+	};
+
+	/**
+	 * 没有注册的枚举使用, 按名称读写
+	 */
+	private static final class EnumConverter<E extends Enum<E>> implements SQLTypeConverter<E> {
+		private final Class<E> mType;
+
+		EnumConverter(Class<E> type) {
+			this.mType = type;
+		}
+
+		@Override
+		public E read(ResultSet resultSet, int index) throws SQLException {
+			String value = resultSet.getString(index);
+			return null == value ? null : Enum.valueOf(mType, value);
+		}
+
+		@Override
+		public void bind(PreparedStatement statement, int index, E value) throws SQLException {
+			if(null == value) {
+				statement.setNull(index, Types.VARCHAR);
+			} else {
+				statement.setString(index, value.name());
+			}
+		}
+	}
+
+	private static final ClassValue<Converters> mConverters = new ClassValue<Converters>() {
+		@Override
+		protected Converters computeValue(Class<?> type) {
+			return new Converters();
+		}
+	};
+
+	// 每次注册加一, 与 Resolved.mVersion 不同时解析结果已过期
+	private static volatile int mVersion = 0;
+
+	static {
+		register(String.class, new SQLTypeConverter<String>() {
+			@Override
+			public String read(ResultSet resultSet, int index) throws SQLException {
+				return resultSet.getString(index);
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, String value) throws SQLException {
+				statement.setString(index, value);
+			}
+		});
+
+		register(Boolean.class, new SQLTypeConverter<Boolean>() {
+			@Override
+			public Boolean read(ResultSet resultSet, int index) throws SQLException {
+				boolean value = resultSet.getBoolean(index);
+				return resultSet.wasNull() ? null : Boolean.valueOf(value);
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, Boolean value) throws SQLException {
+				if(null == value) {
+					statement.setNull(index, Types.BOOLEAN);
+				} else {
+					statement.setBoolean(index, value);
+				}
+			}
+		});
+
+		register(Byte.class, new SQLTypeConverter<Byte>() {
+			@Override
+			public Byte read(ResultSet resultSet, int index) throws SQLException {
+				byte value = resultSet.getByte(index);
+				return resultSet.wasNull() ? null : Byte.valueOf(value);
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, Byte value) throws SQLException {
+				if(null == value) {
+					statement.setNull(index, Types.TINYINT);
+				} else {
+					statement.setByte(index, value);
+				}
+			}
+		});
+
+		register(Short.class, new SQLTypeConverter<Short>() {
+			@Override
+			public Short read(ResultSet resultSet, int index) throws SQLException {
+				short value = resultSet.getShort(index);
+				return resultSet.wasNull() ? null : Short.valueOf(value);
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, Short value) throws SQLException {
+				if(null == value) {
+					statement.setNull(index, Types.SMALLINT);
+				} else {
+					statement.setShort(index, value);
+				}
+			}
+		});
+
+		register(Integer.class, new SQLTypeConverter<Integer>() {
+			@Override
+			public Integer read(ResultSet resultSet, int index) throws SQLException {
+				int value = resultSet.getInt(index);
+				return resultSet.wasNull() ? null : Integer.valueOf(value);
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, Integer value) throws SQLException {
+				if(null == value) {
+					statement.setNull(index, Types.INTEGER);
+				} else {
+					statement.setInt(index, value);
+				}
+			}
+		});
+
+		register(Long.class, new SQLTypeConverter<Long>() {
+			@Override
+			public Long read(ResultSet resultSet, int index) throws SQLException {
+				long value = resultSet.getLong(index);
+				return resultSet.wasNull() ? null : Long.valueOf(value);
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, Long value) throws SQLException {
+				if(null == value) {
+					statement.setNull(index, Types.BIGINT);
+				} else {
+					statement.setLong(index, value);
+				}
+			}
+		});
+
+		register(Float.class, new SQLTypeConverter<Float>() {
+			@Override
+			public Float read(ResultSet resultSet, int index) throws SQLException {
+				float value = resultSet.getFloat(index);
+				return resultSet.wasNull() ? null : Float.valueOf(value);
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, Float value) throws SQLException {
+				if(null == value) {
+					statement.setNull(index, Types.REAL);
+				} else {
+					statement.setFloat(index, value);
+				}
+			}
+		});
+
+		register(Double.class, new SQLTypeConverter<Double>() {
+			@Override
+			public Double read(ResultSet resultSet, int index) throws SQLException {
+				double value = resultSet.getDouble(index);
+				return resultSet.wasNull() ? null : Double.valueOf(value);
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, Double value) throws SQLException {
+				if(null == value) {
+					statement.setNull(index, Types.DOUBLE);
+				} else {
+					statement.setDouble(index, value);
+				}
+			}
+		});
+
+		register(Character.class, new SQLTypeConverter<Character>() {
+			@Override
+			public Character read(ResultSet resultSet, int index) throws SQLException {
+				String value = resultSet.getString(index);
+				return null == value || value.isEmpty() ? null : Character.valueOf(value.charAt(0));
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, Character value) throws SQLException {
+				if(null == value) {
+					statement.setNull(index, Types.CHAR);
+				} else {
+					statement.setString(index, String.valueOf(value.charValue()));
+				}
+			}
+		});
+
+		register(BigDecimal.class, new SQLTypeConverter<BigDecimal>() {
+			@Override
+			public BigDecimal read(ResultSet resultSet, int index) throws SQLException {
+				return resultSet.getBigDecimal(index);
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, BigDecimal value) throws SQLException {
+				statement.setBigDecimal(index, value);
+			}
+		});
+
+		register(byte[].class, new SQLTypeConverter<byte[]>() {
+			@Override
+			public byte[] read(ResultSet resultSet, int index) throws SQLException {
+				return resultSet.getBytes(index);
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, byte[] value) throws SQLException {
+				statement.setBytes(index, value);
+			}
+		});
+
+		register(java.sql.Date.class, new SQLTypeConverter<java.sql.Date>() {
+			@Override
+			public java.sql.Date read(ResultSet resultSet, int index) throws SQLException {
+				return resultSet.getDate(index);
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, java.sql.Date value) throws SQLException {
+				statement.setDate(index, value);
+			}
+		});
+
+		register(Time.class, new SQLTypeConverter<Time>() {
+			@Override
+			public Time read(ResultSet resultSet, int index) throws SQLException {
+				return resultSet.getTime(index);
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, Time value) throws SQLException {
+				statement.setTime(index, value);
+			}
+		});
+
+		register(Timestamp.class, new SQLTypeConverter<Timestamp>() {
+			@Override
+			public Timestamp read(ResultSet resultSet, int index) throws SQLException {
+				return resultSet.getTimestamp(index);
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, Timestamp value) throws SQLException {
+				statement.setTimestamp(index, value);
+			}
+		});
+
+		register(Date.class, new SQLTypeConverter<Date>() {
+			@Override
+			public Date read(ResultSet resultSet, int index) throws SQLException {
+				Timestamp value = resultSet.getTimestamp(index);
+				return null == value ? null : new Date(value.getTime());
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, Date value) throws SQLException {
+				statement.setTimestamp(index, null == value ? null : new Timestamp(value.getTime()));
+			}
+		});
+
+		// 毫秒数保存的时间
+		register(Types.BIGINT, Date.class, new SQLTypeConverter<Date>() {
+			@Override
+			public Date read(ResultSet resultSet, int index) throws SQLException {
+				long value = resultSet.getLong(index);
+				return resultSet.wasNull() ? null : new Date(value);
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, Date value) throws SQLException {
+				if(null == value) {
+					statement.setNull(index, Types.BIGINT);
+				} else {
+					statement.setLong(index, value.getTime());
+				}
+			}
+		});
+
+		register(LocalDate.class, new SQLTypeConverter<LocalDate>() {
+			@Override
+			public LocalDate read(ResultSet resultSet, int index) throws SQLException {
+				java.sql.Date value = resultSet.getDate(index);
+				return null == value ? null : value.toLocalDate();
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, LocalDate value) throws SQLException {
+				statement.setDate(index, null == value ? null : java.sql.Date.valueOf(value));
+			}
+		});
+
+		register(LocalDateTime.class, new SQLTypeConverter<LocalDateTime>() {
+			@Override
+			public LocalDateTime read(ResultSet resultSet, int index) throws SQLException {
+				Timestamp value = resultSet.getTimestamp(index);
+				return null == value ? null : value.toLocalDateTime();
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, LocalDateTime value) throws SQLException {
+				statement.setTimestamp(index, null == value ? null : Timestamp.valueOf(value));
+			}
+		});
+	}
+
+	private SQLTypeConverters() {
+	}
+
+	/**
+	 * 注册不区分 JDBC 类型的转换, 读取和填充参数时都会使用
+	 *
+	 * @param type      Java 类型
+	 * @param converter 转换
+	 * @param <T>       Java 类型
+	 */
+	public static <T> void register(Class<T> type, SQLTypeConverter<T> converter) {
+		register(ANY, type, converter);
+	}
+
+	/**
+	 * 注册某种 JDBC 类型的字段读取成某种 Java 类型时使用的转换
+	 *
+	 * @param jdbcType  java.sql.Types 中的类型, 为 ANY 时不区分 JDBC 类型
+	 * @param type      Java 类型
+	 * @param converter 转换
+	 * @param <T>       Java 类型
+	 * @throws IllegalArgumentException type 或 converter 为 null, 或 jdbcType 不是 java.sql.Types 中的类型
+	 */
+	public static <T> void register(int jdbcType, Class<T> type, SQLTypeConverter<T> converter) {
+		if(null == type || null == converter) {
+			throw new IllegalArgumentException("Type and converter must not be null");
+		}
+
+		int slot = slot(jdbcType);
+
+		if(slot < 0) {
+			throw new IllegalArgumentException("Unsupported JDBC type " + jdbcType);
+		}
+
+		mConverters.get(type).mRegistered.set(slot, converter);
+
+		// 其他类型的解析结果也可能用到它, 例如枚举值的子类, 全部作废
+		synchronized(SQLTypeConverters.class) {
+			++ mVersion;
+		}
+	}
+
+	/**
+	 * 获得不区分 JDBC 类型的转换
+	 *
+	 * @param type Java 类型
+	 * @param <T>  Java 类型
+	 * @return 转换, 没有相应的转换时使用 getObject 和 setObject
+	 */
+	public static <T> SQLTypeConverter<T> converter(Class<T> type) {
+		return converter(ANY, type);
+	}
+
+	/**
+	 * 获得某种 JDBC 类型的字段读取成某种 Java 类型时使用的转换
+	 *
+	 * @param jdbcType java.sql.Types 中的类型, 为 ANY 时不区分 JDBC 类型, 驱动特有的类型按 ANY 处理
+	 * @param type     Java 类型
+	 * @param <T>      Java 类型
+	 * @return 转换, 没有相应的转换时使用 getObject 和 setObject
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> SQLTypeConverter<T> converter(int jdbcType, Class<T> type) {
+		int slot = Math.max(0, slot(jdbcType));
+		Converters converters = mConverters.get(type);
+		Resolved resolved = converters.mResolved;
+		int version = mVersion;
+
+		if(resolved.mVersion != version) {
+			resolved = new Resolved(version);
+			converters.mResolved = resolved;
+		}
+
+		SQLTypeConverter<?> converter = resolved.mConverters.get(slot);
+
+		if(null == converter) {
+			converter = resolve(slot, type, converters);
+			resolved.mConverters.set(slot, converter);
+		}
+
+		return (SQLTypeConverter<T>) converter;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static SQLTypeConverter<?> resolve(int slot, Class<?> type, Converters converters) {
+		SQLTypeConverter<?> converter = converters.mRegistered.get(slot);
+
+		if(null == converter && 0 != slot) {
+			converter = converters.mRegistered.get(0);
+		}
+
+		if(null != converter) {
+			return converter;
+		}
+
+		// 带有方法体的枚举值是枚举的子类
+		if(Enum.class.isAssignableFrom(type) && Enum.class != type) {
+			Class<?> enumType = type.isEnum() ? type : type.getSuperclass();
+			return enumType == type ? new EnumConverter(enumType) : resolve(slot, enumType, mConverters.get(enumType));
+		}
+
+		return OBJECT;
+	}
+
+	/**
+	 * 把 JDBC 类型换成数组中的下标, ANY 为 0
+	 *
+	 * @param jdbcType java.sql.Types 中的类型或 ANY
+	 * @return 下标, 不是 java.sql.Types 中的类型时为 -1
+	 */
+	private static int slot(int jdbcType) {
+		if(ANY == jdbcType) {
+			return 0;
+		}
+
+		// LONGNVARCHAR (-16) 到 BOOLEAN (16)
+		if(jdbcType >= - 16 && jdbcType <= 16) {
+			return jdbcType + 17;
+		}
+
+		switch(jdbcType) {
+			case Types.DATALINK:
+				return 34;
+
+			case Types.DATE:
+			case Types.TIME:
+			case Types.TIMESTAMP:
+				return jdbcType - Types.DATE + 35;
+
+			case Types.OTHER:
+				return 38;
+
+			default:
+				break;
+		}
+
+		// JAVA_OBJECT (2000) 到 TIMESTAMP_WITH_TIMEZONE (2014)
+		if(jdbcType >= 2000 && jdbcType <= 2014) {
+			return jdbcType - 2000 + 39;
+		}
+
+		return - 1;
+	}
+
+	/**
+	 * 把值填充到语句的参数中, 按值的类型选择转换
+	 *
+	 * @param statement 语句
+	 * @param index     参数的下标, 从 1 开始
+	 * @param value     值, 为 null 时使用 setObject
+	 */
+	static void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+		if(null == value) {
+			statement.setObject(index, null);
+		} else {
+			binder(value.getClass()).bind(statement, index, value);
+		}
+	}
+
+	/**
+	 * 获得填充某种类型的值时使用的转换
+	 *
+	 * @param type 值的类型
+	 * @return 转换
+	 */
+	@SuppressWarnings("unchecked")
+	static SQLTypeConverter<Object> binder(Class<?> type) {
+		return (SQLTypeConverter<Object>) converter(ANY, type);
+	}
+}
@@ -12,7 +12,26 @@ import java.util.*;
  */
 public class SQLUtil {
 
-	private static SQLPool mSQLPool = new SQLPool();
+	// 默认数据源, 使用 SQLConfiguration 中的配置, 静态方法都在它上面执行
+	private static final SQLDataSource mDefaultDataSource = new SQLDataSource();
+
+	/**
+	 * 获得默认数据源, 需要连接多个数据库时另外创建 SQLDataSource
+	 *
+	 * @return 默认数据源
+	 */
+	public static SQLDataSource getDefaultDataSource() {
+		return mDefaultDataSource;
+	}
+
+	/**
+	 * 预热连接池, 在应用启动时调用, 阻塞直到初始连接全部建立
+	 *
+	 * @return 已建立的连接数
+	 */
+	public static int prefill() {
+		return mDefaultDataSource.prefill();
+	}
 
 	/**
 	 * 创建更新命令
@@ -20,7 +39,7 @@ public class SQLUtil {
 	 * @param <T> 查询语句返回类型
 	 * @return 更新命令
 	 */
-	public static <T> SQLCommand update() {
+	public static <T> SQLCommand<T> update() {
 		return new SQLCommand<T>().update();
 	}
 
@@ -30,7 +49,7 @@ public class SQLUtil {
 	 * @param <T> 查询语句返回类型
 	 * @return 更新命令
 	 */
-	public static <T> SQLCommand insert() {
+	public static <T> SQLCommand<T> insert() {
 		return new SQLCommand<T>();
 	}
 
@@ -40,7 +59,7 @@ public class SQLUtil {
 	 * @param <T> 查询语句返回类型
 	 * @return 更新命令
 	 */
-	public static <T> SQLCommand query() {
+	public static <T> SQLCommand<T> query() {
 		return new SQLCommand<T>().query();
 	}
 
@@ -50,28 +69,10 @@ public class SQLUtil {
 	 * @param <T> 查询语句返回类型
 	 * @return 更新命令
 	 */
-	public static <T> SQLCommand delete() {
+	public static <T> SQLCommand<T> delete() {
 		return new SQLCommand<T>().delete();
 	}
 
-	/**
-	 * 通过反射将数据转化成相应实体
-	 *
-	 * @param clazz 对应实体的类型
-	 * @param data  数据的 HashMap, key 为变量名, value 为相应值
-	 * @param <T>   对应实体类型
-	 * @return 相应的实体
-	 */
-	private static <T> T convertDataToEntity(Class<T> clazz, HashMap<String, Object> data) {
-		Reflect entity = Reflect.on(clazz).create();
-
-		for(Map.Entry<String, Object> entry : data.entrySet()) {
-			entity.set(entry.getKey(), entry.getValue());
-		}
-
-		return entity.get();
-	}
-
 	/**
 	 * 将一个实体转化成一个 List<Object> 对象
 	 *
@@ -81,30 +82,40 @@ public class SQLUtil {
 	 * @return 该实体对应的 List<Object> 对象
 	 */
 	public static <T> List<Object> convertEntityToData(T entity, List<String> fields) {
-		List<Object> result = new ArrayList<Object>();
-		Reflect reflect = Reflect.on(entity);
+		return convertEntityToData(entity, resolveProperties(entity.getClass(), fields));
+	}
 
-		for(String field : fields) {
-			result.add(reflect.field(field).get());
+	/**
+	 * 用已解析好的变量读写将一个实体转化成一个 List<Object> 对象
+	 *
+	 * @param entity     相应实体
+	 * @param properties 每个变量的读写, 由 resolveProperties 获得
+	 * @param <T>        相应实体的类型
+	 * @return 该实体对应的 List<Object> 对象
+	 */
+	private static <T> List<Object> convertEntityToData(T entity, SQLEntityAccessor.Property[] properties) {
+		List<Object> result = new ArrayList<Object>(properties.length);
+
+		for(SQLEntityAccessor.Property property : properties) {
+			result.add(property.get(entity));
 		}
 
 		return result;
 	}
 
 	/**
-	 * 通过反射将数据转化成相应实体
+	 * 按变量名依次取得实体类中变量的读写
 	 *
-	 * @param clazz 对应实体的类型
-	 * @param data  数据的 HashMap 的列表, key 为变量名, value 为相应值
-	 * @param <T>   对应实体类型
-	 * @return 相应的实体
+	 * @param type   实体类
+	 * @param fields 变量名
+	 * @return 每个变量的读写, 与 fields 的顺序相同
 	 */
-	private static <T> List<T> convertDataToEntities(Class<T> clazz,
-	                                                 List<HashMap<String, Object>> data) {
-		List<T> result = new ArrayList<T>();
+	private static SQLEntityAccessor.Property[] resolveProperties(Class<?> type, List<String> fields) {
+		SQLEntityAccessor accessor = SQLEntityAccessor.of(type);
+		SQLEntityAccessor.Property[] result = new SQLEntityAccessor.Property[fields.size()];
 
-		for(HashMap<String, Object> entityData : data) {
-			result.add(convertDataToEntity(clazz, entityData));
+		for(int idx = 0; idx < result.length; ++ idx) {
+			result[idx] = accessor.property(fields.get(idx));
 		}
 
 		return result;
@@ -136,7 +147,7 @@ public class SQLUtil {
 	}
 
 	/**
-	 * 填充数据到 preparedStatement 中
+	 * 填充数据到 preparedStatement 中, 按值的类型通过 SQLTypeConverters 选择 setInt、setString 等
 	 *
 	 * @param preparedStatement 相应 PrepareStatement
 	 * @param data              数据
@@ -144,7 +155,7 @@ public class SQLUtil {
 	private static void fillDataIntoPreparedStatement(PreparedStatement preparedStatement,
 	                                                  List<Object> data) throws SQLException {
 		for(int i = 0; i < data.size(); ++ i) {
-			preparedStatement.setObject(i + 1, data.get(i));
+			SQLTypeConverters.bind(preparedStatement, i + 1, data.get(i));
 		}
 
 		outputSQLCommand(preparedStatement);
@@ -152,15 +163,39 @@ public class SQLUtil {
 
 	/**
 	 * 填充数据到 sql 语句中, 防止 SQL 注入攻击, 按批次填充数据
+	 * 每一列记住上一行所用的转换, 值的类型不变时不再查找
 	 *
 	 * @param data 数据
 	 */
 	private static void fillDataIntoPreparedStatementWithBatch(PreparedStatement preparedStatement,
 	                                                           List<List<Object>> data)
 			throws SQLException {
+		Class<?>[] types = new Class<?>[0];
+		List<SQLTypeConverter<Object>> binders = new ArrayList<SQLTypeConverter<Object>>();
+
 		for(List<Object> objs : data) {
+			if(objs.size() > types.length) {
+				types = Arrays.copyOf(types, objs.size());
+
+				while(binders.size() < objs.size()) {
+					binders.add(null);
+				}
+			}
+
 			for(int idx = 0; idx < objs.size(); ++ idx) {
-				preparedStatement.setObject(idx + 1, objs.get(idx));
+				Object value = objs.get(idx);
+
+				if(null == value) {
+					preparedStatement.setObject(idx + 1, null);
+					continue;
+				}
+
+				if(value.getClass() != types[idx]) {
+					types[idx] = value.getClass();
+					binders.set(idx, SQLTypeConverters.binder(types[idx]));
+				}
+
+				binders.get(idx).bind(preparedStatement, idx + 1, value);
 			}
 
 			outputSQLCommand(preparedStatement);
@@ -168,6 +203,31 @@ public class SQLUtil {
 		}
 	}
 
+	/**
+	 * 通过生成的映射把一个实体的字段直接填充到语句中, 并加入批次
+	 *
+	 * @param preparedStatement 相应 PrepareStatement
+	 * @param mapping           实体生成的映射
+	 * @param columns           要填充的字段在映射中的下标
+	 * @param binders           每个字段使用的转换, 见 SQLMappings.binders
+	 * @param entity            实体
+	 */
+	@SuppressWarnings("unchecked")
+	private static void bindEntityWithBatch(PreparedStatement preparedStatement,
+	                                        SQLEntityMapping<?> mapping,
+	                                        int[] columns,
+	                                        SQLTypeConverter<?>[] binders,
+	                                        Object entity) throws SQLException {
+		SQLEntityMapping<Object> entityMapping = (SQLEntityMapping<Object>) mapping;
+
+		for(int idx = 0; idx < columns.length; ++ idx) {
+			entityMapping.bind(preparedStatement, idx + 1, entity, columns[idx], binders[idx]);
+		}
+
+		outputSQLCommand(preparedStatement);
+		preparedStatement.addBatch();
+	}
+
 	/**
 	 * 从 ResultSet 中获取数据
 	 *
@@ -176,6 +236,30 @@ public class SQLUtil {
 	 */
 	private static List<HashMap<String, Object>> readDataInResultSet(ResultSet resultSet)
 			throws SQLException {
+		List<String> fields = readColumnNames(resultSet);
+		List<HashMap<String, Object>> result = new ArrayList<HashMap<String, Object>>();
+		HashMap<String, Object> data = null;
+
+		while(resultSet.next()) {
+			data = new HashMap<String, Object>();
+
+			for(String filed : fields) {
+				data.put(filed, resultSet.getObject(filed));
+			}
+
+			result.add(data);
+		}
+
+		return result;
+	}
+
+	/**
+	 * 获取结果集的所有字段名
+	 *
+	 * @param resultSet 相应结果集
+	 * @return 按列的顺序排列的字段名
+	 */
+	static List<String> readColumnNames(ResultSet resultSet) throws SQLException {
 		ResultSetMetaData resultSetMetaData = resultSet.getMetaData();
 		int columnCount = resultSetMetaData.getColumnCount();
 		List<String> fields = new ArrayList<String>();
@@ -186,17 +270,30 @@ public class SQLUtil {
 
 		outputColumnFields(fields);
 
-		List<HashMap<String, Object>> result = new ArrayList<HashMap<String, Object>>();
-		HashMap<String, Object> data = null;
+		return fields;
+	}
 
-		while(resultSet.next()) {
-			data = new HashMap<String, Object>();
+	/**
+	 * 从 ResultSet 中读取所有行并直接转化成相应实体
+	 * 读到第一行时才生成映射, 结果为空时实体类型不需要与字段对应
+	 *
+	 * @param clazz     对应实体的类型
+	 * @param resultSet 相应结果集
+	 * @param <T>       对应实体类型
+	 * @return 相应的实体
+	 */
+	private static <T> List<T> readEntitiesInResultSet(Class<T> clazz, ResultSet resultSet)
+			throws SQLException {
+		List<String> fields = readColumnNames(resultSet);
+		List<T> result = new ArrayList<T>();
+		SQLRowMapper<T> mapper = null;
 
-			for(String filed : fields) {
-				data.put(filed, resultSet.getObject(filed));
+		while(resultSet.next()) {
+			if(null == mapper) {
+				mapper = SQLRowMapper.compile(clazz, fields, resultSet.getMetaData());
 			}
 
-			result.add(data);
+			result.add(mapper.map(resultSet));
 		}
 
 		return result;
@@ -204,21 +301,53 @@ public class SQLUtil {
 
 	/**
 	 * 关闭所有
+	 *
+	 * @param generation 借出连接时连接的代数, 连接已被强制回收时不会误归还别人的连接
 	 */
-	private static void releaseAll(SQLConnection connection,
+	static void releaseAll(SQLConnection connection,
+	                               long generation,
 	                               PreparedStatement preparedStatement,
 	                               ResultSet resultSet) throws SQLException {
-		if(null != connection) {
-			connection.close();
+		// 先关闭语句再归还连接, 语句会放回该连接的缓存中
+		// 前面的关闭失败时仍要归还连接, 否则该槽位会一直处于借出状态; 后面的异常附加到第一个异常上
+		SQLException error = null;
+
+		try {
+			if(null != resultSet) {
+				resultSet.close();
+			}
+		} catch (SQLException e) {
+			error = e;
+		} finally {
+			try {
+				if(null != preparedStatement) {
+					preparedStatement.close();
+				}
+			} catch (SQLException e) {
+				error = suppress(error, e);
+			} finally {
+				try {
+					if(null != connection) {
+						connection.close(generation);
+					}
+				} catch (SQLException e) {
+					error = suppress(error, e);
+				}
+			}
 		}
 
-		if(null != preparedStatement) {
-			preparedStatement.close();
+		if(null != error) {
+			throw error;
 		}
+	}
 
-		if(null != resultSet) {
-			resultSet.close();
+	private static SQLException suppress(SQLException error, SQLException e) {
+		if(null == error) {
+			return e;
 		}
+
+		error.addSuppressed(e);
+		return error;
 	}
 
 	/**
@@ -227,19 +356,32 @@ public class SQLUtil {
 	 * @return MySQL 的最大连接数, -1 表示出错
 	 */
 	public static int getMySQLMaxConnections() {
+		return getMySQLMaxConnections(mDefaultDataSource.getPool());
+	}
+
+	/**
+	 * 获得某个连接池对应的 MySQL 的最大连接数
+	 *
+	 * @param pool 连接池
+	 * @return MySQL 的最大连接数, -1 表示出错
+	 */
+	static int getMySQLMaxConnections(SQLPool pool) {
 		PreparedStatement preparedStatement = null;
 		SQLConnection connection = null;
+		long generation = 0;
 		ResultSet resultSet = null;
 		int result = - 1;
 
 		try {
 			String sql = "show variables like ?;";
-			connection = mSQLPool.getConnection();
+			connection = pool.borrow(SQLPriority.NORMAL);
 
 			if(null == connection) {
 				return - 1;
 			}
 
+			generation = connection.getGeneration();
+
 			preparedStatement = connection.prepareStatement(sql);
 			preparedStatement.setString(1, "%max_connections%");
 			outputSQLCommand(preparedStatement);
@@ -257,7 +399,7 @@ public class SQLUtil {
 			}
 		} finally {
 			try {
-				releaseAll(connection, preparedStatement, resultSet);
+				releaseAll(connection, generation, preparedStatement, resultSet);
 			} catch (SQLException e) {
 				if(SQLConfiguration.printStackTrace) {
 					e.printStackTrace();
@@ -294,32 +436,53 @@ public class SQLUtil {
 	 * @return 相应的实体的 List
 	 */
 	static <T> List<T> query(Class<T> clazz, String sql, List<Object> data) {
+		return query(mDefaultDataSource.getPool(), SQLPriority.NORMAL, clazz, sql, data);
+	}
+
+	/**
+	 * 在指定的连接池上以指定的优先级执行查询操作
+	 *
+	 * @param pool     连接池
+	 * @param priority 借用连接的优先级
+	 * @param clazz    查询到的数据对应实体的类型
+	 * @param sql      sql 命令
+	 * @param data     数据
+	 * @param <T>      查询到的数据对应实体的类型
+	 * @return 相应的实体的 List
+	 */
+	static <T> List<T> query(SQLPool pool,
+	                         SQLPriority priority,
+	                         Class<T> clazz,
+	                         String sql,
+	                         List<Object> data) {
 		PreparedStatement preparedStatement = null;
 		SQLConnection connection = null;
+		long generation = 0;
 		ResultSet resultSet = null;
 		List<T> result = null;
 
 		try {
-			connection = mSQLPool.getConnection();
+			connection = pool.borrow(priority);
 
 			if(null == connection) {
 				return null;
 			}
 
+			generation = connection.getGeneration();
+
 			preparedStatement = connection.prepareStatement(sql);
 
 			fillDataIntoPreparedStatement(preparedStatement, data);
 
 			resultSet = preparedStatement.executeQuery();
-			List<HashMap<String, Object>> resultData = readDataInResultSet(resultSet);
-			result = convertDataToEntities(clazz, resultData);
+			result = readEntitiesInResultSet(clazz, resultSet);
 		} catch (SQLException e) {
 			if(SQLConfiguration.printStackTrace) {
 				e.printStackTrace();
 			}
 		} finally {
 			try {
-				releaseAll(connection, preparedStatement, resultSet);
+				releaseAll(connection, generation, preparedStatement, resultSet);
 			} catch (SQLException e) {
 				if(SQLConfiguration.printStackTrace) {
 					e.printStackTrace();
@@ -330,6 +493,69 @@ public class SQLUtil {
 		return result;
 	}
 
+	/**
+	 * 在指定的连接池上执行流式查询, 逐行读取并转化成实体, 内存占用与结果的行数无关
+	 * 返回的游标持有借出的连接, 读完或调用 close() 后才归还
+	 *
+	 * @param pool      连接池
+	 * @param priority  借用连接的优先级
+	 * @param clazz     查询到的数据对应实体的类型
+	 * @param sql       sql 命令
+	 * @param data      数据
+	 * @param fetchSize 每次从服务器取的行数, 见 SQLPoolConfig.fetchSize
+	 * @param <T>       查询到的数据对应实体的类型
+	 * @return 游标, 出错时为 null
+	 */
+	static <T> SQLCursor<T> cursor(SQLPool pool,
+	                               SQLPriority priority,
+	                               Class<T> clazz,
+	                               String sql,
+	                               List<Object> data,
+	                               int fetchSize) {
+		PreparedStatement preparedStatement = null;
+		SQLConnection connection = null;
+		long generation = 0;
+		ResultSet resultSet = null;
+
+		try {
+			connection = pool.borrow(priority);
+
+			if(null == connection) {
+				return null;
+			}
+
+			generation = connection.getGeneration();
+
+			preparedStatement = connection.prepareStatement(sql);
+			preparedStatement.setFetchSize(fetchSize);
+
+			fillDataIntoPreparedStatement(preparedStatement, data);
+
+			resultSet = preparedStatement.executeQuery();
+
+			return new SQLCursor<T>(clazz,
+			                        connection,
+			                        generation,
+			                        preparedStatement,
+			                        resultSet,
+			                        readColumnNames(resultSet));
+		} catch (SQLException e) {
+			if(SQLConfiguration.printStackTrace) {
+				e.printStackTrace();
+			}
+
+			try {
+				releaseAll(connection, generation, preparedStatement, resultSet);
+			} catch (SQLException ex) {
+				if(SQLConfiguration.printStackTrace) {
+					ex.printStackTrace();
+				}
+			}
+		}
+
+		return null;
+	}
+
 //	public static <T> List<Object> entityToObjectList(List<String> fields, ) {
 //
 //	}
@@ -366,17 +592,56 @@ public class SQLUtil {
 	                             String sql,
 	                             List<String> fields,
 	                             List<T> entities) {
+		return insert(SQLPriority.NORMAL, useTransaction, sql, fields, entities);
+	}
+
+	/**
+	 * 以指定的优先级插入数据, 大批量插入可使用 SQLPriority.LOW, 避免占满连接池
+	 *
+	 * @param priority 借用连接的优先级
+	 * @param sql      sql 命令
+	 * @param fields   要插入的数据对应的字段名, 即变量名
+	 * @param entities 相应数据
+	 * @return 受影响行数
+	 */
+	public static <T> int insert(SQLPriority priority,
+	                             Boolean useTransaction,
+	                             String sql,
+	                             List<String> fields,
+	                             List<T> entities) {
+		return insert(mDefaultDataSource.getPool(), priority, useTransaction, sql, fields, entities);
+	}
+
+	/**
+	 * 在指定的连接池上以指定的优先级插入数据
+	 *
+	 * @param pool     连接池
+	 * @param priority 借用连接的优先级
+	 * @param sql      sql 命令
+	 * @param fields   要插入的数据对应的字段名, 即变量名
+	 * @param entities 相应数据
+	 * @return 受影响行数
+	 */
+	static <T> int insert(SQLPool pool,
+	                      SQLPriority priority,
+	                      Boolean useTransaction,
+	                      String sql,
+	                      List<String> fields,
+	                      List<T> entities) {
 		PreparedStatement preparedStatement = null;
 		SQLConnection connection = null;
+		long generation = 0;
 		int result = 0;
 
 		try {
-			connection = mSQLPool.getConnection();
+			connection = pool.borrow(priority);
 
 			if(null == connection) {
 				return 0;
 			}
 
+			generation = connection.getGeneration();
+
 			if(useTransaction) {
 				connection.setAutoCommit(false);
 			}
@@ -386,6 +651,13 @@ public class SQLUtil {
 			int[] tmpResult;
 			List<List<Object>> data;
 			int batchCount = SQLConfiguration.getBatchCount(entities.size());
+			// 实体类型不变时只解析一次变量
+			Class<?> type = null;
+			SQLEntityAccessor.Property[] properties = null;
+			SQLEntityMapping<?> mapping = null;
+			int[] columns = null;
+			SQLTypeConverter<?>[] binders = null;
+			T entity;
 
 			for(int idx = 0; idx < batchCount; ++ idx) {
 				data = new ArrayList<List<Object>>();
@@ -394,10 +666,28 @@ public class SQLUtil {
 				    idx1 < SQLConfiguration.maxCountPerBatch
 				    && idx * SQLConfiguration.maxCountPerBatch + idx1 < entities.size();
 				    ++ idx1) {
-					data.add(convertEntityToData(entities.get(idx
-					                                          * SQLConfiguration.maxCountPerBatch
-					                                          + idx1),
-					                             fields));
+					entity = entities.get(idx * SQLConfiguration.maxCountPerBatch + idx1);
+
+					if(entity.getClass() != type) {
+						type = entity.getClass();
+						mapping = SQLMappings.find(type);
+
+						if(null == mapping) {
+							properties = resolveProperties(type, fields);
+						} else {
+							columns = SQLMappings.indexOf(mapping, type, fields);
+							binders = SQLMappings.binders(mapping, columns);
+						}
+					}
+
+					if(null == mapping) {
+						data.add(convertEntityToData(entity, properties));
+					} else {
+						// 保持行的顺序, 先把前面通过反射读取的行加入批次
+						fillDataIntoPreparedStatementWithBatch(preparedStatement, data);
+						data.clear();
+						bindEntityWithBatch(preparedStatement, mapping, columns, binders, entity);
+					}
 				}
 
 				fillDataIntoPreparedStatementWithBatch(preparedStatement, data);
@@ -413,7 +703,9 @@ public class SQLUtil {
 			connection.commitIfNeed();
 		} catch (SQLException e) {
 			try {
-				connection.rollbackIfNeed();
+				if(null != connection) {
+					connection.rollbackIfNeed();
+				}
 			} catch (SQLException e1) {
 				if(SQLConfiguration.printStackTrace) {
 					e1.printStackTrace();
@@ -425,7 +717,7 @@ public class SQLUtil {
 			}
 		} finally {
 			try {
-				releaseAll(connection, preparedStatement, null);
+				releaseAll(connection, generation, preparedStatement, null);
 			} catch (SQLException e) {
 				if(SQLConfiguration.printStackTrace) {
 					e.printStackTrace();
@@ -459,17 +751,37 @@ public class SQLUtil {
 	 * @return 受影响行数
 	 */
 	static int noQuery(Boolean useTransaction, String sql, List<Object> data) {
+		return noQuery(mDefaultDataSource.getPool(), SQLPriority.NORMAL, useTransaction, sql, data);
+	}
+
+	/**
+	 * 在指定的连接池上以指定的优先级执行非查询语句
+	 *
+	 * @param pool     连接池
+	 * @param priority 借用连接的优先级
+	 * @param sql      相应 sql 命令
+	 * @param data     相应数据
+	 * @return 受影响行数
+	 */
+	static int noQuery(SQLPool pool,
+	                   SQLPriority priority,
+	                   Boolean useTransaction,
+	                   String sql,
+	                   List<Object> data) {
 		PreparedStatement preparedStatement = null;
 		SQLConnection connection = null;
+		long generation = 0;
 		int result = 0;
 
 		try {
-			connection = mSQLPool.getConnection();
+			connection = pool.borrow(priority);
 
 			if(null == connection) {
 				return 0;
 			}
 
+			generation = connection.getGeneration();
+
 			if(useTransaction) {
 				connection.setAutoCommit(false);
 			}
@@ -482,7 +794,9 @@ public class SQLUtil {
 			connection.commitIfNeed();
 		} catch (SQLException e) {
 			try {
-				connection.rollbackIfNeed();
+				if(null != connection) {
+					connection.rollbackIfNeed();
+				}
 			} catch (SQLException e1) {
 				if(SQLConfiguration.printStackTrace) {
 					e1.printStackTrace();
@@ -493,18 +807,8 @@ public class SQLUtil {
 				e.printStackTrace();
 			}
 		} finally {
-			if(null != connection) {
-				try {
-					connection.setAutoCommit(false);
-				} catch (SQLException e) {
-					if(SQLConfiguration.printStackTrace) {
-						e.printStackTrace();
-					}
-				}
-			}
-
 			try {
-				releaseAll(connection, preparedStatement, null);
+				releaseAll(connection, generation, preparedStatement, null);
 			} catch (SQLException e) {
 				if(SQLConfiguration.printStackTrace) {
 					e.printStackTrace();
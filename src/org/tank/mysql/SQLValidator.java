@@ -0,0 +1,116 @@
+package org.tank.mysql;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 连接的有效性检测, 按 SQLPoolConfig.validationMode 决定何时以及如何检测,
+ * 并按模式统计检测的次数和耗时
+ */
+public class SQLValidator {
+
+	public enum Mode {
+		// 借出时空闲超过 SQLPoolConfig.validationIdleTime 才执行 keepAliveSQL
+		IDLE_THRESHOLD,
+		// 借出时空闲超过 SQLPoolConfig.validationIdleTime 才调用 Connection.isValid
+		PING,
+		// 借出时不检测, 只由清理线程检测
+		BACKGROUND,
+		// 从不检测
+		NEVER
+	}
+
+	private final SQLPool mPool;
+	private final LongAdder[] mCounts = new LongAdder[Mode.values().length];
+	private final LongAdder[] mTimes = new LongAdder[Mode.values().length];
+
+	SQLValidator(SQLPool pool) {
+		this.mPool = pool;
+
+		for(int idx = 0; idx < mCounts.length; ++ idx) {
+			mCounts[idx] = new LongAdder();
+			mTimes[idx] = new LongAdder();
+		}
+	}
+
+	/**
+	 * 判断借出连接时是否需要检测
+	 *
+	 * @param sqlConnection 要借出的连接
+	 * @param now           当前时间
+	 * @return 需要检测返回 true, 反之返回 false
+	 */
+	boolean needValidateOnBorrow(SQLConnection sqlConnection, long now) {
+		switch(mPool.getConfig().validationMode) {
+			case IDLE_THRESHOLD:
+			case PING:
+				return now - sqlConnection.getLastUsingTime() > mPool.getConfig().validationIdleTime;
+
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * 判断清理线程是否需要检测空闲连接
+	 *
+	 * @return 需要检测返回 true, 反之返回 false
+	 */
+	boolean needValidateInBackground() {
+		return mPool.getConfig().validationMode != Mode.NEVER;
+	}
+
+	/**
+	 * 检测连接是否可用, 并记在相应模式下
+	 *
+	 * @param sqlConnection 要检测的连接
+	 * @param mode          记录到哪个模式下, 清理线程的检测记在 BACKGROUND 下
+	 * @return 连接可用返回 true, 反之返回 false
+	 */
+	boolean validate(SQLConnection sqlConnection, Mode mode) {
+		long start = System.nanoTime();
+		boolean valid = false;
+
+		try {
+			if(mPool.getConfig().validationMode == Mode.PING) {
+				valid = sqlConnection.isValid(mPool.getConfig().validationTimeout);
+			} else {
+				try(PreparedStatement preparedStatement
+						    = sqlConnection.prepareStatement(mPool.getConfig().keepAliveSQL)) {
+					preparedStatement.execute();
+					valid = true;
+				}
+			}
+		} catch (SQLException e) {
+			if(SQLConfiguration.printStackTrace) {
+				e.printStackTrace();
+			}
+		} finally {
+			mCounts[mode.ordinal()].increment();
+			mTimes[mode.ordinal()].add(System.nanoTime() - start);
+		}
+
+		return valid;
+	}
+
+	/**
+	 * 获得某个模式下执行过的检测次数
+	 *
+	 * @param mode 检测模式
+	 * @return 检测次数
+	 */
+	public long getValidationCount(Mode mode) {
+		return mCounts[mode.ordinal()].sum();
+	}
+
+	/**
+	 * 获得某个模式下检测花费的总时间
+	 *
+	 * @param mode 检测模式
+	 * @return 总耗时, 单位为毫秒
+	 */
+	public long getValidationTime(Mode mode) {
+		return mTimes[mode.ordinal()].sum() / 1000000;
+	}
+}
@@ -0,0 +1,19 @@
+package org.tank.mysql;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记实体类对应的表, 编译时由 SQLMappingProcessor 生成该类的 SQLEntityMapping
+ * SQLCommand.table(Class) 和 into(Class) 使用这里的表名, 未标记时使用类名
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Table {
+	// 表名, 为空时使用类名
+	String value() default "";
+}
@@ -0,0 +1,22 @@
+package org.tank.mysql;
+
+/**
+ * 测试中的断言, 失败时抛出 AssertionError, 不依赖 java -ea
+ */
+final class Check {
+
+	private Check() {
+	}
+
+	static void that(boolean condition, String message) {
+		if(! condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	static void equal(Object expected, Object actual, String message) {
+		if(null == expected ? null != actual : ! expected.equals(actual)) {
+			throw new AssertionError(message + ": expected " + expected + " but was " + actual);
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package org.tank.mysql;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较 Reflect.call / Reflect.create 有解析缓存时与原来每次都查找 Method、Constructor 的耗时
+ * 原来的查找方式在这里按缓存之前的 exactMethod、similarMethod 重新实现
+ * 参数为每种情况测量的调用次数
+ */
+public class ReflectBenchmark {
+
+	public static class Target {
+		public int value;
+
+		public Target() {
+		}
+
+		public Target(int value) {
+			this.value = value;
+		}
+
+		public Target(String text) {
+			throw new IllegalArgumentException(text);
+		}
+
+		public String echo(String text) {
+			return text;
+		}
+
+		public int add(int lhs, int rhs) {
+			return lhs + rhs;
+		}
+
+		public void fail(String text) {
+			throw new IllegalStateException(text);
+		}
+	}
+
+	private interface Call {
+		Object run() throws Exception;
+	}
+
+	private static final Integer ONE = 1;
+	private static final Integer TWO = 2;
+
+	public static void main(String[] args) throws Exception {
+		final int calls = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+		final Target target = new Target();
+
+		correctness(target);
+
+		compare("call exact", calls, new Call() {
+			@Override
+			public Object run() {
+				return Reflect.on(target).call("echo", "x").get();
+			}
+		}, new Call() {
+			@Override
+			public Object run() throws Exception {
+				return resolve(Target.class, "echo", String.class).invoke(target, "x");
+			}
+		});
+
+		compare("call similar", calls, new Call() {
+			@Override
+			public Object run() {
+				return Reflect.on(target).call("add", ONE, TWO).get();
+			}
+		}, new Call() {
+			@Override
+			public Object run() throws Exception {
+				return resolve(Target.class, "add", Integer.class, Integer.class).invoke(target, ONE, TWO);
+			}
+		});
+
+		compare("create similar", calls, new Call() {
+			@Override
+			public Object run() {
+				return Reflect.on(Target.class).create(ONE).get();
+			}
+		}, new Call() {
+			@Override
+			public Object run() throws Exception {
+				return construct(Target.class, Integer.class).newInstance(ONE);
+			}
+		});
+
+		compare("call missing", calls / 10, new Call() {
+			@Override
+			public Object run() {
+				try {
+					return Reflect.on(target).call("missing", "x");
+				} catch (ReflectException e) {
+					return e;
+				}
+			}
+		}, new Call() {
+			@Override
+			public Object run() {
+				try {
+					return resolve(Target.class, "missing", String.class);
+				} catch (NoSuchMethodException e) {
+					return e;
+				}
+			}
+		});
+
+		System.out.println("ReflectBenchmark OK");
+	}
+
+	/**
+	 * 缓存命中和未命中时的结果都与直接调用一致
+	 */
+	private static void correctness(Target target) {
+		for(int round = 0; round < 2; ++ round) {
+			Check.equal("x", Reflect.on(target).call("echo", "x").get(), "exact call");
+			Check.equal(3, Reflect.on(target).call("add", ONE, TWO).get(), "similar call");
+			Check.equal(1, Reflect.on(Target.class).create(ONE).<Target>get().value, "similar constructor");
+			Check.equal(0, Reflect.on(Target.class).create().<Target>get().value, "default constructor");
+
+			try {
+				Reflect.on(target).call("missing", "x");
+				throw new AssertionError("missing method should throw");
+			} catch (ReflectException e) {
+				Check.that(e.getCause() instanceof NoSuchMethodException, "cause of a missing method: " + e.getCause());
+			}
+
+			// 与 Method.invoke、Constructor.newInstance 一样, 目标抛出的异常包装在 InvocationTargetException 中
+			try {
+				Reflect.on(target).call("fail", "x");
+				throw new AssertionError("failing method should throw");
+			} catch (ReflectException e) {
+				Check.that(e.getCause() instanceof InvocationTargetException, "cause of a failing method: " + e.getCause());
+				Check.that(e.getCause().getCause() instanceof IllegalStateException, "target exception of a failing method");
+			}
+
+			try {
+				Reflect.on(Target.class).create("x");
+				throw new AssertionError("failing constructor should throw");
+			} catch (ReflectException e) {
+				Check.that(e.getCause() instanceof InvocationTargetException, "cause of a failing constructor: " + e.getCause());
+				Check.that(e.getCause().getCause() instanceof IllegalArgumentException, "target exception of a failing constructor");
+			}
+		}
+	}
+
+	/**
+	 * 预热后交替测量有缓存和没有缓存的调用, 输出每次调用的平均耗时
+	 */
+	private static void compare(String name, int calls, Call cached, Call uncached) throws Exception {
+		int checksum = 0;
+
+		for(int idx = 0; idx < calls; ++ idx) {
+			checksum += cached.run().hashCode() + uncached.run().hashCode();
+		}
+
+		long cachedNanos = 0;
+		long uncachedNanos = 0;
+
+		for(int round = 0; round < 10; ++ round) {
+			long start = System.nanoTime();
+
+			for(int idx = 0; idx < calls / 10; ++ idx) {
+				checksum += cached.run().hashCode();
+			}
+
+			cachedNanos += System.nanoTime() - start;
+			start = System.nanoTime();
+
+			for(int idx = 0; idx < calls / 10; ++ idx) {
+				checksum += uncached.run().hashCode();
+			}
+
+			uncachedNanos += System.nanoTime() - start;
+		}
+
+		int measured = calls / 10 * 10;
+		System.out.println(name + ": cached " + cachedNanos / measured + "ns/call, uncached "
+		                   + uncachedNanos / measured + "ns/call, "
+		                   + TimeUnit.NANOSECONDS.toMillis(cachedNanos + uncachedNanos) + "ms (" + checksum + ")");
+	}
+
+	/**
+	 * 缓存之前 Reflect.call 的查找方式: 先找签名完全相同的方法, 找不到再逐个比较基本类型与包装类型转换后的签名
+	 */
+	private static Method resolve(Class<?> type, String name, Class<?>... types) throws NoSuchMethodException {
+		try {
+			return type.getMethod(name, types);
+		} catch (NoSuchMethodException e) {
+			for(Class<?> current = type; null != current; current = current.getSuperclass()) {
+				try {
+					return current.getDeclaredMethod(name, types);
+				} catch (NoSuchMethodException ignore) {
+				}
+			}
+		}
+
+		for(Method method : type.getMethods()) {
+			if(method.getName().equals(name) && similar(method.getParameterTypes(), types)) {
+				return method;
+			}
+		}
+
+		for(Class<?> current = type; null != current; current = current.getSuperclass()) {
+			for(Method method : current.getDeclaredMethods()) {
+				if(method.getName().equals(name) && similar(method.getParameterTypes(), types)) {
+					return method;
+				}
+			}
+		}
+
+		throw new NoSuchMethodException(name);
+	}
+
+	/**
+	 * 缓存之前 Reflect.create 的查找方式
+	 */
+	private static Constructor<?> construct(Class<?> type, Class<?>... types) throws NoSuchMethodException {
+		try {
+			return type.getDeclaredConstructor(types);
+		} catch (NoSuchMethodException e) {
+			for(Constructor<?> constructor : type.getDeclaredConstructors()) {
+				if(similar(constructor.getParameterTypes(), types)) {
+					return constructor;
+				}
+			}
+
+			throw e;
+		}
+	}
+
+	private static boolean similar(Class<?>[] declaredTypes, Class<?>[] actualTypes) {
+		if(declaredTypes.length != actualTypes.length) {
+			return false;
+		}
+
+		for(int idx = 0; idx < actualTypes.length; ++ idx) {
+			if(! Reflect.wrapper(declaredTypes[idx]).isAssignableFrom(Reflect.wrapper(actualTypes[idx]))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -0,0 +1,110 @@
+package org.tank.mysql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 流式查询的游标和缓存语句的复用, 使用 StubDriver
+ */
+public class SQLCursorTest {
+
+	public static class Row {
+		public Integer id;
+		public String name;
+	}
+
+	public static void main(String[] args) throws Exception {
+		SQLSharding sharding = SQLSharding.hash("id",
+		                                        new SQLDataSource("c0", StubDriver.config("c0")),
+		                                        new SQLDataSource("c1", StubDriver.config("c1")),
+		                                        new SQLDataSource("c2", StubDriver.config("c2")));
+
+		try {
+			shardedCursor(sharding);
+			statementReset(sharding.getShards().get(0));
+		} finally {
+			sharding.close();
+		}
+
+		System.out.println("SQLCursorTest OK");
+	}
+
+	/**
+	 * 发往多个分片的游标按 ORDER BY 归并并在全局上应用 LIMIT, 读完或提前关闭都归还所有连接
+	 */
+	private static void shardedCursor(SQLSharding sharding) {
+		// 每个分片都返回 id 为 1 到 4 的行
+		StubDriver.rows = 4;
+
+		SQLCursor<Row> cursor = sharding.query()
+		                                .table(Row.class)
+		                                .orderBy("id", true)
+		                                .limit(2, 5)
+		                                .cursor();
+
+		Check.that(null != cursor, "sharded cursor is opened");
+		Check.equal(Arrays.asList(1, 2, 2, 2, 3), ids(cursor), "merged ids");
+		Check.that(cursor.isClosed(), "cursor closes itself after the last row");
+		Check.equal(0, usingSize(sharding), "connections in use after reading every row");
+
+		cursor = sharding.query().table(Row.class).cursor();
+		Check.equal(1, cursor.next().id, "first row");
+		Check.equal(3, usingSize(sharding), "one connection per shard while streaming");
+		cursor.close();
+		Check.equal(0, usingSize(sharding), "connections in use after an early close");
+
+		cursor = sharding.query().table(Row.class).cursor();
+		Check.equal(12, ids(cursor).size(), "rows of every shard without ORDER BY");
+	}
+
+	private static List<Integer> ids(SQLCursor<Row> cursor) {
+		List<Integer> ids = new ArrayList<Integer>();
+
+		while(cursor.hasNext()) {
+			ids.add(cursor.next().id);
+		}
+
+		return ids;
+	}
+
+	private static int usingSize(SQLSharding sharding) {
+		int size = 0;
+
+		for(SQLDataSource shard : sharding.getShards()) {
+			size += shard.getPool().getCurrentUsingSize();
+		}
+
+		return size;
+	}
+
+	/**
+	 * 放回缓存的语句不会把上一个使用者改过的属性带给下一个使用者
+	 */
+	private static void statementReset(SQLDataSource dataSource) throws Exception {
+		String sql = "SELECT id, name FROM t WHERE id = ?";
+
+		try(SQLLease connection = dataSource.getConnection()) {
+			PreparedStatement statement = connection.prepareStatement(sql);
+
+			statement.setMaxRows(10);
+			statement.setQueryTimeout(5);
+			statement.setMaxFieldSize(1024);
+			statement.setFetchDirection(ResultSet.FETCH_REVERSE);
+			statement.setFetchSize(100);
+			statement.close();
+
+			PreparedStatement reused = connection.prepareStatement(sql);
+
+			Check.that(statement == reused, "statement is reused from the cache");
+			Check.equal(0, reused.getMaxRows(), "max rows");
+			Check.equal(0, reused.getQueryTimeout(), "query timeout");
+			Check.equal(0, reused.getMaxFieldSize(), "max field size");
+			Check.equal(ResultSet.FETCH_FORWARD, reused.getFetchDirection(), "fetch direction");
+			Check.equal(0, reused.getFetchSize(), "fetch size");
+			reused.close();
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package org.tank.mysql;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 借出和归还连接的争用测试, 使用 StubDriver
+ * 线程数远多于连接数, 比较在等待队列中排队与原来 "取不到就睡一会再取" 的借出耗时分布
+ * 参数依次为线程数、连接数、每个线程借出的次数、持有连接的微秒数、轮询方式每次睡眠的毫秒数
+ */
+public class SQLPoolBorrowBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+		long holdMicros = args.length > 3 ? Long.parseLong(args[3]) : 200;
+		long retryMillis = args.length > 4 ? Long.parseLong(args[4]) : 10;
+
+		deadline();
+
+		System.out.println("threads " + threads + ", connections " + connections + ", rounds " + rounds
+		                   + ", hold " + holdMicros + "us, retry " + retryMillis + "ms");
+
+		run("waiting", new Borrower() {
+			@Override
+			public SQLLease borrow(SQLPool pool) throws SQLException {
+				return pool.getConnection();
+			}
+		}, pool("waiting", connections, 30000), threads, rounds, holdMicros);
+
+		final long retry = retryMillis;
+
+		// 原来的做法: 取不到连接就睡 retryDurationDuringGetNullConnection 再取, 这里用 borrowTimeout 为 0 模拟 "取不到"
+		run("polling", new Borrower() {
+			@Override
+			public SQLLease borrow(SQLPool pool) throws SQLException {
+				while(true) {
+					try {
+						return pool.getConnection();
+					} catch (SQLPoolTimeoutException e) {
+						LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retry));
+					}
+				}
+			}
+		}, pool("polling", connections, 0), threads, rounds, holdMicros);
+
+		System.out.println("SQLPoolBorrowBenchmark OK");
+	}
+
+	private interface Borrower {
+		SQLLease borrow(SQLPool pool) throws SQLException;
+	}
+
+	/**
+	 * 连接全部借出时, 借出在 borrowTimeout 后抛出 SQLPoolTimeoutException, 归还后的连接立即交给下一个等待的线程
+	 */
+	private static void deadline() throws Exception {
+		final SQLPool pool = pool("deadline", 1, 50);
+
+		try {
+			SQLLease lease = pool.getConnection();
+			long start = System.nanoTime();
+
+			try {
+				pool.getConnection();
+				throw new AssertionError("borrow from an exhausted pool should time out");
+			} catch (SQLPoolTimeoutException e) {
+				long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+				Check.that(elapsed >= 50 && elapsed < 1000, "borrow gave up after " + elapsed + "ms");
+			}
+
+			final SQLLease[] handed = new SQLLease[1];
+			Thread waiter = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						handed[0] = pool.getConnection();
+					} catch (SQLException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+
+			pool.getConfig().setBorrowTimeout(5000);
+			waiter.start();
+
+			while(0 == pool.getWaitingSize()) {
+				Thread.yield();
+			}
+
+			long released = System.nanoTime();
+			lease.close();
+			waiter.join();
+
+			long handOff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - released);
+			Check.that(null != handed[0], "waiter got the released connection");
+			Check.that(handOff < 1000, "hand-off took " + handOff + "ms");
+			handed[0].close();
+			Check.equal(0, pool.getCurrentUsingSize(), "connections in use");
+		} finally {
+			pool.close();
+		}
+	}
+
+	private static SQLPool pool(String name, int size, long borrowTimeout) {
+		SQLPool pool = new SQLPool(name, StubDriver.config(name)
+		                                           .setMaxSize(size)
+		                                           .setMinSize(size)
+		                                           .setInitSize(size)
+		                                           .setBorrowTimeout(borrowTimeout));
+
+		pool.prefill();
+		return pool;
+	}
+
+	/**
+	 * 所有线程同时开始反复借出、持有、归还连接, 输出总耗时和借出耗时的分布
+	 */
+	private static void run(String name,
+	                        final Borrower borrower,
+	                        final SQLPool pool,
+	                        int threads,
+	                        final int rounds,
+	                        final long holdMicros) throws Exception {
+		final SQLHistogram histogram = new SQLHistogram();
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger failures = new AtomicInteger(0);
+		List<Thread> workers = new ArrayList<Thread>();
+
+		for(int idx = 0; idx < threads; ++ idx) {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+
+						for(int round = 0; round < rounds; ++ round) {
+							long begin = System.nanoTime();
+							SQLLease lease = borrower.borrow(pool);
+							histogram.record(System.nanoTime() - begin);
+
+							LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(holdMicros));
+							lease.close();
+						}
+					} catch (Exception e) {
+						failures.incrementAndGet();
+						e.printStackTrace();
+					}
+				}
+			});
+
+			worker.start();
+			workers.add(worker);
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+
+		for(Thread worker : workers) {
+			worker.join();
+		}
+
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+		try {
+			Check.equal(0, failures.get(), "failed borrowers of " + pool.getName());
+			Check.equal((long) threads * rounds, histogram.getCount(), "borrows of " + pool.getName());
+			Check.equal(0, pool.getCurrentUsingSize(), "connections in use after " + pool.getName());
+		} finally {
+			pool.close();
+		}
+
+		System.out.println(name + ": total " + elapsed + "ms, mean " + histogram.getMeanMicros()
+		                   + "us, p50 " + histogram.getPercentileMicros(0.5)
+		                   + "us, p99 " + histogram.getPercentileMicros(0.99)
+		                   + "us, p99.9 " + histogram.getPercentileMicros(0.999)
+		                   + "us, max " + histogram.getMaxMicros() + "us");
+	}
+}
@@ -0,0 +1,168 @@
+package org.tank.mysql;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.util.Properties;
+
+/**
+ * 连接池的借出、归还、强制收回和关闭, 使用 StubDriver
+ */
+public class SQLPoolTest {
+
+	public static void main(String[] args) throws Exception {
+		revokedSlot();
+		lateStatementClose();
+		releaseAfterClose();
+		connectTimeout();
+		autoCommitDefault();
+
+		System.out.println("SQLPoolTest OK");
+	}
+
+	/**
+	 * 强制收回的连接不再借给别人, 原来的借用者只能用到自己已中止的物理连接, 归还时清理它
+	 */
+	private static void revokedSlot() throws Exception {
+		SQLPool pool = new SQLPool("revoke", StubDriver.config("revoke")
+		                                               .setMaxSize(1)
+		                                               .setIdleTestPeriod(20)
+		                                               .setMaxUsingTime(50));
+
+		try {
+			SQLConnection stale = pool.borrow(SQLPriority.NORMAL);
+			long generation = stale.getGeneration();
+			Connection physical = stale.getConnection();
+
+			long deadline = System.currentTimeMillis() + 5000;
+
+			while(0 == pool.getMaintainer().getLeakCount() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+
+			Check.equal(1L, pool.getMaintainer().getLeakCount(), "revoked connections");
+
+			SQLConnection fresh = pool.borrow(SQLPriority.NORMAL);
+			long freshGeneration = fresh.getGeneration();
+
+			Check.that(fresh != stale, "revoked wrapper is lent again");
+			Check.that(fresh.getConnection() != physical, "revoked physical connection is lent again");
+			Check.that(physical.isClosed(), "revoked physical connection is aborted");
+			Check.that(stale.getConnection() == physical, "stale holder still sees only its own connection");
+
+			stale.close(generation);
+			Check.that(null == stale.getConnection(), "stale holder's connection is cleaned up on close");
+			Check.equal(1, pool.getCurrentUsingSize(), "connections in use after the stale close");
+			Check.that(fresh.isLeasedBy(freshGeneration), "new borrower keeps its connection");
+
+			fresh.close(freshGeneration);
+			Check.equal(0, pool.getCurrentUsingSize(), "connections in use");
+			Check.equal(1, pool.getCurrentSize(), "pool size");
+		} finally {
+			pool.close();
+		}
+	}
+
+	/**
+	 * 连接归还并再次借出后才关闭的语句不会放进新借用者的缓存
+	 */
+	private static void lateStatementClose() throws Exception {
+		SQLPool pool = new SQLPool("late", StubDriver.config("late").setMaxSize(1));
+
+		try {
+			SQLLease first = pool.getConnection();
+			PreparedStatement statement = first.prepareStatement("SELECT 1");
+			first.close();
+
+			SQLLease second = pool.getConnection();
+			statement.close();
+
+			long hits = pool.getMetrics().getStatementCacheHitCount();
+			PreparedStatement fresh = second.prepareStatement("SELECT 1");
+
+			Check.equal(hits, pool.getMetrics().getStatementCacheHitCount(), "cache hits after a late close");
+			Check.that(fresh != statement, "statement closed by the previous borrower is handed out again");
+
+			fresh.close();
+			Check.that(second.prepareStatement("SELECT 1") == fresh, "statement closed by its own borrower is cached");
+			second.close();
+		} finally {
+			pool.close();
+		}
+	}
+
+	/**
+	 * 连接池关闭后归还的连接直接关闭, 不会留在空闲队列中
+	 */
+	private static void releaseAfterClose() throws Exception {
+		SQLPool pool = new SQLPool("closing", StubDriver.config("closing").setMaxSize(1));
+		SQLConnection sqlConnection = pool.borrow(SQLPriority.NORMAL);
+		long generation = sqlConnection.getGeneration();
+		Connection physical = sqlConnection.getConnection();
+
+		pool.close();
+		sqlConnection.close(generation);
+
+		Check.that(physical.isClosed(), "connection returned after close is closed");
+		Check.equal(0, pool.getCurrentFreeSize(), "idle connections after close");
+		Check.equal(0, pool.getCurrentSize(), "pool size after close");
+	}
+
+	/**
+	 * 每个数据源建立连接时使用自己的超时, 不修改 JVM 共用的 DriverManager.setLoginTimeout
+	 */
+	private static void connectTimeout() throws Exception {
+		SQLPool fast = new SQLPool("fast", StubDriver.config("fast").setTimeout(1500).setUsername("u"));
+		SQLPool slow = new SQLPool("slow", StubDriver.config("slow").setTimeout(90000));
+		int loginTimeout = DriverManager.getLoginTimeout();
+
+		try {
+			fast.getConnection().close();
+			slow.getConnection().close();
+
+			Properties fastInfo = StubDriver.info.get(StubDriver.PREFIX + "fast");
+			Properties slowInfo = StubDriver.info.get(StubDriver.PREFIX + "slow");
+
+			Check.equal("1500", fastInfo.getProperty("connectTimeout"), "connect timeout of the fast pool");
+			Check.equal("u", fastInfo.getProperty("user"), "user of the fast pool");
+			Check.equal("90000", slowInfo.getProperty("connectTimeout"), "connect timeout of the slow pool");
+			Check.equal(loginTimeout, DriverManager.getLoginTimeout(), "global login timeout");
+		} finally {
+			fast.close();
+			slow.close();
+		}
+	}
+
+	/**
+	 * 服务器默认关闭 autoCommit 时, 只有第一次借出需要打开它, 之后的借出和归还不再访问数据库
+	 * 借用者自己修改的 autoCommit 在归还时恢复
+	 */
+	private static void autoCommitDefault() throws Exception {
+		StubDriver.autoCommit = false;
+		SQLPool pool = new SQLPool("manual", StubDriver.config("manual").setMaxSize(1));
+
+		try {
+			int before = StubDriver.autoCommitChanges.get();
+
+			for(int round = 0; round < 3; ++ round) {
+				SQLLease lease = pool.getConnection();
+				Check.that(lease.getAutoCommit(), "borrowed connection is in autocommit mode");
+				lease.close();
+			}
+
+			Check.equal(1, StubDriver.autoCommitChanges.get() - before, "setAutoCommit calls for three plain borrows");
+
+			SQLLease lease = pool.getConnection();
+			lease.setAutoCommit(false);
+			lease.close();
+
+			lease = pool.getConnection();
+			Check.that(lease.getAutoCommit(), "autocommit is restored after a borrower turned it off");
+			lease.close();
+			Check.equal(3, StubDriver.autoCommitChanges.get() - before, "setAutoCommit calls after a transaction");
+		} finally {
+			StubDriver.autoCommit = true;
+			pool.close();
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package org.tank.mysql;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一万个线程共用一个小连接池反复借出、查询、归还, 使用 StubDriver
+ * 运行在 JDK 21 以上时每个任务一个虚拟线程, 可以加上 -Djdk.tracePinnedThreads=full 检查载体线程是否被占住;
+ * 更早的 JDK 没有虚拟线程, 改用固定数量的普通线程执行同样多的任务
+ * 参数依次为任务数、连接数、每个任务借出的次数
+ */
+public class SQLPoolVirtualThreadTest {
+
+	public static void main(String[] args) throws Exception {
+		int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		StubDriver.rows = 3;
+
+		final SQLPool pool = new SQLPool("virtual", StubDriver.config("virtual")
+		                                                      .setMaxSize(connections)
+		                                                      .setBorrowTimeout(60000));
+		ExecutorService executor = virtualThreadExecutor();
+		boolean virtual = null != executor;
+
+		if(! virtual) {
+			executor = Executors.newFixedThreadPool(256);
+		}
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicInteger rows = new AtomicInteger(0);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+
+		try {
+			for(int idx = 0; idx < tasks; ++ idx) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						start.await();
+
+						for(int round = 0; round < rounds; ++ round) {
+							SQLLease lease = pool.getConnection();
+
+							try {
+								PreparedStatement statement = lease.prepareStatement("SELECT id, name FROM t");
+								ResultSet resultSet = statement.executeQuery();
+
+								while(resultSet.next()) {
+									rows.incrementAndGet();
+								}
+
+								resultSet.close();
+								statement.close();
+							} finally {
+								lease.close();
+							}
+						}
+
+						return null;
+					}
+				}));
+			}
+
+			long begin = System.nanoTime();
+			start.countDown();
+
+			for(Future<?> future : futures) {
+				future.get(5, TimeUnit.MINUTES);
+			}
+
+			long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+			Check.equal(tasks * rounds * StubDriver.rows, rows.get(), "rows read");
+			Check.equal(0, pool.getCurrentUsingSize(), "connections in use");
+			Check.equal(0, pool.getWaitingSize(), "waiting borrowers");
+			Check.that(pool.getCurrentSize() <= connections, "pool grew past maxSize: " + pool.getCurrentSize());
+			Check.equal(0L, pool.getMetrics().getTimeoutCount(), "borrow timeouts");
+
+			System.out.println((virtual ? "virtual" : "platform") + " threads: " + tasks + " tasks x " + rounds
+			                   + " borrows on " + connections + " connections in " + elapsed + "ms, borrow wait p99 "
+			                   + pool.getMetrics().getBorrowWaitP99Micros() + "us");
+		} finally {
+			executor.shutdownNow();
+			pool.close();
+		}
+
+		System.out.println("SQLPoolVirtualThreadTest OK");
+	}
+
+	/**
+	 * 通过反射调用 Executors.newVirtualThreadPerTaskExecutor(), 代码仍按 Java 8 编译
+	 *
+	 * @return 每个任务一个虚拟线程的 ExecutorService, JDK 不支持虚拟线程时返回 null
+	 */
+	private static ExecutorService virtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
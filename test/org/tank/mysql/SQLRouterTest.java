@@ -0,0 +1,222 @@
+package org.tank.mysql;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 读写分离的路由, 主库和从库都是 StubDriver 上的连接池
+ */
+public class SQLRouterTest {
+
+	public static class Row {
+		public Integer id;
+		public String name;
+	}
+
+	public static void main(String[] args) throws Exception {
+		StubDriver.rows = 2;
+
+		roundRobin();
+		leastOutstanding();
+		stickyRead();
+		replicasDown();
+		primaryDown();
+
+		System.out.println("SQLRouterTest OK");
+	}
+
+	/**
+	 * 查询依次轮流发往各个从库, 写操作只发往主库
+	 */
+	private static void roundRobin() {
+		SQLRouter router = router("rr");
+
+		try {
+			List<SQLDataSource> routed = new ArrayList<SQLDataSource>();
+
+			for(int idx = 0; idx < 6; ++ idx) {
+				routed.add(router.route(false));
+			}
+
+			List<SQLDataSource> replicas = router.getReplicas();
+			Check.equal(Arrays.asList(replicas.get(0), replicas.get(1), replicas.get(2),
+			                          replicas.get(0), replicas.get(1), replicas.get(2)),
+			            routed,
+			            "round-robin order");
+			Check.equal(router.getPrimary(), router.route(true), "write target");
+
+			Check.equal(2, query(router).size(), "rows read through the router");
+			Check.equal(1, update(router), "rows updated through the router");
+			Check.equal(1L, borrows(router.getPrimary()), "borrows on the primary");
+			Check.equal(1L, borrows(replicas.get(0)) + borrows(replicas.get(1)) + borrows(replicas.get(2)),
+			            "borrows on the replicas");
+		} finally {
+			router.close();
+		}
+	}
+
+	/**
+	 * 查询发往正在使用和等待的连接数最少的从库
+	 */
+	private static void leastOutstanding() throws SQLException {
+		SQLRouter router = router("lo").setStrategy(SQLRouter.Strategy.LEAST_OUTSTANDING);
+
+		try {
+			List<SQLDataSource> replicas = router.getReplicas();
+			SQLLease first = replicas.get(0).getPool().getConnection();
+			SQLLease second = replicas.get(1).getPool().getConnection();
+
+			for(int idx = 0; idx < 3; ++ idx) {
+				Check.equal(replicas.get(2), router.route(false), "least busy replica");
+			}
+
+			SQLLease third = replicas.get(2).getPool().getConnection();
+			SQLLease fourth = replicas.get(2).getPool().getConnection();
+			second.close();
+
+			Check.equal(replicas.get(1), router.route(false), "least busy replica after a return");
+
+			first.close();
+			third.close();
+			fourth.close();
+		} finally {
+			router.close();
+		}
+	}
+
+	/**
+	 * 写过主库的线程在 stickyTime 内读主库, 其他线程和粘滞期过后仍读从库
+	 */
+	private static void stickyRead() throws Exception {
+		final SQLRouter router = router("sticky").setStickyTime(300);
+
+		try {
+			Check.that(router.getPrimary() != router.route(false), "read before any write goes to a replica");
+
+			Check.equal(1, update(router), "rows updated");
+			Check.equal(router.getPrimary(), router.route(false), "read right after a write");
+			Check.equal(2, query(router).size(), "rows read right after a write");
+			Check.equal(2L, borrows(router.getPrimary()), "borrows on the primary after a sticky read");
+
+			final SQLDataSource[] other = new SQLDataSource[1];
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					other[0] = router.route(false);
+				}
+			});
+
+			thread.start();
+			thread.join();
+			Check.that(router.getPrimary() != other[0], "another thread still reads a replica");
+
+			Thread.sleep(350);
+			Check.that(router.getPrimary() != router.route(false), "read after the sticky time");
+		} finally {
+			router.close();
+		}
+	}
+
+	/**
+	 * 所有从库都不可用时查询改发主库, 恢复一个从库后又发往从库
+	 */
+	private static void replicasDown() {
+		SQLRouter router = router("rdown");
+
+		try {
+			List<SQLDataSource> replicas = router.getReplicas();
+
+			trip(replicas.get(0), "rdown-r0");
+			trip(replicas.get(1), "rdown-r1");
+
+			for(int idx = 0; idx < 3; ++ idx) {
+				Check.equal(replicas.get(2), router.route(false), "only healthy replica");
+			}
+
+			replicas.get(2).close();
+
+			Check.equal(router.getPrimary(), router.route(false), "read with every replica down");
+			Check.equal(2, query(router).size(), "rows read from the primary");
+			Check.equal(1L, borrows(router.getPrimary()), "borrows on the primary");
+		} finally {
+			StubDriver.setDown("rdown-r0", false);
+			StubDriver.setDown("rdown-r1", false);
+			router.close();
+		}
+	}
+
+	/**
+	 * 主库不可用时写操作很快失败, 查询不受影响, 仍由从库执行
+	 */
+	private static void primaryDown() {
+		SQLRouter router = router("pdown");
+
+		try {
+			trip(router.getPrimary(), "pdown-p");
+
+			long start = System.currentTimeMillis();
+			Check.equal(0, update(router), "rows updated with the primary down");
+			Check.that(System.currentTimeMillis() - start < 1000, "write fails fast while the circuit is open");
+
+			Check.that(router.getPrimary() != router.route(false), "read with the primary down");
+			Check.equal(2, query(router).size(), "rows read from a replica with the primary down");
+		} finally {
+			StubDriver.setDown("pdown-p", false);
+			router.close();
+		}
+	}
+
+	/**
+	 * 主库为 name-p, 三个从库为 name-r0 到 name-r2, 连续一次建立连接失败就打开断路器
+	 */
+	private static SQLRouter router(String name) {
+		SQLDataSource primary = dataSource(name + "-p");
+		List<SQLDataSource> replicas = new ArrayList<SQLDataSource>();
+
+		for(int idx = 0; idx < 3; ++ idx) {
+			replicas.add(dataSource(name + "-r" + idx));
+		}
+
+		return new SQLRouter(primary, replicas);
+	}
+
+	private static SQLDataSource dataSource(String name) {
+		return new SQLDataSource(name, StubDriver.config(name)
+		                                         .setMaxSize(4)
+		                                         .setBorrowTimeout(5000)
+		                                         .setCircuitFailureThreshold(1)
+		                                         .setCircuitOpenTime(60000));
+	}
+
+	/**
+	 * 让数据源无法连接并借一次连接, 使它的断路器打开
+	 */
+	private static void trip(SQLDataSource dataSource, String name) {
+		StubDriver.setDown(name, true);
+
+		try {
+			dataSource.getPool().getConnection().close();
+			throw new AssertionError("borrow from " + name + " should fail");
+		} catch (SQLException e) {
+			// 断路器打开, 借出失败
+		}
+
+		Check.equal(SQLCircuitBreaker.State.OPEN,
+		            dataSource.getPool().getCircuitBreaker().getState(),
+		            "circuit of " + name);
+	}
+
+	private static List<Row> query(SQLRouter router) {
+		return router.query().table(Row.class).executeQuery();
+	}
+
+	private static int update(SQLRouter router) {
+		return router.update().table(Row.class).set("name", "x").where().equalTo("id", 1).executeUpdate();
+	}
+
+	private static long borrows(SQLDataSource dataSource) {
+		return dataSource.getPool().getMetrics().getBorrowCount();
+	}
+}
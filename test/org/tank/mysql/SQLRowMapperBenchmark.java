@@ -0,0 +1,118 @@
+package org.tank.mysql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 比较编译好的 SQLRowMapper 与原来 "每行一个 HashMap, 再用 Reflect.set 按名字赋值" 的转化耗时
+ * 结果集来自 StubDriver, 两种方式读取结果集本身的开销相同
+ * 参数依次为每个结果集的行数、测量的轮数
+ */
+public class SQLRowMapperBenchmark {
+
+	public static class Row {
+		public int id;
+		public String name;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+		SQLConfiguration.showLog = false;
+		SQLConfiguration.printStackTrace = false;
+
+		List<Row> compiled = compiled(StubDriver.resultSet(rows));
+		List<Row> legacy = legacy(StubDriver.resultSet(rows));
+
+		Check.equal(rows, compiled.size(), "rows of the compiled mapper");
+
+		for(int idx = 0; idx < rows; ++ idx) {
+			Check.equal(legacy.get(idx).id, compiled.get(idx).id, "id of row " + idx);
+			Check.equal(legacy.get(idx).name, compiled.get(idx).name, "name of row " + idx);
+		}
+
+		// 预热后再测量, 两种方式交替进行以抵消 JIT 和 GC 的影响
+		for(int round = 0; round < rounds; ++ round) {
+			compiled(StubDriver.resultSet(rows));
+			legacy(StubDriver.resultSet(rows));
+		}
+
+		long compiledNanos = 0;
+		long legacyNanos = 0;
+
+		for(int round = 0; round < rounds; ++ round) {
+			long start = System.nanoTime();
+			compiled(StubDriver.resultSet(rows));
+			compiledNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			legacy(StubDriver.resultSet(rows));
+			legacyNanos += System.nanoTime() - start;
+		}
+
+		long total = (long) rows * rounds;
+		System.out.println(rounds + " rounds of " + rows + " rows");
+		System.out.println("compiled: " + compiledNanos / total + "ns/row, "
+		                   + TimeUnit.NANOSECONDS.toMillis(compiledNanos) + "ms");
+		System.out.println("hashmap:  " + legacyNanos / total + "ns/row, "
+		                   + TimeUnit.NANOSECONDS.toMillis(legacyNanos) + "ms");
+		System.out.println("SQLRowMapperBenchmark OK");
+	}
+
+	/**
+	 * 与 SQLUtil.readEntitiesInResultSet 相同
+	 */
+	private static List<Row> compiled(ResultSet resultSet) throws SQLException {
+		List<String> fields = SQLUtil.readColumnNames(resultSet);
+		List<Row> result = new ArrayList<Row>();
+		SQLRowMapper<Row> mapper = null;
+
+		while(resultSet.next()) {
+			if(null == mapper) {
+				mapper = SQLRowMapper.compile(Row.class, fields, resultSet.getMetaData());
+			}
+
+			result.add(mapper.map(resultSet));
+		}
+
+		return result;
+	}
+
+	/**
+	 * 原来的做法: 按字段名把每行读进 HashMap, 再逐个用 Reflect.set 赋值
+	 */
+	private static List<Row> legacy(ResultSet resultSet) throws SQLException {
+		List<String> fields = SQLUtil.readColumnNames(resultSet);
+		List<HashMap<String, Object>> data = new ArrayList<HashMap<String, Object>>();
+
+		while(resultSet.next()) {
+			HashMap<String, Object> row = new HashMap<String, Object>();
+
+			for(String field : fields) {
+				row.put(field, resultSet.getObject(field));
+			}
+
+			data.add(row);
+		}
+
+		List<Row> result = new ArrayList<Row>();
+
+		for(HashMap<String, Object> row : data) {
+			Reflect entity = Reflect.on(Row.class).create();
+
+			for(Map.Entry<String, Object> entry : row.entrySet()) {
+				entity.set(entry.getKey(), entry.getValue());
+			}
+
+			result.add(entity.<Row>get());
+		}
+
+		return result;
+	}
+}
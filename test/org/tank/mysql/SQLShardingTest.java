@@ -0,0 +1,199 @@
+package org.tank.mysql;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 分片的路由和并行执行, 不需要数据库
+ */
+public class SQLShardingTest {
+
+	public static void main(String[] args) throws Exception {
+		SQLSharding sharding = SQLSharding.hash("id",
+		                                        new SQLDataSource("s0", StubDriver.config("s0")),
+		                                        new SQLDataSource("s1", StubDriver.config("s1")),
+		                                        new SQLDataSource("s2", StubDriver.config("s2")),
+		                                        new SQLDataSource("s3", StubDriver.config("s3")));
+
+		try {
+			hashKeys(sharding);
+			routeConditions(sharding);
+			boundedScatter(sharding);
+			failedScatter(sharding);
+		} finally {
+			sharding.close();
+		}
+
+		rangeKeys();
+
+		System.out.println("SQLShardingTest OK");
+	}
+
+	/**
+	 * 同一个值无论以整数还是字符串给出都落在同一个分片
+	 */
+	private static void hashKeys(SQLSharding sharding) {
+		for(int key = - 20; key <= 20; ++ key) {
+			SQLDataSource expected = sharding.locate(key);
+
+			Check.equal(expected, sharding.locate((long) key), "long key " + key);
+			Check.equal(expected, sharding.locate(String.valueOf(key)), "string key " + key);
+			Check.equal(expected, sharding.locate(" " + key + " "), "padded string key " + key);
+			Check.equal(expected, sharding.locate(BigInteger.valueOf(key)), "BigInteger key " + key);
+		}
+
+		Check.equal(sharding.locate(5), sharding.locate("+5"), "signed string key");
+		Check.equal(sharding.locate("abc"), sharding.locate(new StringBuilder("abc").toString()), "string key");
+		Check.equal(null, SQLSharding.parseLong("99999999999999999999"), "overflowing string is not a number");
+		Check.equal(null, SQLSharding.parseLong("-"), "sign only is not a number");
+	}
+
+	/**
+	 * 按区间分片时整数形式的字符串与整数一致, 不是整数的值抛出 ReflectException 并指出这个值
+	 */
+	private static void rangeKeys() {
+		SQLDataSource low = new SQLDataSource("r0", StubDriver.config("r0"));
+		SQLDataSource high = new SQLDataSource("r1", StubDriver.config("r1"));
+		SQLSharding sharding = SQLSharding.range("id", new long[]{100}, low, high);
+
+		try {
+			Check.equal(low, sharding.locate(99), "below the bound");
+			Check.equal(high, sharding.locate(" 100 "), "string key at the bound");
+
+			try {
+				sharding.locate("abc");
+				throw new AssertionError("non-numeric range key should be rejected");
+			} catch (ReflectException e) {
+				Check.that(e.getMessage().contains("'abc'"), "message names the key: " + e.getMessage());
+			}
+		} finally {
+			sharding.close();
+		}
+	}
+
+	/**
+	 * 条件中的 = 和 IN 只发往拥有这些值的分片, 字符串和整数的条件互相一致
+	 */
+	private static void routeConditions(SQLSharding sharding) {
+		List<SQLCondition> conditions = new ArrayList<SQLCondition>();
+
+		conditions.add(new SQLCondition().setOperation(SQLCondition.IN).addField("id").addData(new Object[]{13, "21"}));
+		Check.equal(Collections.singletonList(sharding.locate(1)), sharding.route(conditions), "IN (13, '21')");
+
+		conditions.add(new SQLCondition().setOperation(SQLCondition.EQUAL).addField("ID").addData("22"));
+		Check.equal(Collections.emptyList(), sharding.route(conditions), "contradicting conditions");
+
+		conditions.add(new SQLCondition().setOperation(SQLCondition.OR));
+		Check.equal(sharding.getShards(), sharding.route(conditions), "OR goes to every shard");
+	}
+
+	/**
+	 * 大量并发的 scatter 使用的工作线程不超过分片数乘以并行度, 超出的由调用线程执行
+	 */
+	private static void boundedScatter(final SQLSharding sharding) throws Exception {
+		final int parallelism = 1;
+		final int callers = 32;
+		final Set<String> workers = ConcurrentHashMap.newKeySet();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[callers];
+
+		sharding.setParallelism(parallelism);
+
+		for(int idx = 0; idx < callers; ++ idx) {
+			threads[idx] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+
+						for(int round = 0; round < 50; ++ round) {
+							List<String> names = sharding.scatter(sharding.getShards(),
+							                                      new SQLSharding.ShardTask<String>() {
+								@Override
+								public String execute(SQLDataSource shard) {
+									String thread = Thread.currentThread().getName();
+
+									if(thread.startsWith("SQLSharding Worker-")) {
+										workers.add(thread);
+									}
+
+									Thread.yield();
+									return shard.getName();
+								}
+							});
+
+							Check.equal(Arrays.asList("s0", "s1", "s2", "s3"), names, "results keep the shard order");
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			});
+			threads[idx].start();
+		}
+
+		start.countDown();
+
+		for(Thread thread : threads) {
+			thread.join();
+		}
+
+		if(null != failure.get()) {
+			throw new AssertionError(failure.get());
+		}
+
+		Check.that(workers.size() <= sharding.getShards().size() * parallelism,
+		           "at most " + sharding.getShards().size() * parallelism + " workers, got " + workers.size());
+	}
+
+	/**
+	 * 一个分片失败时其余还在执行的分片被取消, 异常原样抛给调用者
+	 */
+	private static void failedScatter(SQLSharding sharding) throws Exception {
+		final CountDownLatch started = new CountDownLatch(sharding.getShards().size() - 1);
+		final CountDownLatch cancelled = new CountDownLatch(sharding.getShards().size() - 1);
+		final AtomicInteger finished = new AtomicInteger(0);
+
+		sharding.setParallelism(1);
+
+		try {
+			sharding.scatter(sharding.getShards(), new SQLSharding.ShardTask<String>() {
+				@Override
+				public String execute(SQLDataSource shard) {
+					try {
+						if("s0".equals(shard.getName())) {
+							// 等其余分片都开始执行后再失败
+							started.await(5, TimeUnit.SECONDS);
+							throw new IllegalStateException("s0 failed");
+						}
+
+						started.countDown();
+						Thread.sleep(10000);
+						finished.incrementAndGet();
+					} catch (InterruptedException e) {
+						cancelled.countDown();
+					}
+
+					return shard.getName();
+				}
+			});
+			throw new AssertionError("failed shard should throw");
+		} catch (IllegalStateException e) {
+			Check.equal("s0 failed", e.getMessage(), "failure of the first shard");
+		}
+
+		Check.that(cancelled.await(5, TimeUnit.SECONDS), "other shards are cancelled, "
+		                                                 + cancelled.getCount() + " still running");
+		Check.equal(0, finished.get(), "shards that ran to the end");
+	}
+}
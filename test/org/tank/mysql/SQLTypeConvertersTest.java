@@ -0,0 +1,124 @@
+package org.tank.mysql;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Date;
+
+/**
+ * 转换的选择、注册后的失效, 以及查找时不分配对象
+ */
+public class SQLTypeConvertersTest {
+
+	enum Level {
+		LOW,
+		HIGH {
+			@Override
+			public String toString() {
+				return "high";
+			}
+		}
+	}
+
+	static class Money {
+		final long mCents;
+
+		Money(long cents) {
+			this.mCents = cents;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		resolution();
+		registration();
+		allocation();
+
+		System.out.println("SQLTypeConvertersTest OK");
+	}
+
+	private static void resolution() throws SQLException {
+		ResultSet resultSet = StubDriver.resultSet(1);
+		resultSet.next();
+
+		Check.that(SQLTypeConverters.converter(Types.BIGINT, Date.class)
+		           != SQLTypeConverters.converter(Types.TIMESTAMP, Date.class),
+		           "BIGINT dates use their own converter");
+		Check.equal(new Date(1), SQLTypeConverters.converter(Types.BIGINT, Date.class).read(resultSet, 1),
+		            "BIGINT date is read as epoch millis");
+		Check.that(SQLTypeConverters.converter(Types.VARCHAR, String.class)
+		           == SQLTypeConverters.converter(String.class),
+		           "types without a JDBC specific converter fall back to ANY");
+		Check.that(SQLTypeConverters.converter(- 100, String.class)
+		           == SQLTypeConverters.converter(String.class),
+		           "driver specific JDBC types are treated as ANY");
+		Check.that(SQLTypeConverters.converter(Level.HIGH.getClass()).getClass()
+		           == SQLTypeConverters.converter(Level.class).getClass(),
+		           "enum constant bodies use the enum converter");
+		Check.equal(SQLTypeConverters.converter(Object.class), SQLTypeConverters.converter(Money.class),
+		            "unregistered types use getObject and setObject");
+	}
+
+	private static void registration() {
+		SQLTypeConverter<Money> money = new SQLTypeConverter<Money>() {
+			@Override
+			public Money read(ResultSet resultSet, int index) throws SQLException {
+				return new Money(resultSet.getLong(index));
+			}
+
+			@Override
+			public void bind(PreparedStatement statement, int index, Money value) throws SQLException {
+				statement.setLong(index, value.mCents);
+			}
+		};
+
+		// 已解析过的结果在注册后作废
+		SQLTypeConverters.converter(Types.DECIMAL, Money.class);
+		SQLTypeConverters.register(Money.class, money);
+		Check.that(SQLTypeConverters.converter(Types.DECIMAL, Money.class) == money,
+		           "registration replaces the resolved converter");
+		Check.that(SQLTypeConverters.binder(Money.class) == (Object) money, "registration applies to binding");
+
+		try {
+			SQLTypeConverters.register(- 100, Money.class, money);
+			throw new AssertionError("unsupported JDBC types are rejected");
+		} catch (IllegalArgumentException e) {
+			// 期望的异常
+		}
+	}
+
+	/**
+	 * 解析过之后的查找不分配对象, 只在 HotSpot 上检查
+	 */
+	private static void allocation() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		if(! (bean instanceof com.sun.management.ThreadMXBean)) {
+			return;
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		long id = Thread.currentThread().getId();
+		int[] jdbcTypes = {Types.INTEGER, Types.BIGINT, Types.VARCHAR, Types.TIMESTAMP};
+		Class<?>[] types = {Integer.class, Date.class, String.class, Level.class};
+		int checksum = 0;
+
+		// 预热, 同时完成解析
+		for(int round = 0; round < 200000; ++ round) {
+			checksum += SQLTypeConverters.converter(jdbcTypes[round & 3], types[round & 3]).hashCode();
+		}
+
+		long before = threads.getThreadAllocatedBytes(id);
+
+		for(int round = 0; round < 1000000; ++ round) {
+			checksum += SQLTypeConverters.converter(jdbcTypes[round & 3], types[round & 3]).hashCode();
+		}
+
+		long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+		// 允许测量本身的少量分配
+		Check.that(allocated < 64 * 1024, "lookups allocated " + allocated + " bytes (checksum " + checksum + ")");
+	}
+}
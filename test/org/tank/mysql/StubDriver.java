@@ -0,0 +1,312 @@
+package org.tank.mysql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * 测试用的 JDBC 驱动, 不连接数据库, 只处理 jdbc:stub: 开头的 url
+ * 结果集有 id (INTEGER) 和 name (VARCHAR) 两列, 第 n 行为 n 和 "name" + n
+ * 可以让某个 url 暂时无法连接, 用来模拟数据库不可用
+ */
+public class StubDriver implements Driver {
+
+	public static final String PREFIX = "jdbc:stub:";
+
+	// 查询返回的行数
+	static volatile int rows = 0;
+
+	static final AtomicInteger opened = new AtomicInteger(0);
+	static final AtomicInteger closed = new AtomicInteger(0);
+	static final AtomicInteger aborted = new AtomicInteger(0);
+	// 新连接的 autoCommit, 以及所有连接上调用 setAutoCommit 的次数
+	static volatile boolean autoCommit = true;
+	static final AtomicInteger autoCommitChanges = new AtomicInteger(0);
+
+	private static final Set<String> mDown = ConcurrentHashMap.newKeySet();
+	// 每个 url 最近一次建立连接时的属性
+	static final Map<String, Properties> info = new ConcurrentHashMap<String, Properties>();
+
+	static {
+		try {
+			DriverManager.registerDriver(new StubDriver());
+		} catch (SQLException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * 创建连接到 jdbc:stub:name 的连接池配置, 不预先建立连接
+	 *
+	 * @param name 数据库的名字
+	 * @return 连接池配置
+	 */
+	static SQLPoolConfig config(String name) {
+		SQLConfiguration.showLog = false;
+		SQLConfiguration.printStackTrace = false;
+
+		return new SQLPoolConfig().setDriver(StubDriver.class.getName())
+		                          .setUrl(PREFIX + name)
+		                          .setInitSize(0)
+		                          .setMinSize(0)
+		                          .setRegisterMBean(false);
+	}
+
+	/**
+	 * 设置数据库是否可用, 不可用时无法建立新连接, 已有的连接检测时无效
+	 *
+	 * @param name 数据库的名字
+	 * @param down 是否不可用
+	 */
+	static void setDown(String name, boolean down) {
+		if(down) {
+			mDown.add(PREFIX + name);
+		} else {
+			mDown.remove(PREFIX + name);
+		}
+	}
+
+	@Override
+	public Connection connect(String url, Properties info) throws SQLException {
+		if(! acceptsURL(url)) {
+			return null;
+		}
+
+		if(mDown.contains(url)) {
+			throw new SQLException("Stub database " + url + " is down");
+		}
+
+		if(null != info) {
+			StubDriver.info.put(url, info);
+		}
+
+		opened.incrementAndGet();
+		return connection(url);
+	}
+
+	@Override
+	public boolean acceptsURL(String url) {
+		return null != url && url.startsWith(PREFIX);
+	}
+
+	@Override
+	public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+		return new DriverPropertyInfo[0];
+	}
+
+	@Override
+	public int getMajorVersion() {
+		return 1;
+	}
+
+	@Override
+	public int getMinorVersion() {
+		return 0;
+	}
+
+	@Override
+	public boolean jdbcCompliant() {
+		return false;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	private static Connection connection(final String url) {
+		return proxy(Connection.class, new InvocationHandler() {
+			private boolean mClosed = false;
+			private boolean mAutoCommit = autoCommit;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch(method.getName()) {
+					case "close":
+						if(! mClosed) {
+							mClosed = true;
+							closed.incrementAndGet();
+						}
+						return null;
+					case "abort":
+						mClosed = true;
+						aborted.incrementAndGet();
+						return null;
+					case "isClosed":
+						return mClosed;
+					case "isValid":
+						return ! mClosed && ! mDown.contains(url);
+					case "getAutoCommit":
+						return mAutoCommit;
+					case "setAutoCommit":
+						mAutoCommit = (Boolean) args[0];
+						autoCommitChanges.incrementAndGet();
+						return null;
+					case "prepareStatement":
+					case "createStatement":
+						return statement();
+					case "getTransactionIsolation":
+						return Connection.TRANSACTION_REPEATABLE_READ;
+					case "toString":
+						return url;
+					default:
+						return defaultValue(proxy, method, args);
+				}
+			}
+		});
+	}
+
+	private static PreparedStatement statement() {
+		return proxy(PreparedStatement.class, new InvocationHandler() {
+			// setMaxRows、setQueryTimeout 等设置过的值, 由相应的 get 方法返回
+			private final Map<String, Object> mProperties = new HashMap<String, Object>();
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch(method.getName()) {
+					case "execute":
+						return true;
+					case "executeUpdate":
+						return 1;
+					case "executeBatch":
+						return new int[0];
+					case "executeQuery":
+						return resultSet(rows);
+					case "setFetchSize":
+					case "setFetchDirection":
+					case "setMaxRows":
+					case "setMaxFieldSize":
+					case "setQueryTimeout":
+						mProperties.put(method.getName().substring(3), args[0]);
+						return null;
+					case "getFetchSize":
+					case "getFetchDirection":
+					case "getMaxRows":
+					case "getMaxFieldSize":
+					case "getQueryTimeout":
+						Object value = mProperties.get(method.getName().substring(3));
+
+						if(null == value) {
+							return "getFetchDirection".equals(method.getName()) ? ResultSet.FETCH_FORWARD : 0;
+						}
+
+						return value;
+					default:
+						return defaultValue(proxy, method, args);
+				}
+			}
+		});
+	}
+
+	static ResultSet resultSet(final int count) {
+		final ResultSetMetaData metaData = proxy(ResultSetMetaData.class, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch(method.getName()) {
+					case "getColumnCount":
+						return 2;
+					case "getColumnName":
+					case "getColumnLabel":
+						return 1 == (Integer) args[0] ? "id" : "name";
+					case "getColumnType":
+						return 1 == (Integer) args[0] ? Types.INTEGER : Types.VARCHAR;
+					default:
+						return defaultValue(proxy, method, args);
+				}
+			}
+		});
+
+		return proxy(ResultSet.class, new InvocationHandler() {
+			private int mRow = 0;
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				switch(method.getName()) {
+					case "next":
+						if(mRow >= count) {
+							return false;
+						}
+
+						++ mRow;
+						return true;
+					case "getMetaData":
+						return metaData;
+					case "getInt":
+						return mRow;
+					case "getLong":
+						return (long) mRow;
+					case "getString":
+						return isFirst(args[0]) ? String.valueOf(mRow) : "name" + mRow;
+					case "getObject":
+						return isFirst(args[0]) ? (Object) mRow : "name" + mRow;
+					case "wasNull":
+						return false;
+					default:
+						return defaultValue(proxy, method, args);
+				}
+			}
+		});
+	}
+
+	private static boolean isFirst(Object column) {
+		return column instanceof Integer ? 1 == (Integer) column : "id".equals(column);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(StubDriver.class.getClassLoader(), new Class<?>[]{type}, handler);
+	}
+
+	/**
+	 * 其他方法什么也不做, 返回类型的默认值
+	 */
+	private static Object defaultValue(Object proxy, Method method, Object[] args) {
+		switch(method.getName()) {
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "equals":
+				return proxy == args[0];
+			case "toString":
+				return "stub " + method.getDeclaringClass().getSimpleName();
+			default:
+				break;
+		}
+
+		Class<?> type = method.getReturnType();
+
+		if(boolean.class == type) {
+			return false;
+		}
+
+		if(int.class == type) {
+			return 0;
+		}
+
+		if(long.class == type) {
+			return 0L;
+		}
+
+		if(! type.isPrimitive() || void.class == type) {
+			return null;
+		}
+
+		throw new UnsupportedOperationException(method.toString());
+	}
+}